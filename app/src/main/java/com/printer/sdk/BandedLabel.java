@@ -0,0 +1,148 @@
+package com.printer.sdk;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// A label too long to be held in memory at once, e.g. a receipt or a banner on continuous paper, produced as a sequence
+// of 1-bit bands of fixed height. Transports print it band after band, the next band being rendered while the previous
+// one prints: at most two bands (and a shorter last one) exist at any time, whatever the length of the label, and the
+// printer starts before the end of the label is rendered.
+// A banded label can be the content of a PrintJob; it is rendered again for each copy and for each print, by one
+// transport at a time. It is only printed in the feed direction: turning it would need the whole label before the
+// first band, so a PrintJob refuses a banded label with an orientation other than 0, and transports fail one that was
+// still being rendered when queued.
+public class BandedLabel {
+
+    // Rows per band, about 3 cm at 8 dots/mm
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    // Draws the rows [top, top + band.getHeight()) of the label into the band, which starts all white.
+    // Called on the executor given to open(), for one band at a time and in order.
+    public interface Renderer {
+        void render(int top, MonoBitmap band);
+    }
+
+    public BandedLabel(int width, int height, int bandHeight, Renderer renderer) {
+        if (width <= 0 || height <= 0 || bandHeight <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height + " in bands of " + bandHeight);
+        }
+        if (renderer == null) throw new NullPointerException("renderer");
+        this.width = width;
+        this.height = height;
+        this.bandHeight = Math.min(bandHeight, height);
+        this.renderer = renderer;
+    }
+
+    // Label of ARGB rows converted to dots band by band, error diffusion restarting at the top of every band
+    public static BandedLabel fromRows(int width, int height, int bandHeight, final MonochromeConverter.RowSource rows,
+            final MonochromeConverter converter) {
+        return new BandedLabel(width, height, bandHeight, new Renderer() {
+            @Override
+            public void render(final int top, MonoBitmap band) {
+                converter.convert(new MonochromeConverter.RowSource() {
+                    @Override
+                    public void getRow(int y, int[] row) {
+                        rows.getRow(top + y, row);
+                    }
+                }, band);
+            }
+        });
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    public int getBandCount() {
+        return (height + bandHeight - 1) / bandHeight;
+    }
+
+    // Starts rendering the first band on the executor, e.g. a render worker; the caller reads the bands from the stream
+    public Stream open(Executor executor) {
+        return new Stream(executor);
+    }
+
+    // Bands of one print of the label, read by one thread
+    public class Stream {
+        Stream(Executor executor) {
+            this.executor = executor;
+            this.buffers = new MonoBitmap[] { null, null };
+            prefetch();
+        }
+
+        // Next band, waiting until it is rendered, or null after the last one. Each band is only valid until the next
+        // call: its buffer is reused for the band after the next.
+        public MonoBitmap next() throws InterruptedException, ExecutionException {
+            FutureTask<MonoBitmap> band = pending;
+            if (band == null) return null;
+            MonoBitmap rendered = band.get();
+            pending = null;
+            prefetch();
+            return rendered;
+        }
+
+        // Stops rendering, the bands not read yet are dropped
+        public void close() {
+            closed = true;
+            FutureTask<MonoBitmap> band = pending;
+            pending = null;
+            if (band != null) band.cancel(false);
+        }
+
+        private void prefetch() {
+            if (closed || index >= getBandCount()) return;
+            final int top = index * bandHeight;
+            final MonoBitmap band = obtain(Math.min(bandHeight, height - top));
+            index++;
+            pending = new FutureTask<MonoBitmap>(new Callable<MonoBitmap>() {
+                @Override
+                public MonoBitmap call() {
+                    if (closed) throw new CancellationException();
+                    renderer.render(top, band);
+                    return band;
+                }
+            });
+            executor.execute(pending);
+        }
+
+        // Buffer of the given height, the band read two calls ago or the last one, which is usually shorter
+        private MonoBitmap obtain(int rows) {
+            MonoBitmap band;
+            if (rows < bandHeight) {
+                band = new MonoBitmap(width, rows);
+            } else {
+                int slot = index & 1;
+                band = buffers[slot];
+                if (band == null) {
+                    band = new MonoBitmap(width, bandHeight);
+                    buffers[slot] = band;
+                } else {
+                    band.clear();
+                }
+            }
+            return band;
+        }
+
+        private final Executor executor;
+        private final MonoBitmap[] buffers;
+        private FutureTask<MonoBitmap> pending = null;
+        private int index = 0;
+        private volatile boolean closed = false;
+    }
+
+    private final int width;
+    private final int height;
+    private final int bandHeight;
+    private final Renderer renderer;
+}
@@ -0,0 +1,82 @@
+package com.printer.sdk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Encoded barcode symbols by symbology and payload, least recently used dropped first.
+// Labels are often reprinted and the same SKU appears on many of them, so the same symbols are encoded again and
+// again; a QR code with high error correction is the most expensive part of rendering such a label.
+public class BarcodeCache {
+
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    // Cache shared by every label template
+    public static BarcodeCache getShared() {
+        return sShared;
+    }
+
+    public BarcodeCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // The symbol of the payload, encoded on first use. Throws IllegalArgumentException if it cannot be encoded.
+    public BarcodeMatrix get(BarcodeEncoder.Symbology symbology, String payload, QrCodeEncoder.ErrorCorrection level) {
+        if (symbology != BarcodeEncoder.Symbology.QR_CODE) level = null;
+        String key = symbology.ordinal() + "/" + (level != null ? level.ordinal() : -1) + "/" + payload;
+        synchronized (this) {
+            BarcodeMatrix matrix = symbols.get(key);
+            if (matrix != null) {
+                hits++;
+                return matrix;
+            }
+            misses++;
+        }
+
+        // Encoded outside the lock, two threads may encode the same symbol once
+        BarcodeMatrix matrix = BarcodeEncoder.encode(symbology, payload, level);
+        synchronized (this) {
+            BarcodeMatrix previous = symbols.put(key, matrix);
+            if (previous != null) size -= previous.byteCount();
+            size += matrix.byteCount();
+            trimTo(maxBytes);
+        }
+        return matrix;
+    }
+
+    public synchronized void clear() {
+        symbols.clear();
+        size = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    // Bytes used by the cached symbols
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void trimTo(long limit) {
+        Iterator<BarcodeMatrix> it = symbols.values().iterator();
+        while (size > limit && it.hasNext()) {
+            size -= it.next().byteCount();
+            it.remove();
+        }
+    }
+
+    private static final BarcodeCache sShared = new BarcodeCache(DEFAULT_MAX_BYTES);
+
+    private final long maxBytes;
+
+    // In access order, the least recently used first
+    private final Map<String, BarcodeMatrix> symbols = new LinkedHashMap<String, BarcodeMatrix>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+}
@@ -0,0 +1,299 @@
+package com.printer.sdk;
+
+import com.dothantech.lpapi.IAtBitmap.BarcodeType1D;
+
+// Pure Java barcode encoders producing module matrices, so symbols can be measured, cached and drawn on whole dots
+// instead of being encoded by LPAPI for every label.
+// Invalid payloads (a character the symbology cannot encode, a wrong EAN-13 check digit) throw IllegalArgumentException.
+public final class BarcodeEncoder {
+
+    public enum Symbology {
+        CODE128,
+        EAN13,
+        CODE39,
+        QR_CODE,
+        DATA_MATRIX
+    }
+
+    private BarcodeEncoder() {
+    }
+
+    // QR codes use the given error correction level, the other symbologies ignore it
+    public static BarcodeMatrix encode(Symbology symbology, String payload, QrCodeEncoder.ErrorCorrection level) {
+        if (payload == null || payload.length() == 0) throw new IllegalArgumentException("Empty payload");
+        switch (symbology) {
+            case CODE128:
+                return code128(payload);
+
+            case EAN13:
+                return ean13(payload);
+
+            case CODE39:
+                return code39(payload);
+
+            case QR_CODE:
+                return QrCodeEncoder.encode(payload, level);
+
+            case DATA_MATRIX:
+                return DataMatrixEncoder.encode(payload);
+
+            default:
+                throw new IllegalArgumentException("Unsupported symbology " + symbology);
+        }
+    }
+
+    // Symbology of an LPAPI.BarcodeType, or null when it has no encoder here
+    public static Symbology fromBarcodeType(int barcodeType) {
+        switch (barcodeType) {
+            case BarcodeType1D.CODE128:
+                return Symbology.CODE128;
+
+            case BarcodeType1D.EAN13:
+                return Symbology.EAN13;
+
+            case BarcodeType1D.CODE39:
+                return Symbology.CODE39;
+
+            default:
+                return null;
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Code 128
+    /********************************************************************************************************************************************/
+
+    // Code 128 with code sets A and B for text and code set C for runs of digits
+    static BarcodeMatrix code128(String text) {
+        int[] values = new int[text.length() * 2 + 3];
+        int count = 0;
+
+        int set = startSet(text, 0);
+        values[count++] = set == CODE_C ? START_C : set == CODE_A ? START_A : START_B;
+        int i = 0;
+        while (i < text.length()) {
+            if (set == CODE_C) {
+                if (digitRun(text, i) >= 2) {
+                    values[count++] = (text.charAt(i) - '0') * 10 + text.charAt(i + 1) - '0';
+                    i += 2;
+                    continue;
+                }
+                set = startSet(text, i);
+                values[count++] = set == CODE_A ? SWITCH_A : SWITCH_B;
+                continue;
+            }
+
+            // Four digits or more, or two at the end, are shorter in code set C; an odd run starts with one digit here
+            int run = digitRun(text, i);
+            if (run >= 4 || (run >= 2 && run == text.length() - i)) {
+                if ((run & 1) != 0) {
+                    values[count++] = code128Value(text.charAt(i++), set);
+                }
+                set = CODE_C;
+                values[count++] = SWITCH_C;
+                continue;
+            }
+
+            char c = text.charAt(i);
+            if (c > 127) throw new IllegalArgumentException("Code 128 cannot encode '" + c + "'");
+            int needed = c < 32 ? CODE_A : c >= 96 ? CODE_B : set;
+            if (needed != set) {
+                set = needed;
+                values[count++] = set == CODE_A ? SWITCH_A : SWITCH_B;
+            }
+            values[count++] = code128Value(c, set);
+            i++;
+        }
+
+        int checksum = values[0];
+        for (int k = 1; k < count; k++) {
+            checksum += values[k] * k;
+        }
+        values[count++] = checksum % 103;
+        values[count++] = STOP;
+
+        int modules = count * 11 + 2;
+        BarcodeMatrix matrix = new BarcodeMatrix(modules, 1);
+        int x = 0;
+        for (int k = 0; k < count; k++) {
+            x = drawWidths(matrix, x, CODE128_PATTERNS[values[k]]);
+        }
+        return matrix;
+    }
+
+    // Code set to use from the given position: C before four digits or more (or only digits left), A for control
+    // characters that come before any lower case letter, B otherwise
+    private static int startSet(String text, int from) {
+        int run = digitRun(text, from);
+        if (run >= 4 || (run >= 2 && run == text.length() - from)) return CODE_C;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 32) return CODE_A;
+            if (c >= 96) return CODE_B;
+        }
+        return CODE_B;
+    }
+
+    private static int digitRun(String text, int from) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i - from;
+    }
+
+    private static int code128Value(char c, int set) {
+        if (set == CODE_A) return c < 32 ? c + 64 : c - 32;
+        return c - 32;
+    }
+
+    /********************************************************************************************************************************************/
+    // EAN-13
+    /********************************************************************************************************************************************/
+
+    // EAN-13 from 12 digits, the check digit is added, or 13 digits with a correct check digit
+    static BarcodeMatrix ean13(String digits) {
+        if ((digits.length() != 12 && digits.length() != 13) || digitRun(digits, 0) != digits.length()) {
+            throw new IllegalArgumentException("EAN-13 needs 12 or 13 digits: " + digits);
+        }
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            sum += (digits.charAt(i) - '0') * ((i & 1) == 0 ? 1 : 3);
+        }
+        int check = (10 - sum % 10) % 10;
+        if (digits.length() == 13 && digits.charAt(12) - '0' != check) {
+            throw new IllegalArgumentException("Wrong EAN-13 check digit: " + digits);
+        }
+        if (digits.length() == 12) digits = digits + check;
+
+        BarcodeMatrix matrix = new BarcodeMatrix(95, 1);
+        int x = drawBits(matrix, 0, 0x5, 3);
+        int parity = EAN_PARITY[digits.charAt(0) - '0'];
+        for (int i = 1; i <= 6; i++) {
+            int digit = digits.charAt(i) - '0';
+            // Parity bit set: G code, the R code read backwards
+            boolean even = (parity & (0x20 >> (i - 1))) != 0;
+            x = drawBits(matrix, x, even ? reverse7(~EAN_L[digit] & 0x7F) : EAN_L[digit], 7);
+        }
+        x = drawBits(matrix, x, 0xA, 5);
+        for (int i = 7; i <= 12; i++) {
+            x = drawBits(matrix, x, ~EAN_L[digits.charAt(i) - '0'] & 0x7F, 7);
+        }
+        drawBits(matrix, x, 0x5, 3);
+        return matrix;
+    }
+
+    private static int reverse7(int bits) {
+        return Integer.reverse(bits) >>> 25;
+    }
+
+    /********************************************************************************************************************************************/
+    // Code 39
+    /********************************************************************************************************************************************/
+
+    // Code 39 of digits, upper case letters and - . space $ / + %, wide elements 3 modules, no check character
+    static BarcodeMatrix code39(String text) {
+        int[] patterns = new int[text.length() + 2];
+        patterns[0] = CODE39_START_STOP;
+        for (int i = 0; i < text.length(); i++) {
+            int index = CODE39_ALPHABET.indexOf(text.charAt(i));
+            if (index < 0) throw new IllegalArgumentException("Code 39 cannot encode '" + text.charAt(i) + "'");
+            patterns[i + 1] = CODE39_PATTERNS[index];
+        }
+        patterns[patterns.length - 1] = CODE39_START_STOP;
+
+        // 3 wide and 6 narrow elements per character, plus a narrow gap between characters
+        BarcodeMatrix matrix = new BarcodeMatrix(patterns.length * 16 - 1, 1);
+        int x = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            for (int element = 0; element < 9; element++) {
+                int width = (patterns[i] & (0x100 >> element)) != 0 ? 3 : 1;
+                if ((element & 1) == 0) {
+                    for (int k = 0; k < width; k++) {
+                        matrix.set(x + k, 0, true);
+                    }
+                }
+                x += width;
+            }
+            x++;
+        }
+        return matrix;
+    }
+
+    /********************************************************************************************************************************************/
+    // Module drawing
+    /********************************************************************************************************************************************/
+
+    // Draws alternating bars and spaces of the given widths, starting with a bar, returns the next x
+    private static int drawWidths(BarcodeMatrix matrix, int x, String widths) {
+        for (int i = 0; i < widths.length(); i++) {
+            int width = widths.charAt(i) - '0';
+            if ((i & 1) == 0) {
+                for (int k = 0; k < width; k++) {
+                    matrix.set(x + k, 0, true);
+                }
+            }
+            x += width;
+        }
+        return x;
+    }
+
+    // Draws the lowest count bits, most significant first, returns the next x
+    private static int drawBits(BarcodeMatrix matrix, int x, int bits, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            if ((bits & (1 << i)) != 0) matrix.set(x, 0, true);
+            x++;
+        }
+        return x;
+    }
+
+    private static final int CODE_A = 0;
+    private static final int CODE_B = 1;
+    private static final int CODE_C = 2;
+
+    private static final int SWITCH_C = 99;
+    private static final int SWITCH_B = 100;
+    private static final int SWITCH_A = 101;
+    private static final int START_A = 103;
+    private static final int START_B = 104;
+    private static final int START_C = 105;
+    private static final int STOP = 106;
+
+    // Bar and space widths of the Code 128 values 0 to 106
+    private static final String[] CODE128_PATTERNS = {
+            "212222", "222122", "222221", "121223", "121322", "131222", "122213", "122312", "132212", "221213",
+            "221312", "231212", "112232", "122132", "122231", "113222", "123122", "123221", "223211", "221132",
+            "221231", "213212", "223112", "312131", "311222", "321122", "321221", "312212", "322112", "322211",
+            "212123", "212321", "232121", "111323", "131123", "131321", "112313", "132113", "132311", "211313",
+            "231113", "231311", "112133", "112331", "132131", "113123", "113321", "133121", "313121", "211331",
+            "231131", "213113", "213311", "213131", "311123", "311321", "331121", "312113", "312311", "332111",
+            "314111", "221411", "431111", "111224", "111422", "121124", "121421", "141122", "141221", "112214",
+            "112412", "122114", "122411", "142112", "142211", "241211", "221114", "413111", "241112", "134111",
+            "111242", "121142", "121241", "114212", "124112", "124211", "411212", "421112", "421211", "212141",
+            "214121", "412121", "111143", "111341", "131141", "114113", "114311", "411113", "411311", "113141",
+            "114131", "311141", "411131", "211412", "211214", "211232", "2331112"
+    };
+
+    // EAN L codes, R codes are their complement
+    private static final int[] EAN_L = {
+            0x0D, 0x19, 0x13, 0x3D, 0x23, 0x31, 0x2F, 0x3B, 0x37, 0x0B
+    };
+
+    // G (set bit) or L parity of the 6 left digits, given by the first digit
+    private static final int[] EAN_PARITY = {
+            0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A
+    };
+
+    private static final String CODE39_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-. $/+%";
+
+    // Wide (set bit) or narrow elements, bar first, of each character of CODE39_ALPHABET
+    private static final int[] CODE39_PATTERNS = {
+            0x034, 0x121, 0x061, 0x160, 0x031, 0x130, 0x070, 0x025, 0x124, 0x064,
+            0x109, 0x049, 0x148, 0x019, 0x118, 0x058, 0x00D, 0x10C, 0x04C, 0x01C,
+            0x103, 0x043, 0x142, 0x013, 0x112, 0x052, 0x007, 0x106, 0x046, 0x016,
+            0x181, 0x0C1, 0x1C0, 0x091, 0x190, 0x0D0, 0x085, 0x184, 0x0C4, 0x0A8,
+            0x0A2, 0x08A, 0x02A
+    };
+
+    private static final int CODE39_START_STOP = 0x094;
+}
@@ -0,0 +1,69 @@
+package com.printer.sdk;
+
+// Modules of a barcode symbol, one bit per module packed in longs, a set bit is a dark module.
+// 1D symbols have a single row of bars, 2D symbols one row per module row. The quiet zone is not included.
+// Instances are immutable once returned by an encoder, so they can be shared through BarcodeCache.
+public class BarcodeMatrix {
+
+    public BarcodeMatrix(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.stride = (width + 63) >>> 6;
+        this.bits = new long[stride * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isDark(int x, int y) {
+        return (bits[y * stride + (x >>> 6)] & (1L << (x & 63))) != 0;
+    }
+
+    void set(int x, int y, boolean dark) {
+        int i = y * stride + (x >>> 6);
+        if (dark) {
+            bits[i] |= 1L << (x & 63);
+        } else {
+            bits[i] &= ~(1L << (x & 63));
+        }
+    }
+
+    // End (exclusive) of the run of modules of the same color starting at x
+    public int runEnd(int x, int y) {
+        boolean dark = isDark(x, y);
+        int end = x + 1;
+        while (end < width && isDark(end, y) == dark) {
+            end++;
+        }
+        return end;
+    }
+
+    // Memory used by the modules, for the cache size
+    int byteCount() {
+        return bits.length * 8;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder((width + 1) * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sb.append(isDark(x, y) ? '#' : '.');
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private final int width;
+    private final int height;
+    // Longs per row
+    private final int stride;
+    private final long[] bits;
+}
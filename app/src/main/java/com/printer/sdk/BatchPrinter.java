@@ -0,0 +1,259 @@
+package com.printer.sdk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+import android.graphics.Bitmap;
+
+// Prints a stream of records, one label per record, through a print queue.
+// Each record is bound to a LabelTemplate by field name. At most "window" rendered labels exist at any time, so the
+// memory use does not depend on the number of records. The index of the last record acknowledged by the printer, with
+// every record before it also acknowledged, is saved in a checkpoint file; a batch started again with the same id
+// resumes after it.
+// Batch labels are queued with the BULK priority, so labels printed meanwhile by other users do not wait for the batch.
+public class BatchPrinter {
+
+    // Labels rendered ahead of the printer
+    public static final int DEFAULT_WINDOW = 4;
+
+    // The checkpoint is written after this many acknowledged labels, and when the batch ends
+    public static final int CHECKPOINT_INTERVAL = 16;
+
+    // Outcome of a batch run
+    public static class Result {
+        Result(int printed, int resumedFrom, int failedIndex, PrintFailReason failReason) {
+            this.printed = printed;
+            this.resumedFrom = resumedFrom;
+            this.failedIndex = failedIndex;
+            this.failReason = failReason;
+        }
+
+        public boolean isComplete() {
+            return failedIndex < 0;
+        }
+
+        // Labels printed by this run
+        public final int printed;
+        // Index of the first record of this run, records before it were printed by an earlier run
+        public final int resumedFrom;
+        // Index of the first record that failed, or -1
+        public final int failedIndex;
+        public final PrintFailReason failReason;
+    }
+
+    public BatchPrinter(PrintQueue queue, LabelTemplate template, int dpi, PrintParams params) {
+        this.queue = queue;
+        this.template = template;
+        this.dpi = dpi;
+        this.params = params;
+    }
+
+    public void setWindow(int window) {
+        this.window = Math.max(1, window);
+    }
+
+    // Priority of the labels of the batch, BULK by default
+    public void setPriority(PrintJob.Priority priority) {
+        if (priority == null) throw new NullPointerException("priority");
+        this.priority = priority;
+    }
+
+    // File keeping the progress of the batch, no checkpoint is kept when null
+    public void setCheckpoint(File file, String batchId) {
+        this.checkpointFile = file;
+        this.batchId = batchId;
+    }
+
+    // Prints every record, blocking until the printer acknowledged the last label or a label failed.
+    // After a failure no further record is submitted; labels already submitted are still waited for.
+    public Result run(Iterator<Map<String, String>> records) throws InterruptedException, IOException {
+        final int start = readCheckpoint() + 1;
+        final Semaphore permits = new Semaphore(window);
+        final Progress progress = new Progress(start);
+
+        int index = 0;
+        try {
+            // Records printed by an earlier run are skipped without rendering
+            while (index < start && records.hasNext()) {
+                records.next();
+                index++;
+            }
+
+            while (records.hasNext() && !progress.hasFailed()) {
+                Map<String, String> record = records.next();
+                permits.acquire();
+                if (progress.hasFailed()) {
+                    permits.release();
+                    break;
+                }
+
+                final int recordIndex = index++;
+                final Bitmap label = template.render(record, dpi);
+                PrintJob job = new PrintJob(label, params, new PrintJob.Listener() {
+                    @Override
+                    public void onPrintProgress(PrintJob job, PrintProgress state, Object addiInfo) {
+                        if (state != PrintProgress.Success && state != PrintProgress.Failed) return;
+                        label.recycle();
+                        progress.onDone(recordIndex, state == PrintProgress.Success, job.getFailReason());
+                        permits.release();
+                    }
+                });
+                // Batches share the printer with each other by id
+                job.setPriority(priority).setSource(batchId != null ? "batch:" + batchId : "batch");
+                boolean queued = false;
+                try {
+                    queue.submit(job);
+                    queued = true;
+                } finally {
+                    // Interrupted before the job got into the queue, its listener will never give these back
+                    if (!queued) {
+                        label.recycle();
+                        permits.release();
+                    }
+                }
+            }
+
+            // Wait for the labels still in the window
+            permits.acquire(window);
+            permits.release(window);
+        } finally {
+            writeCheckpoint(progress.getAcknowledged());
+        }
+
+        if (progress.hasFailed()) {
+            return new Result(progress.getPrinted(), start, progress.getFailedIndex(), progress.getFailReason());
+        }
+        return new Result(progress.getPrinted(), start, -1, null);
+    }
+
+    // Forgets the progress of the batch so the next run starts from the first record
+    public void clearCheckpoint() {
+        if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+            checkpointFile.deleteOnExit();
+        }
+    }
+
+    // Tracks acknowledged records by index, the checkpoint only moves over a contiguous run of them
+    private class Progress {
+        Progress(int start) {
+            this.acknowledged = start - 1;
+            this.saved = acknowledged;
+        }
+
+        synchronized void onDone(int index, boolean success, PrintFailReason reason) {
+            if (!success) {
+                if (failedIndex < 0 || index < failedIndex) {
+                    failedIndex = index;
+                    failReason = reason;
+                }
+                return;
+            }
+
+            printed++;
+            if (index <= acknowledged) return;
+            done.set(index - acknowledged - 1);
+            // Advance over the contiguous run of acknowledged records
+            int shift = done.nextClearBit(0);
+            if (shift > 0) {
+                acknowledged += shift;
+                done = done.get(shift, Math.max(shift, done.length()));
+            }
+
+            if (acknowledged - saved >= CHECKPOINT_INTERVAL) {
+                saved = acknowledged;
+                try {
+                    writeCheckpoint(acknowledged);
+                } catch (IOException e) {
+                    // The final checkpoint of run() reports the problem
+                }
+            }
+        }
+
+        synchronized boolean hasFailed() {
+            return failedIndex >= 0;
+        }
+
+        synchronized int getAcknowledged() {
+            return acknowledged;
+        }
+
+        synchronized int getPrinted() {
+            return printed;
+        }
+
+        synchronized int getFailedIndex() {
+            return failedIndex;
+        }
+
+        synchronized PrintFailReason getFailReason() {
+            return failReason;
+        }
+
+        private BitSet done = new BitSet();
+        private int acknowledged;
+        private int saved;
+        private int printed = 0;
+        private int failedIndex = -1;
+        private PrintFailReason failReason = null;
+    }
+
+    // Index of the last acknowledged record of this batch, -1 if none
+    private int readCheckpoint() throws IOException {
+        if (checkpointFile == null || !checkpointFile.exists()) return -1;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), "UTF-8"));
+        try {
+            String id = reader.readLine();
+            String index = reader.readLine();
+            if (id == null || index == null || !id.equals(String.valueOf(batchId))) return -1;
+            return Integer.parseInt(index.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Writes to a temporary file first so a crash never leaves a truncated checkpoint
+    private synchronized void writeCheckpoint(int acknowledged) throws IOException {
+        if (checkpointFile == null) return;
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            writer.write(String.valueOf(batchId));
+            writer.write('\n');
+            writer.write(String.valueOf(acknowledged));
+            writer.write('\n');
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(checkpointFile)) {
+            throw new IOException("Cannot write checkpoint " + checkpointFile);
+        }
+    }
+
+    private final PrintQueue queue;
+    private final LabelTemplate template;
+    private final int dpi;
+    private final PrintParams params;
+
+    private int window = DEFAULT_WINDOW;
+    private PrintJob.Priority priority = PrintJob.Priority.BULK;
+    private File checkpointFile = null;
+    private String batchId = null;
+}
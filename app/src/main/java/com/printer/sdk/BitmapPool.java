@@ -0,0 +1,112 @@
+package com.printer.sdk;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+// Bounded pool of mutable bitmaps kept for reuse instead of being garbage collected.
+// The pool is limited by the total byte size of its bitmaps; the least recently returned ones are recycled first.
+// Bitmaps taken from the pool are handed to BitmapFactory as inBitmap or cleared and drawn into again.
+public class BitmapPool {
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // A pooled bitmap BitmapFactory can decode the given size into, or null.
+    // Before Android 4.4 inBitmap needs the exact size, afterwards any bitmap with enough memory will do.
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        long needed = (long) width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap bitmap : bitmaps) {
+            if (bitmap.getConfig() != config) continue;
+            if (anySize) {
+                int bytes = byteCount(bitmap);
+                if (bytes >= needed && (best == null || bytes < byteCount(best))) best = bitmap;
+            } else if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                best = bitmap;
+                break;
+            }
+        }
+        if (best != null) {
+            bitmaps.remove(best);
+            size -= byteCount(best);
+        }
+        return best;
+    }
+
+    // A white bitmap of the given size, taken from the pool when possible
+    public Bitmap obtain(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = get(width, height, config);
+        if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+            bitmap.reconfigure(width, height, config);
+        }
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(0xFFFFFFFF);
+        return bitmap;
+    }
+
+    // Gives a bitmap back for reuse, it must not be used by the caller anymore
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        if (!bitmap.isMutable() || byteCount(bitmap) > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            if (bitmaps.contains(bitmap)) return;
+            bitmaps.addLast(bitmap);
+            size += byteCount(bitmap);
+            trimTo(maxBytes);
+        }
+    }
+
+    // Recycles every pooled bitmap, e.g. when the system is low on memory
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    // Total bytes held by the pool
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    // Memory used by a bitmap, including unused space of a reconfigured one
+    static int byteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        return 4;
+    }
+
+    private void trimTo(long limit) {
+        Iterator<Bitmap> it = bitmaps.iterator();
+        while (size > limit && it.hasNext()) {
+            Bitmap bitmap = it.next();
+            it.remove();
+            size -= byteCount(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    private final long maxBytes;
+
+    // Least recently returned first
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+    private long size = 0;
+}
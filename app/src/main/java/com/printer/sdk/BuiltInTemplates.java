@@ -0,0 +1,75 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.dothantech.lpapi.LPAPI.BarcodeType;
+
+import android.graphics.Bitmap;
+
+// Label templates known by name to the demo screen and to the clients of PrintService.
+// Their static layer is rasterized once per printer resolution and shared by every user in the process.
+public final class BuiltInTemplates {
+
+    // 40x30 mm label with a text
+    public static final String TEXT = "text";
+    // 40x30 mm label with a text and a CODE128 barcode
+    public static final String TEXT_1D_BARCODE = "text1dbarcode";
+    // 48x50 mm label with a QR code
+    public static final String QR_CODE = "2dbarcode";
+
+    // Slot names of the templates
+    public static final String SLOT_TEXT = "text";
+    public static final String SLOT_BARCODE = "barcode";
+    public static final String SLOT_QR_CODE = "qrcode";
+
+    private BuiltInTemplates() {
+    }
+
+    // The template of the given name, throws IllegalArgumentException if there is none
+    public static LabelTemplate get(String name) {
+        if (TEXT.equals(name)) return sText;
+        if (TEXT_1D_BARCODE.equals(name)) return sText1DBarcode;
+        if (QR_CODE.equals(name)) return sQrCode;
+        throw new IllegalArgumentException("Unknown template " + name);
+    }
+
+    // Renders the template of the given name with the slot values, on the thread calling the callable.
+    // Throws IllegalArgumentException if there is no such template.
+    public static Callable<Bitmap> renderer(String name, final Map<String, String> values, final int dpi) {
+        final LabelTemplate template = get(name);
+        return new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return template.render(values, dpi);
+            }
+        };
+    }
+
+    // Key of the label rendered by renderer(), see RenderedLabelCache.key()
+    public static String key(String name, Map<String, String> values, int dpi, PrintParams params) {
+        List<Object> parts = new ArrayList<Object>();
+        parts.add(name);
+        parts.add(dpi);
+        for (String slot : get(name).getSlotNames()) {
+            parts.add(slot);
+            parts.add(values.get(slot));
+        }
+        return RenderedLabelCache.key(params, parts.toArray());
+    }
+
+    private static final LabelTemplate sText = new LabelTemplate.Builder(40, 30)
+            .textSlot(SLOT_TEXT, 4, 5, 40, 40, 4)
+            .build();
+
+    private static final LabelTemplate sText1DBarcode = new LabelTemplate.Builder(40, 30)
+            .textSlot(SLOT_TEXT, 4, 4, 40, 10, 4)
+            .barcodeSlot(SLOT_BARCODE, BarcodeType.CODE128, 4, 15, 40, 15, 3)
+            .build();
+
+    private static final LabelTemplate sQrCode = new LabelTemplate.Builder(48, 50)
+            .qrCodeSlot(SLOT_QR_CODE, 9, 10, 30)
+            .build();
+}
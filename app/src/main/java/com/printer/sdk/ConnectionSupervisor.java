@@ -0,0 +1,175 @@
+package com.printer.sdk;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+// Keeps a transport connected to the printer chosen with connect().
+// When the link drops, or a connection attempt fails, it opens the printer again after a delay doubling from
+// baseDelay up to maxDelay, with random jitter so several devices do not retry in step. disconnect() stops it.
+// Used with PrintQueue.setReplayOnReconnect(true), no label is lost while the link is down.
+public class ConnectionSupervisor implements LPAPI.Callback {
+
+    public static final long DEFAULT_BASE_DELAY = 500;
+    public static final long DEFAULT_MAX_DELAY = 30000;
+
+    public ConnectionSupervisor(PrinterTransport transport) {
+        this.transport = transport;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ConnectionSupervisor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        transport.addCallback(this);
+    }
+
+    public synchronized void setBackoff(long baseDelay, long maxDelay) {
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+    }
+
+    // Connects the printer and keeps it connected, returns false if the connection request could not be sent
+    public boolean connect(PrinterAddress address) {
+        synchronized (this) {
+            target = address;
+            attempt = 0;
+            cancelRetry();
+        }
+        if (transport.openPrinter(address)) return true;
+        scheduleRetry(address);
+        return false;
+    }
+
+    // Closes the printer without reconnecting it
+    public void disconnect() {
+        synchronized (this) {
+            target = null;
+            cancelRetry();
+        }
+        transport.closePrinter();
+    }
+
+    // Printer kept connected, or null
+    public synchronized PrinterAddress getTarget() {
+        return target;
+    }
+
+    // Failed attempts since the last successful connection
+    public synchronized int getAttempt() {
+        return attempt;
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            target = null;
+            cancelRetry();
+        }
+        transport.removeCallback(this);
+        scheduler.shutdownNow();
+    }
+
+    // Delay before the given attempt (0 for the first retry): a random value between half and all of the backoff
+    synchronized long getRetryDelay(int attempt) {
+        long delay = baseDelay << Math.min(attempt, 20);
+        if (delay > maxDelay || delay <= 0) delay = maxDelay;
+        return delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+    }
+
+    private void scheduleRetry(final PrinterAddress address) {
+        synchronized (this) {
+            if (address == null || address != target || scheduler.isShutdown()) return;
+            // An attempt is already planned
+            if (retry != null && !retry.isDone()) return;
+
+            long delay = getRetryDelay(attempt++);
+            retry = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (ConnectionSupervisor.this) {
+                        if (address != target) return;
+                        retry = null;
+                    }
+                    // Connecting again by itself meanwhile, its outcome is reported through onStateChange
+                    PrinterState state = transport.getPrinterState();
+                    if (state != null && state != PrinterState.Disconnected) return;
+
+                    if (!transport.openPrinter(address)) {
+                        scheduleRetry(address);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelRetry() {
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Transport callbacks
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
+        switch (arg1) {
+            case Connected:
+            case Connected2:
+                synchronized (this) {
+                    attempt = 0;
+                    cancelRetry();
+                }
+                break;
+
+            case Disconnected:
+                // Either the link dropped or the last attempt failed
+                PrinterAddress address;
+                synchronized (this) {
+                    address = target;
+                }
+                scheduleRetry(address);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onProgressInfo(ProgressInfo arg0, Object arg1) {
+    }
+
+    @Override
+    public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
+    }
+
+    @Override
+    public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+    }
+
+    private final PrinterTransport transport;
+    private final ScheduledExecutorService scheduler;
+    private final Random random = new Random();
+
+    private long baseDelay = DEFAULT_BASE_DELAY;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+
+    private PrinterAddress target = null;
+    private int attempt = 0;
+    private ScheduledFuture<?> retry = null;
+}
@@ -0,0 +1,126 @@
+package com.printer.sdk;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+// Reads CSV records one at a time, the first row gives the field names.
+// Follows RFC 4180: fields may be quoted, a quote inside a quoted field is doubled, and quoted fields may contain
+// separators and line breaks. Only one record is held in memory so files of any length can be printed.
+public class CsvRecordReader implements Iterator<Map<String, String>>, Closeable {
+
+    public CsvRecordReader(Reader reader) throws IOException {
+        this(reader, ',');
+    }
+
+    public CsvRecordReader(Reader reader, char separator) throws IOException {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.separator = separator;
+        List<String> header = readRow();
+        if (header == null) throw new IOException("CSV without header row");
+        this.fields = header.toArray(new String[header.size()]);
+        this.next = readRecord();
+    }
+
+    public String[] getFieldNames() {
+        return fields.clone();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (next == null) throw new NoSuchElementException();
+        Map<String, String> record = next;
+        try {
+            next = readRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read CSV record", e);
+        }
+        return record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Map<String, String> readRecord() throws IOException {
+        List<String> row;
+        do {
+            row = readRow();
+            if (row == null) return null;
+            // Blank lines are skipped
+        } while (row.size() == 1 && row.get(0).length() == 0);
+
+        Map<String, String> record = new LinkedHashMap<String, String>();
+        for (int i = 0; i < fields.length; i++) {
+            record.put(fields[i], i < row.size() ? row.get(i) : "");
+        }
+        return record;
+    }
+
+    // Reads the fields of one row, or null at the end of the input
+    private List<String> readRow() throws IOException {
+        int c = reader.read();
+        if (c < 0) return null;
+
+        List<String> row = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c < 0) throw new IOException("Unterminated quoted CSV field");
+                if (c == '"') {
+                    reader.mark(1);
+                    int d = reader.read();
+                    if (d == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        if (d >= 0) reader.reset();
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c < 0 || c == '\n') {
+                row.add(field.toString());
+                return row;
+            } else if (c == '\r') {
+                reader.mark(1);
+                if (reader.read() != '\n') reader.reset();
+                row.add(field.toString());
+                return row;
+            } else if (c == separator) {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+    }
+
+    private final BufferedReader reader;
+    private final char separator;
+    private final String[] fields;
+
+    private Map<String, String> next;
+}
@@ -0,0 +1,289 @@
+package com.printer.sdk;
+
+import java.io.UnsupportedEncodingException;
+
+// Data Matrix ECC 200 encoder, square symbols from 10x10 to 144x144.
+// The payload is encoded in ASCII encodation with digit pairs compacted; bytes above 127 (UTF-8) use Upper Shift.
+public final class DataMatrixEncoder {
+
+    private DataMatrixEncoder() {
+    }
+
+    public static BarcodeMatrix encode(String text) {
+        byte[] bytes;
+        try {
+            bytes = text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        // ASCII encodation
+        int[] data = new int[bytes.length * 2];
+        int count = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            int c = bytes[i] & 0xFF;
+            if (isDigit(c) && i + 1 < bytes.length && isDigit(bytes[i + 1] & 0xFF)) {
+                data[count++] = 130 + (c - '0') * 10 + (bytes[++i] - '0');
+            } else if (c < 128) {
+                data[count++] = c + 1;
+            } else {
+                data[count++] = UPPER_SHIFT;
+                data[count++] = c - 128 + 1;
+            }
+        }
+
+        int symbol = 0;
+        while (symbol < SIZES.length && SIZES[symbol][DATA] < count) {
+            symbol++;
+        }
+        if (symbol == SIZES.length) throw new IllegalArgumentException("Too much data for a Data Matrix: " + bytes.length + " bytes");
+        int[] info = SIZES[symbol];
+
+        // Padding, randomized after the first pad codeword
+        int dataLength = info[DATA];
+        int[] codewords = new int[dataLength + info[EC]];
+        System.arraycopy(data, 0, codewords, 0, count);
+        for (int i = count; i < dataLength; i++) {
+            if (i == count) {
+                codewords[i] = PAD;
+            } else {
+                int pad = PAD + (149 * (i + 1)) % 253 + 1;
+                codewords[i] = pad <= 254 ? pad : pad - 254;
+            }
+        }
+
+        addErrorCorrection(codewords, dataLength, info[EC], info[BLOCKS]);
+        return place(codewords, info[SIZE], info[REGION]);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // Error correction of each interleaved block: block b holds the codewords b, b + blocks, b + 2 * blocks...
+    private static void addErrorCorrection(int[] codewords, int dataLength, int ecLength, int blocks) {
+        int ecPerBlock = ecLength / blocks;
+        int[] block = new int[dataLength / blocks + 1];
+        int[] ec = new int[ecPerBlock];
+        for (int b = 0; b < blocks; b++) {
+            int length = 0;
+            for (int i = b; i < dataLength; i += blocks) {
+                block[length++] = codewords[i];
+            }
+            ReedSolomonEncoder.DATA_MATRIX.encode(block, 0, length, ec, 0, ecPerBlock);
+            for (int i = 0; i < ecPerBlock; i++) {
+                codewords[dataLength + b + i * blocks] = ec[i];
+            }
+        }
+    }
+
+    // Places the codewords in the data regions and draws the finder and clock pattern around every region
+    private static BarcodeMatrix place(int[] codewords, int size, int region) {
+        int regions = size / (region + 2);
+        int mapSize = regions * region;
+        Placement placement = new Placement(codewords, mapSize);
+        placement.place();
+
+        BarcodeMatrix matrix = new BarcodeMatrix(size, size);
+        for (int ry = 0; ry < regions; ry++) {
+            for (int rx = 0; rx < regions; rx++) {
+                int left = rx * (region + 2);
+                int top = ry * (region + 2);
+                int right = left + region + 1;
+                int bottom = top + region + 1;
+                for (int i = 0; i < region + 2; i++) {
+                    // Solid L on the left and bottom, alternating clock track on the top and right
+                    matrix.set(left, top + i, true);
+                    matrix.set(left + i, bottom, true);
+                    if ((i & 1) == 0) matrix.set(left + i, top, true);
+                    if ((i & 1) == 1) matrix.set(right, top + i, true);
+                }
+                for (int y = 0; y < region; y++) {
+                    for (int x = 0; x < region; x++) {
+                        if (placement.isDark(rx * region + x, ry * region + y)) {
+                            matrix.set(left + 1 + x, top + 1 + y, true);
+                        }
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+
+    // ECC 200 module placement in the mapping matrix (all data regions put together without their borders)
+    private static class Placement {
+        Placement(int[] codewords, int size) {
+            this.codewords = codewords;
+            this.rows = size;
+            this.cols = size;
+            this.modules = new byte[size * size];
+        }
+
+        boolean isDark(int col, int row) {
+            return modules[row * cols + col] == DARK;
+        }
+
+        void place() {
+            int pos = 0;
+            int row = 4;
+            int col = 0;
+            do {
+                // The four corner cases
+                if (row == rows && col == 0) corner1(pos++);
+                if (row == rows - 2 && col == 0 && cols % 4 != 0) corner2(pos++);
+                if (row == rows - 2 && col == 0 && cols % 8 == 4) corner3(pos++);
+                if (row == rows + 4 && col == 2 && cols % 8 == 0) corner4(pos++);
+
+                // Sweep upward diagonally
+                do {
+                    if (row < rows && col >= 0 && !isPlaced(col, row)) utah(row, col, pos++);
+                    row -= 2;
+                    col += 2;
+                } while (row >= 0 && col < cols);
+                row++;
+                col += 3;
+
+                // Sweep downward diagonally
+                do {
+                    if (row >= 0 && col < cols && !isPlaced(col, row)) utah(row, col, pos++);
+                    row += 2;
+                    col -= 2;
+                } while (row < rows && col >= 0);
+                row += 3;
+                col++;
+            } while (row < rows || col < cols);
+
+            // Fixed pattern in the lower right corner when it is left unfilled
+            if (!isPlaced(cols - 1, rows - 1)) {
+                set(cols - 1, rows - 1, true);
+                set(cols - 2, rows - 2, true);
+                set(cols - 2, rows - 1, false);
+                set(cols - 1, rows - 2, false);
+            }
+        }
+
+        private boolean isPlaced(int col, int row) {
+            return modules[row * cols + col] != UNSET;
+        }
+
+        private void set(int col, int row, boolean dark) {
+            modules[row * cols + col] = dark ? DARK : LIGHT;
+        }
+
+        // Bit 1 is the most significant bit of the codeword
+        private void module(int row, int col, int pos, int bit) {
+            if (row < 0) {
+                row += rows;
+                col += 4 - ((rows + 4) % 8);
+            }
+            if (col < 0) {
+                col += cols;
+                row += 4 - ((cols + 4) % 8);
+            }
+            int value = pos < codewords.length ? codewords[pos] : 0;
+            set(col, row, (value & (1 << (8 - bit))) != 0);
+        }
+
+        // Standard L-shaped placement of the 8 bits of a codeword
+        private void utah(int row, int col, int pos) {
+            module(row - 2, col - 2, pos, 1);
+            module(row - 2, col - 1, pos, 2);
+            module(row - 1, col - 2, pos, 3);
+            module(row - 1, col - 1, pos, 4);
+            module(row - 1, col, pos, 5);
+            module(row, col - 2, pos, 6);
+            module(row, col - 1, pos, 7);
+            module(row, col, pos, 8);
+        }
+
+        private void corner1(int pos) {
+            module(rows - 1, 0, pos, 1);
+            module(rows - 1, 1, pos, 2);
+            module(rows - 1, 2, pos, 3);
+            module(0, cols - 2, pos, 4);
+            module(0, cols - 1, pos, 5);
+            module(1, cols - 1, pos, 6);
+            module(2, cols - 1, pos, 7);
+            module(3, cols - 1, pos, 8);
+        }
+
+        private void corner2(int pos) {
+            module(rows - 3, 0, pos, 1);
+            module(rows - 2, 0, pos, 2);
+            module(rows - 1, 0, pos, 3);
+            module(0, cols - 4, pos, 4);
+            module(0, cols - 3, pos, 5);
+            module(0, cols - 2, pos, 6);
+            module(0, cols - 1, pos, 7);
+            module(1, cols - 1, pos, 8);
+        }
+
+        private void corner3(int pos) {
+            module(rows - 3, 0, pos, 1);
+            module(rows - 2, 0, pos, 2);
+            module(rows - 1, 0, pos, 3);
+            module(0, cols - 2, pos, 4);
+            module(0, cols - 1, pos, 5);
+            module(1, cols - 1, pos, 6);
+            module(2, cols - 1, pos, 7);
+            module(3, cols - 1, pos, 8);
+        }
+
+        private void corner4(int pos) {
+            module(rows - 1, 0, pos, 1);
+            module(rows - 1, cols - 1, pos, 2);
+            module(0, cols - 3, pos, 3);
+            module(0, cols - 2, pos, 4);
+            module(0, cols - 1, pos, 5);
+            module(1, cols - 3, pos, 6);
+            module(1, cols - 2, pos, 7);
+            module(1, cols - 1, pos, 8);
+        }
+
+        private static final byte UNSET = 0;
+        private static final byte LIGHT = 1;
+        private static final byte DARK = 2;
+
+        private final int[] codewords;
+        private final int rows;
+        private final int cols;
+        private final byte[] modules;
+    }
+
+    private static final int PAD = 129;
+    private static final int UPPER_SHIFT = 235;
+
+    private static final int SIZE = 0;
+    private static final int REGION = 1;
+    private static final int DATA = 2;
+    private static final int EC = 3;
+    private static final int BLOCKS = 4;
+
+    // Square ECC 200 symbols: size, data region size, data codewords, error correction codewords, interleaved blocks
+    private static final int[][] SIZES = {
+            {10, 8, 3, 5, 1},
+            {12, 10, 5, 7, 1},
+            {14, 12, 8, 10, 1},
+            {16, 14, 12, 12, 1},
+            {18, 16, 18, 14, 1},
+            {20, 18, 22, 18, 1},
+            {22, 20, 30, 20, 1},
+            {24, 22, 36, 24, 1},
+            {26, 24, 44, 28, 1},
+            {32, 14, 62, 36, 1},
+            {36, 16, 86, 42, 1},
+            {40, 18, 114, 48, 1},
+            {44, 20, 144, 56, 1},
+            {48, 22, 174, 68, 1},
+            {52, 24, 204, 84, 2},
+            {64, 14, 280, 112, 2},
+            {72, 16, 368, 144, 4},
+            {80, 18, 456, 192, 4},
+            {88, 20, 576, 224, 4},
+            {96, 22, 696, 272, 4},
+            {104, 24, 816, 336, 6},
+            {120, 18, 1050, 408, 6},
+            {132, 20, 1304, 496, 8},
+            {144, 22, 1558, 620, 10}
+    };
+}
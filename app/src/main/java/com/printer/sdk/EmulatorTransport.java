@@ -0,0 +1,406 @@
+package com.printer.sdk;
+
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+
+// Simulated printer behind the transport interface, for throughput and soak tests without hardware.
+// A job first crosses the link at the configured bandwidth, then every copy is fed line by line at the speed of its
+// PRINT_SPEED level; jobs queue behind each other like on the real link. Random disconnects, failed connections and
+// PrintFailReason failures are drawn from a seeded generator, so a run with the same jobs is reproducible.
+// MonoBitmap labels are sent as they are and RasterEncoder streams (byte[]) as encoded, the emulator decodes them so
+// what it received can be compared with the label; BandedLabel contents are rendered band by band on the calling thread,
+// as they would be sent; any other content counts as a label of the configured size.
+// Events are reported on the emulator's own "printing thread", like LpapiTransport.
+public class EmulatorTransport implements PrinterTransport {
+
+    // Feed speeds in mm/s of the PRINT_SPEED levels 0 (slower) to 4 (faster), level -1 is the printer default (2)
+    public static final int[] DEFAULT_SPEEDS = {30, 40, 50, 60, 75};
+
+    // Resolution of the emulated print head unless set, the usual 8 dots/mm
+    public static final int DEFAULT_DPI = 203;
+
+    public static class Builder {
+
+        // Time to connect, in milliseconds
+        public Builder connectTime(long millis) {
+            this.connectMillis = millis;
+            return this;
+        }
+
+        // Link bandwidth in bytes per second, e.g. about 20000 for Bluetooth SPP
+        public Builder linkBandwidth(int bytesPerSecond) {
+            if (bytesPerSecond <= 0) throw new IllegalArgumentException("Bandwidth must be positive: " + bytesPerSecond);
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        // Print head resolution, dot lines per inch
+        public Builder dpi(int dpi) {
+            if (dpi <= 0) throw new IllegalArgumentException("Resolution must be positive: " + dpi);
+            this.dpi = dpi;
+            return this;
+        }
+
+        // Feed speeds in mm/s of the PRINT_SPEED levels 0 to 4
+        public Builder speeds(int... mmPerSecond) {
+            if (mmPerSecond.length != DEFAULT_SPEEDS.length) throw new IllegalArgumentException("Five speed levels expected");
+            this.speeds = mmPerSecond.clone();
+            return this;
+        }
+
+        // Size of labels whose content cannot be measured, in dots
+        public Builder labelSize(int widthDots, int heightDots) {
+            if (widthDots <= 0 || heightDots <= 0) throw new IllegalArgumentException("Empty label " + widthDots + "x" + heightDots);
+            this.labelWidth = widthDots;
+            this.labelHeight = heightDots;
+            return this;
+        }
+
+        // Probability that the link drops while a job is in progress
+        public Builder disconnectRate(double probability) {
+            this.disconnectRate = checkProbability(probability);
+            return this;
+        }
+
+        // Probability that a job fails with one of the given reasons (by default out of paper, cover opened, head too hot)
+        public Builder failureRate(double probability, PrintFailReason... reasons) {
+            this.failureRate = checkProbability(probability);
+            if (reasons.length > 0) this.failReasons = reasons.clone();
+            return this;
+        }
+
+        // Probability that a connection attempt fails
+        public Builder connectFailureRate(double probability) {
+            this.connectFailureRate = checkProbability(probability);
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        // Runs the emulated time faster (above 1) or slower than real time, to soak hours of printing in minutes
+        public Builder timeScale(double scale) {
+            if (!(scale > 0)) throw new IllegalArgumentException("Time scale must be positive: " + scale);
+            this.timeScale = scale;
+            return this;
+        }
+
+        public EmulatorTransport build() {
+            return new EmulatorTransport(this);
+        }
+
+        private static double checkProbability(double probability) {
+            if (!(probability >= 0 && probability <= 1)) throw new IllegalArgumentException("Not a probability: " + probability);
+            return probability;
+        }
+
+        private long connectMillis = 1000;
+        private int bytesPerSecond = 20000;
+        private int dpi = DEFAULT_DPI;
+        private int[] speeds = DEFAULT_SPEEDS;
+        private int labelWidth = 384;
+        private int labelHeight = 240;
+        private double disconnectRate = 0;
+        private double failureRate = 0;
+        private PrintFailReason[] failReasons = {PrintFailReason.No_Paper, PrintFailReason.CoverOpened, PrintFailReason.TphTooHot};
+        private double connectFailureRate = 0;
+        private long seed = 0;
+        private double timeScale = 1;
+    }
+
+    private EmulatorTransport(Builder builder) {
+        this.connectMillis = builder.connectMillis;
+        this.bytesPerSecond = builder.bytesPerSecond;
+        this.dpi = builder.dpi;
+        this.speeds = builder.speeds;
+        this.labelWidth = builder.labelWidth;
+        this.labelHeight = builder.labelHeight;
+        this.disconnectRate = builder.disconnectRate;
+        this.failureRate = builder.failureRate;
+        this.failReasons = builder.failReasons;
+        this.connectFailureRate = builder.connectFailureRate;
+        this.random = new Random(builder.seed);
+        this.timeScale = builder.timeScale;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "EmulatorTransport");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void addCallback(LPAPI.Callback callback) {
+        callbacks.addIfAbsent(callback);
+    }
+
+    @Override
+    public void removeCallback(LPAPI.Callback callback) {
+        callbacks.remove(callback);
+    }
+
+    @Override
+    public boolean openPrinter(final PrinterAddress address) {
+        if (address == null) return false;
+        final boolean fails = nextDouble() < connectFailureRate;
+        this.address = address;
+        final int link = links.incrementAndGet();
+        setState(PrinterState.Connecting);
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (link != links.get() || state != PrinterState.Connecting) return;
+                if (fails) {
+                    setState(PrinterState.Disconnected);
+                } else {
+                    busyUntil = System.nanoTime();
+                    setState(PrinterState.Connected);
+                }
+            }
+        }, connectMillis);
+        return true;
+    }
+
+    @Override
+    public void closePrinter() {
+        disconnect();
+    }
+
+    @Override
+    public PrinterState getPrinterState() {
+        return state;
+    }
+
+    @Override
+    public PrinterAddress getPrinterAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean print(final PrintJob job) {
+        if (state != PrinterState.Connected) return false;
+        accepted.incrementAndGet();
+        labels.addAndGet(job.getParams().getCopies());
+
+        Object content = job.getContent();
+        MonoBitmap label = null;
+        if (content instanceof byte[]) {
+            try {
+                label = RasterEncoder.decode((byte[]) content);
+            } catch (IllegalArgumentException e) {
+                // The printer rejects a stream it cannot parse
+                scheduleProgress(links.get(), job, PrintProgress.Failed, PrintFailReason.Other, 0);
+                return true;
+            }
+        } else if (content instanceof MonoBitmap) {
+            label = (MonoBitmap) content;
+        } else if (content instanceof BandedLabel
+                && (job.getParams().getOrientation() != 0 || !renderBands((BandedLabel) content))) {
+            // Like LpapiTransport, a label that cannot be rendered or turned is not sent
+            return false;
+        }
+        lastLabel = label;
+
+        long transmitMillis = getTransmitMillis(content);
+        long printMillis = getPrintMillis(label != null ? label : content, job.getParams()) * job.getParams().getCopies();
+
+        // The job waits for the ones sent before it, all delays are in emulated time
+        long now = System.nanoTime();
+        long start = (long) (Math.max(0, busyUntil - now) * timeScale / 1000000);
+        busyUntil = Math.max(busyUntil, now) + scaledNanos(transmitMillis + printMillis);
+
+        final int link = links.get();
+        double fault = nextDouble();
+        if (fault < disconnectRate) {
+            // The link drops somewhere during the job, the queue learns it from onStateChange
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (link != links.get()) return;
+                    links.incrementAndGet();
+                    setState(PrinterState.Disconnected);
+                }
+            }, start + (long) (nextDouble() * (transmitMillis + printMillis)));
+            scheduleProgress(link, job, PrintProgress.StartCopy, null, start);
+            return true;
+        }
+
+        scheduleProgress(link, job, PrintProgress.StartCopy, null, start);
+        if (fault < disconnectRate + failureRate) {
+            PrintFailReason reason = failReasons[(int) (nextDouble() * failReasons.length)];
+            scheduleProgress(link, job, PrintProgress.Failed, reason, start + transmitMillis + (long) (nextDouble() * printMillis));
+            return true;
+        }
+        scheduleProgress(link, job, PrintProgress.DataEnded, null, start + transmitMillis);
+        scheduleProgress(link, job, PrintProgress.Success, null, start + transmitMillis + printMillis);
+        return true;
+    }
+
+    @Override
+    public void quit() {
+        executor.shutdownNow();
+        state = PrinterState.Disconnected;
+    }
+
+    // Simulates the printer dropping the link, jobs in progress are never reported
+    public void disconnect() {
+        links.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                setState(PrinterState.Disconnected);
+            }
+        });
+    }
+
+    // Number of jobs accepted since creation
+    public int getPrintedCount() {
+        return accepted.get();
+    }
+
+    // Number of labels of the jobs accepted since creation, copies included
+    public int getLabelCount() {
+        return labels.get();
+    }
+
+    // Label of the last job accepted, as the printer received it; null if its content was not a label
+    public MonoBitmap getLastLabel() {
+        return lastLabel;
+    }
+
+    // Emulated time to send the job over the link, in milliseconds
+    public long getTransmitMillis(Object content) {
+        long bytes;
+        if (content instanceof byte[]) {
+            bytes = ((byte[]) content).length;
+        } else if (content instanceof MonoBitmap) {
+            bytes = ((MonoBitmap) content).getData().length;
+        } else if (content instanceof BandedLabel) {
+            BandedLabel banded = (BandedLabel) content;
+            bytes = (banded.getWidth() + 7) / 8 * (long) banded.getHeight();
+        } else {
+            bytes = (labelWidth + 7) / 8 * (long) labelHeight;
+        }
+        return bytes * 1000 / bytesPerSecond;
+    }
+
+    // Emulated time to feed one copy of the job, in milliseconds
+    public long getPrintMillis(Object content, PrintParams params) {
+        int lines;
+        if (content instanceof MonoBitmap) {
+            lines = ((MonoBitmap) content).getHeight();
+        } else if (content instanceof BandedLabel) {
+            lines = ((BandedLabel) content).getHeight();
+        } else {
+            lines = labelHeight;
+        }
+        int level = params.getSpeed() < 0 ? DEFAULT_SPEED_LEVEL : Math.min(params.getSpeed(), speeds.length - 1);
+        double linesPerSecond = speeds[level] * dpi / 25.4;
+        return (long) (lines * 1000 / linesPerSecond);
+    }
+
+    // Renders every band of the label once, false if the renderer failed
+    private static boolean renderBands(BandedLabel label) {
+        BandedLabel.Stream stream = label.open(CALLING_THREAD);
+        try {
+            while (stream.next() != null) {
+                // Only the rendering cost matters here
+            }
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void scheduleProgress(final int link, final PrintJob job, final PrintProgress progress, final Object addiInfo, long delayMillis) {
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                // Dropped with the link it was sent on, the queue already knows
+                if (link != links.get()) return;
+                for (LPAPI.Callback callback : callbacks) {
+                    callback.onPrintProgress(address, job, progress, addiInfo);
+                }
+            }
+        }, delayMillis);
+    }
+
+    private void schedule(Runnable task, long emulatedMillis) {
+        if (executor.isShutdown()) return;
+        executor.schedule(task, scaledNanos(emulatedMillis), TimeUnit.NANOSECONDS);
+    }
+
+    private long scaledNanos(long emulatedMillis) {
+        return (long) (emulatedMillis * 1000000 / timeScale);
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private void setState(PrinterState newState) {
+        state = newState;
+        for (LPAPI.Callback callback : callbacks) {
+            callback.onStateChange(address, newState);
+        }
+    }
+
+    private static final int DEFAULT_SPEED_LEVEL = 2;
+
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CopyOnWriteArrayList<LPAPI.Callback> callbacks = new CopyOnWriteArrayList<LPAPI.Callback>();
+
+    private final long connectMillis;
+    private final int bytesPerSecond;
+    private final int dpi;
+    private final int[] speeds;
+    private final int labelWidth;
+    private final int labelHeight;
+    private final double disconnectRate;
+    private final double failureRate;
+    private final PrintFailReason[] failReasons;
+    private final double connectFailureRate;
+    private final Random random;
+    private final double timeScale;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger labels = new AtomicInteger();
+    // Counts links, events of an older link are dropped
+    private final AtomicInteger links = new AtomicInteger();
+
+    // When the emulated printer has finished the jobs already accepted, in System.nanoTime
+    private volatile long busyUntil = 0;
+    private volatile MonoBitmap lastLabel = null;
+    private volatile PrinterAddress address = null;
+    private volatile PrinterState state = PrinterState.Disconnected;
+}
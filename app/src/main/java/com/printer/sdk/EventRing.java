@@ -0,0 +1,149 @@
+package com.printer.sdk;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Printer events handed from the SDK threads to their consumers through a preallocated ring of primitive records.
+// Publishing never blocks and never allocates: it claims a slot, writes a type, a code (e.g. an enum ordinal) and a
+// job id, and wakes the subscribers that asked for it. Each subscriber reads from its own cursor on its own thread.
+// A subscriber more than the capacity behind loses the oldest events, counted by getDropped(), rather than slowing
+// the publisher down.
+public class EventRing {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // Receives the events read by a cursor, called on the reading thread
+    public interface Reader {
+        void onEvent(int type, int code, long job, long nanos);
+    }
+
+    // Capacity is rounded up to a power of two
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.types = new AtomicIntegerArray(size);
+        this.codes = new AtomicIntegerArray(size);
+        this.jobs = new AtomicLongArray(size);
+        this.times = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // Adds an event and wakes the subscribers waiting for one; safe from any thread
+    public void publish(int type, int code, long job) {
+        long sequence = next.getAndIncrement();
+        int slot = (int) sequence & mask;
+        // Readers of the slot see it change while it is written and retry or skip it
+        published.set(slot, -1);
+        types.set(slot, type);
+        codes.set(slot, code);
+        jobs.set(slot, job);
+        times.set(slot, System.nanoTime());
+        published.set(slot, sequence);
+
+        Cursor[] subscribers = cursors;
+        for (int i = 0; i < subscribers.length; i++) {
+            subscribers[i].signal();
+        }
+    }
+
+    // Cursor starting at the next event. The wakeup runs on the publishing thread after an event is added, once until
+    // the cursor is read again, so it must be short and not allocate (e.g. post a preallocated Runnable); may be null.
+    public Cursor subscribe(Runnable wakeup) {
+        Cursor cursor = new Cursor(next.get(), wakeup);
+        synchronized (this) {
+            Cursor[] grown = new Cursor[cursors.length + 1];
+            System.arraycopy(cursors, 0, grown, 0, cursors.length);
+            grown[cursors.length] = cursor;
+            cursors = grown;
+        }
+        return cursor;
+    }
+
+    public synchronized void unsubscribe(Cursor cursor) {
+        for (int i = 0; i < cursors.length; i++) {
+            if (cursors[i] == cursor) {
+                Cursor[] shrunk = new Cursor[cursors.length - 1];
+                System.arraycopy(cursors, 0, shrunk, 0, i);
+                System.arraycopy(cursors, i + 1, shrunk, i, cursors.length - i - 1);
+                cursors = shrunk;
+                return;
+            }
+        }
+    }
+
+    // Read position of one subscriber, to be read by one thread at a time
+    public class Cursor {
+        Cursor(long start, Runnable wakeup) {
+            this.position = start;
+            this.wakeup = wakeup;
+        }
+
+        // Hands the events published since the last read to the reader, in order; returns how many were read.
+        // The wakeup is armed again first, so an event published during the read wakes the subscriber again.
+        public int read(Reader reader) {
+            armed.set(true);
+            int count = 0;
+            while (true) {
+                long sequence = position;
+                int slot = (int) sequence & mask;
+                long before = published.get(slot);
+                // Not published yet or being written, its publisher wakes the subscriber again once done
+                if (before < sequence) break;
+                int type = types.get(slot);
+                int code = codes.get(slot);
+                long job = jobs.get(slot);
+                long nanos = times.get(slot);
+                if (before > sequence || published.get(slot) != sequence) {
+                    // Overwritten, the reader fell more than a ring behind: skip to the oldest event still there
+                    long oldest = next.get() - mask - 1;
+                    long skip = Math.max(sequence + 1, oldest);
+                    dropped.addAndGet(skip - sequence);
+                    position = skip;
+                    continue;
+                }
+                position = sequence + 1;
+                reader.onEvent(type, code, job, nanos);
+                count++;
+            }
+            return count;
+        }
+
+        // Events lost because the subscriber fell behind
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        void signal() {
+            if (wakeup != null && armed.compareAndSet(true, false)) {
+                wakeup.run();
+            }
+        }
+
+        private final Runnable wakeup;
+        private final AtomicBoolean armed = new AtomicBoolean(true);
+        private final AtomicLong dropped = new AtomicLong();
+        private long position;
+    }
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    // Sequence of the event in each slot, -1 while it is written
+    private final AtomicLongArray published;
+    private final AtomicIntegerArray types;
+    private final AtomicIntegerArray codes;
+    private final AtomicLongArray jobs;
+    private final AtomicLongArray times;
+
+    // Replaced as a whole when subscribers come and go, so publish() iterates without allocating
+    private volatile Cursor[] cursors = new Cursor[0];
+}
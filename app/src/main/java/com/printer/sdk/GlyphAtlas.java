@@ -0,0 +1,397 @@
+package com.printer.sdk;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+// Pre-rasterized 1-bit glyphs by font and size, for drawing label text without laying out and rasterizing it again.
+// Each font keeps the advance of every character, the glyphs of the characters drawn (rasterized once, on first draw,
+// without anti-aliasing into an alpha mask), the kerning of the character pairs met so far and the line breaks of
+// recent texts. Text is then drawn glyph by glyph at the cached positions.
+// Only scripts drawn one glyph per character qualify (see canDraw()); text needing shaping, such as Arabic or combining
+// accents, is left to Canvas.drawText.
+public class GlyphAtlas {
+
+    // Smallest size tried by fitTextSize(), in dots
+    public static final int MIN_TEXT_SIZE = 8;
+
+    public static final int DEFAULT_MAX_FONTS = 16;
+
+    // Atlas shared by every label template
+    public static GlyphAtlas getShared() {
+        return sShared;
+    }
+
+    public GlyphAtlas(int maxFonts) {
+        this.maxFonts = Math.max(1, maxFonts);
+    }
+
+    // True if every character of the text is drawn as one glyph of its own
+    public static boolean canDraw(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') continue;
+            if (c < 0x20 || (c >= 0x0300 && c < 0x0370) || (c >= 0x0590 && c < 0x2000)
+                    || (c >= 0xD800 && c < 0xE000) || c >= 0xFFF0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The font of the given typeface (null for the default one) and size in dots, created on first use
+    public Font getFont(Typeface typeface, int textSize) {
+        FontKey key = new FontKey(typeface, Math.max(1, textSize));
+        synchronized (fonts) {
+            Font font = fonts.get(key);
+            if (font == null) {
+                font = new Font(typeface, key.size);
+                fonts.put(key, font);
+                if (fonts.size() > maxFonts) {
+                    fonts.remove(fonts.keySet().iterator().next());
+                }
+            }
+            return font;
+        }
+    }
+
+    // Largest size from MIN_TEXT_SIZE to maxSize at which the whole text fits the box, MIN_TEXT_SIZE if none does.
+    // The answer found for texts of about the same length in the same box is tried first, so a label filled with
+    // similar values usually costs two layouts instead of a full binary search. The sizes tried are measured from
+    // advances only, with fonts kept out of the cache unless they are there already (see probe()).
+    public int fitTextSize(Typeface typeface, String text, int width, int height, int maxSize) {
+        maxSize = Math.max(MIN_TEXT_SIZE, maxSize);
+        FitKey key = new FitKey(typeface, width, height, maxSize, 32 - Integer.numberOfLeadingZeros(text.length()));
+        Integer hint;
+        synchronized (fits) {
+            hint = fits.get(key);
+        }
+
+        // lo fits (or is below the smallest size), hi does not (or is above the largest)
+        int size = hint != null ? Math.min(Math.max(hint, MIN_TEXT_SIZE), maxSize) : maxSize;
+        int lo;
+        int hi;
+        if (probe(typeface, size).fits(text, width, height)) {
+            lo = size;
+            hi = maxSize + 1;
+            for (int step = 1; lo + step < hi; step *= 2) {
+                if (!probe(typeface, lo + step).fits(text, width, height)) {
+                    hi = lo + step;
+                    break;
+                }
+                lo += step;
+            }
+        } else {
+            lo = MIN_TEXT_SIZE - 1;
+            hi = size;
+            for (int step = 1; hi - step > lo; step *= 2) {
+                if (probe(typeface, hi - step).fits(text, width, height)) {
+                    lo = hi - step;
+                    break;
+                }
+                hi -= step;
+            }
+        }
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (probe(typeface, mid).fits(text, width, height)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+
+        int result = Math.max(lo, MIN_TEXT_SIZE);
+        synchronized (fits) {
+            fits.put(key, result);
+        }
+        return result;
+    }
+
+    // Font measuring a size tried by fitTextSize(): the cached one if there is one, otherwise a font of its own that is
+    // dropped after the search, so trying sizes does not evict the fonts being drawn
+    private Font probe(Typeface typeface, int textSize) {
+        FontKey key = new FontKey(typeface, Math.max(1, textSize));
+        Font font;
+        synchronized (fonts) {
+            font = fonts.get(key);
+        }
+        return font != null ? font : new Font(typeface, key.size);
+    }
+
+    public void clear() {
+        synchronized (fonts) {
+            fonts.clear();
+        }
+        synchronized (fits) {
+            fits.clear();
+        }
+    }
+
+    // Glyphs and metrics of one typeface at one size. Can be used from several threads.
+    public static class Font {
+        Font(Typeface typeface, int textSize) {
+            this.paint = LabelTemplate.newPaint();
+            if (typeface != null) paint.setTypeface(typeface);
+            paint.setTextSize(textSize);
+            Paint.FontMetrics fm = paint.getFontMetrics();
+            this.ascent = fm.ascent;
+            this.descent = fm.descent;
+        }
+
+        public int getTextSize() {
+            return (int) paint.getTextSize();
+        }
+
+        // Distance between two baselines
+        public float getLineHeight() {
+            return descent - ascent;
+        }
+
+        // Width of the characters from start to end, kerning included
+        public synchronized float measure(String text, int start, int end) {
+            float x = 0;
+            char previous = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                x += kerning(previous, c) + glyph(c).advance;
+                previous = c;
+            }
+            return x;
+        }
+
+        // Lines of the text wrapped to the width, as start and end indexes: a line ends at '\n' or at the last
+        // character that fits, with at least one character per line
+        public int[] getLines(String text, int width) {
+            String key = width + "/" + text;
+            synchronized (this) {
+                int[] lines = lineCache.get(key);
+                if (lines != null) return lines;
+
+                int[] found = new int[8];
+                int count = 0;
+                int start = 0;
+                int length = text.length();
+                while (start < length) {
+                    int end = text.indexOf('\n', start);
+                    if (end < 0) end = length;
+                    int stop = breakLine(text, start, end, width);
+                    if (count + 2 > found.length) {
+                        int[] grown = new int[found.length * 2];
+                        System.arraycopy(found, 0, grown, 0, count);
+                        found = grown;
+                    }
+                    found[count++] = start;
+                    found[count++] = stop;
+                    start = stop;
+                    if (start == end) start++;
+                }
+                lines = new int[count];
+                System.arraycopy(found, 0, lines, 0, count);
+                lineCache.put(key, lines);
+                if (lineCache.size() > MAX_LINE_CACHE) {
+                    lineCache.remove(lineCache.keySet().iterator().next());
+                }
+                return lines;
+            }
+        }
+
+        // True if the whole text fits the box: no line wider than the box, all lines inside it
+        public boolean fits(String text, int width, int height) {
+            int[] lines = getLines(text, width);
+            if ((lines.length / 2) * getLineHeight() > height) return false;
+            for (int i = 0; i < lines.length; i += 2) {
+                if (measure(text, lines[i], lines[i + 1]) > width) return false;
+            }
+            return true;
+        }
+
+        // Draws the text wrapped in the box like LabelTemplate.drawWrapped(), lines below the box are dropped
+        public void draw(Canvas canvas, String text, int left, int top, int width, int height, Paint paint) {
+            int[] lines = getLines(text, width);
+            float baseline = top - ascent;
+            canvas.save();
+            canvas.clipRect(left, top, left + width, top + height);
+            for (int i = 0; i < lines.length; i += 2) {
+                // The first line is always drawn
+                if (i > 0 && baseline + descent > top + height) break;
+                float x = left;
+                char previous = 0;
+                for (int k = lines[i]; k < lines[i + 1]; k++) {
+                    char c = text.charAt(k);
+                    Glyph glyph;
+                    synchronized (this) {
+                        x += kerning(previous, c);
+                        glyph = glyph(c);
+                        rasterize(c, glyph);
+                    }
+                    if (glyph.mask != null) {
+                        canvas.drawBitmap(glyph.mask, Math.round(x) + glyph.left, Math.round(baseline) + glyph.top, paint);
+                    }
+                    x += glyph.advance;
+                    previous = c;
+                }
+                baseline += getLineHeight();
+            }
+            canvas.restore();
+        }
+
+        // Number of characters from start, up to end, that fit the width; at least one
+        private int breakLine(String text, int start, int end, int width) {
+            float x = 0;
+            char previous = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                x += kerning(previous, c) + glyph(c).advance;
+                if (x > width) return Math.max(i, start + 1);
+                previous = c;
+            }
+            return end;
+        }
+
+        // Glyph of the character, measured on first use; its mask is only drawn by rasterize()
+        private Glyph glyph(char c) {
+            Glyph glyph = glyphs.get(c);
+            if (glyph == null) {
+                glyph = new Glyph(paint.measureText(String.valueOf(c)));
+                glyphs.put(c, glyph);
+                if (glyphs.size() > MAX_GLYPHS) {
+                    glyphs.remove(glyphs.keySet().iterator().next());
+                }
+            }
+            return glyph;
+        }
+
+        // Draws the mask of a glyph the first time it is drawn
+        private void rasterize(char c, Glyph glyph) {
+            if (glyph.rasterized) return;
+            glyph.rasterized = true;
+            String s = String.valueOf(c);
+            Rect bounds = new Rect();
+            paint.getTextBounds(s, 0, 1, bounds);
+            if (bounds.width() <= 0 || bounds.height() <= 0) return;
+
+            // Without anti-aliasing every pixel of the mask is either fully set or clear
+            Bitmap mask = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ALPHA_8);
+            new Canvas(mask).drawText(s, -bounds.left, -bounds.top, paint);
+            glyph.mask = mask;
+            glyph.left = bounds.left;
+            glyph.top = bounds.top;
+        }
+
+        // Adjustment between two characters; the layout API of Android 4 does not expose kerning, so it is the width
+        // of the pair minus the width of each. Only pairs of Latin, Greek and Cyrillic characters are kerned (below
+        // KERNED_LIMIT), the others are not worth a lookup.
+        private float kerning(char previous, char c) {
+            if (previous == 0 || previous >= KERNED_LIMIT || c >= KERNED_LIMIT) return 0;
+            Integer pair = (previous << 16) | c;
+            Float kerning = kernings.get(pair);
+            if (kerning == null) {
+                kerning = paint.measureText(new String(new char[] {previous, c})) - glyph(previous).advance - glyph(c).advance;
+                kernings.put(pair, kerning);
+            }
+            return kerning;
+        }
+
+        private final Paint paint;
+        private final float ascent;
+        private final float descent;
+
+        // In access order, the least recently used first
+        private final Map<Character, Glyph> glyphs = new LinkedHashMap<Character, Glyph>(128, 0.75f, true);
+        private final Map<Integer, Float> kernings = new HashMap<Integer, Float>();
+        private final Map<String, int[]> lineCache = new LinkedHashMap<String, int[]>(16, 0.75f, true);
+    }
+
+    // Advance of one character and its mask, placed relative to the pen position on the baseline; the mask is set by
+    // Font.rasterize() with the font lock held
+    private static class Glyph {
+        Glyph(float advance) {
+            this.advance = advance;
+        }
+
+        final float advance;
+        // Null for blank characters such as spaces, and until rasterized
+        Bitmap mask = null;
+        int left = 0;
+        int top = 0;
+        boolean rasterized = false;
+    }
+
+    private static class FontKey {
+        FontKey(Typeface typeface, int size) {
+            this.typeface = typeface;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FontKey)) return false;
+            FontKey k = (FontKey) o;
+            return typeface == k.typeface && size == k.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(typeface) + size;
+        }
+
+        final Typeface typeface;
+        final int size;
+    }
+
+    // Box and text length class (number of bits of the length) of an auto-fit answer
+    private static class FitKey {
+        FitKey(Typeface typeface, int width, int height, int maxSize, int lengthClass) {
+            this.typeface = typeface;
+            this.width = width;
+            this.height = height;
+            this.maxSize = maxSize;
+            this.lengthClass = lengthClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FitKey)) return false;
+            FitKey k = (FitKey) o;
+            return typeface == k.typeface && width == k.width && height == k.height && maxSize == k.maxSize
+                    && lengthClass == k.lengthClass;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(typeface);
+            h = 31 * h + width;
+            h = 31 * h + height;
+            h = 31 * h + maxSize;
+            h = 31 * h + lengthClass;
+            return h;
+        }
+
+        final Typeface typeface;
+        final int width;
+        final int height;
+        final int maxSize;
+        final int lengthClass;
+    }
+
+    // Glyphs kept per font, enough for Latin scripts and the common CJK characters of a label run
+    private static final int MAX_GLYPHS = 1024;
+    private static final int MAX_LINE_CACHE = 256;
+    // Characters below it (Latin, Greek and Cyrillic) are kerned
+    private static final char KERNED_LIMIT = 0x0530;
+
+    private static final GlyphAtlas sShared = new GlyphAtlas(DEFAULT_MAX_FONTS);
+
+    private final int maxFonts;
+
+    // In access order, the least recently used first
+    private final Map<FontKey, Font> fonts = new LinkedHashMap<FontKey, Font>(16, 0.75f, true);
+    private final Map<FitKey, Integer> fits = new HashMap<FitKey, Integer>();
+}
@@ -0,0 +1,364 @@
+package com.printer.sdk;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+// Bounded queue of print jobs deciding which one the printer gets next, used by PrintQueue.
+// Jobs of a higher priority class go first (see PrintJob.Priority). Within a class the sources submitting jobs share
+// the printer by weight: weighted fair queuing on the number of copies, so a source with a long batch does not hold
+// up one with a single label, and a source of weight 2 gets twice the labels of a source of weight 1 while both wait.
+// A job rises one class for every aging interval it waits, so bulk jobs are not starved by a steady flow of others.
+// Cancelled jobs leave the queue right away and free their place. A job gets its fair queuing tags when it reaches the
+// head of its source's jobs, so the jobs a source cancelled before it do not push it behind the other sources.
+// Once closed, no job is added anymore: offer() refuses and put() throws IllegalStateException.
+public class JobScheduler extends AbstractQueue<PrintJob> implements BlockingQueue<PrintJob> {
+
+    // Waiting time after which a job competes with the jobs of the class above
+    public static final long DEFAULT_AGING_INTERVAL = 30000;
+
+    public JobScheduler(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        PrintJob.Priority[] priorities = PrintJob.Priority.values();
+        this.lanes = new Lane[priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    // Share of the printer of a source compared to the others in the same class, 1 by default
+    public synchronized void setWeight(String source, double weight) {
+        if (!(weight > 0)) throw new IllegalArgumentException("Weight must be positive: " + weight);
+        weights.put(source, weight);
+    }
+
+    public synchronized void setAgingInterval(long millis) {
+        if (millis < 1) throw new IllegalArgumentException("Aging interval must be positive: " + millis);
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // Receives the jobs cancelled while waiting, after their own listener; see PrintQueue
+    void setCancelListener(PrintJob.Listener listener) {
+        this.cancelListener = listener;
+    }
+
+    // Refuses every job from now on and wakes up the threads waiting for free space; the jobs waiting are kept
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Number of jobs of a class waiting
+    public synchronized int size(PrintJob.Priority priority) {
+        return lanes[priority.ordinal()].count;
+    }
+
+    @Override
+    public synchronized int size() {
+        return live.size();
+    }
+
+    @Override
+    public synchronized int remainingCapacity() {
+        return capacity - live.size();
+    }
+
+    @Override
+    public synchronized boolean offer(PrintJob job) {
+        if (job == null) throw new NullPointerException();
+        if (closed || live.size() >= capacity) return false;
+        add(job, false);
+        return true;
+    }
+
+    @Override
+    public synchronized void put(PrintJob job) throws InterruptedException {
+        if (job == null) throw new NullPointerException();
+        while (!closed && live.size() >= capacity) {
+            wait();
+        }
+        if (closed) throw new IllegalStateException("Scheduler closed");
+        add(job, false);
+    }
+
+    @Override
+    public synchronized boolean offer(PrintJob job, long timeout, TimeUnit unit) throws InterruptedException {
+        if (job == null) throw new NullPointerException();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!closed && live.size() >= capacity) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        if (closed) return false;
+        add(job, false);
+        return true;
+    }
+
+    @Override
+    public synchronized PrintJob poll() {
+        return take(true);
+    }
+
+    @Override
+    public synchronized PrintJob take() throws InterruptedException {
+        while (live.isEmpty()) {
+            wait();
+        }
+        return take(true);
+    }
+
+    @Override
+    public synchronized PrintJob poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (live.isEmpty()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return null;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return take(true);
+    }
+
+    @Override
+    public synchronized PrintJob peek() {
+        return take(false);
+    }
+
+    // Drops a job that has not been taken yet, in constant time
+    @Override
+    public synchronized boolean remove(Object o) {
+        Entry entry = live.remove(o);
+        if (entry == null) return false;
+        entry.job.setScheduler(null);
+        lanes[entry.lane].count--;
+        // Left in its flow until it reaches the head, unless they pile up
+        entry.removed = true;
+        if (++removed > live.size() + PURGE_THRESHOLD) purge();
+        notifyAll();
+        return true;
+    }
+
+    @Override
+    public int drainTo(Collection<? super PrintJob> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized int drainTo(Collection<? super PrintJob> c, int maxElements) {
+        int n = 0;
+        PrintJob job;
+        while (n < maxElements && (job = take(true)) != null) {
+            c.add(job);
+            n++;
+        }
+        return n;
+    }
+
+    // Jobs waiting, in no particular order; the iterator does not support removal
+    @Override
+    public synchronized Iterator<PrintJob> iterator() {
+        List<PrintJob> jobs = new ArrayList<PrintJob>(live.keySet());
+        return Collections.unmodifiableList(jobs).iterator();
+    }
+
+    // Reports a job cancelled while waiting here, called by PrintJob.cancel() outside of the scheduler lock
+    void reportCancelled(PrintJob job) {
+        PrintJob.Listener listener = cancelListener;
+        if (listener != null) {
+            listener.onPrintProgress(job, PrintProgress.Failed, PrintFailReason.Cancelled);
+        }
+    }
+
+    // Gives back the job just taken so it is taken again next, unless a job that goes before it was queued meanwhile;
+    // see PrintQueue.coalesce()
+    synchronized void putBack(PrintJob job) {
+        add(job, true);
+    }
+
+    private void add(PrintJob job, boolean back) {
+        PrintJob.Priority priority = job.getPriority();
+        Lane lane = lanes[priority.ordinal()];
+        String source = job.getSource();
+        Flow flow = lane.flows.get(source);
+        if (flow == null) {
+            flow = new Flow(lane, source);
+            lane.flows.put(source, flow);
+        }
+
+        Entry entry;
+        if (back && taken != null && taken.job == job) {
+            // Back at the head of its flow with the tags it was taken with
+            entry = taken;
+            flow.entries.addFirst(entry);
+            flow.lastFinish = Math.max(flow.lastFinish, entry.finish);
+        } else {
+            // Jobs age from the time they were queued, they are tagged at the head of their flow
+            long queued = job.getStamp(PrintJob.STAMP_QUEUED);
+            if (queued == 0) queued = System.nanoTime();
+            entry = new Entry(job, priority.ordinal(), queued);
+            flow.entries.addLast(entry);
+        }
+        lane.count++;
+        live.put(job, entry);
+        job.setScheduler(this);
+        notifyAll();
+    }
+
+    // The job to print next, removed if asked to
+    private PrintJob take(boolean remove) {
+        if (live.isEmpty()) return null;
+
+        // Class of the job to print, lowered by the waiting time of its oldest job
+        long now = System.nanoTime();
+        Lane best = null;
+        double bestRank = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            Lane lane = lanes[i];
+            if (lane.count == 0) continue;
+            double rank = i - (double) (now - lane.oldest()) / agingNanos;
+            if (best == null || rank < bestRank) {
+                best = lane;
+                bestRank = rank;
+            }
+        }
+
+        // Within the class, the job with the smallest finish tag
+        Flow flow = null;
+        Entry entry = null;
+        for (Flow candidate : best.flows.values()) {
+            Entry head = candidate.head();
+            if (head != null && (entry == null || head.finish < entry.finish)) {
+                flow = candidate;
+                entry = head;
+            }
+        }
+        if (!remove) return entry.job;
+
+        flow.entries.poll();
+        flow.lastFinish = entry.finish;
+        if (flow.entries.isEmpty()) {
+            best.flows.remove(entry.job.getSource());
+        }
+        best.virtualTime = Math.max(best.virtualTime, entry.start);
+        best.count--;
+        live.remove(entry.job);
+        entry.job.setScheduler(null);
+        taken = entry;
+        notifyAll();
+        return entry.job;
+    }
+
+    // Drops the removed entries from every flow
+    private void purge() {
+        for (Lane lane : lanes) {
+            Iterator<Flow> flows = lane.flows.values().iterator();
+            while (flows.hasNext()) {
+                Flow flow = flows.next();
+                Iterator<Entry> entries = flow.entries.iterator();
+                while (entries.hasNext()) {
+                    if (entries.next().removed) entries.remove();
+                }
+                if (flow.entries.isEmpty()) flows.remove();
+            }
+        }
+        removed = 0;
+    }
+
+    // Jobs of one priority class
+    private class Lane {
+        // Oldest queued time of the jobs at the head of the flows, the oldest job of the class
+        long oldest() {
+            long oldest = Long.MAX_VALUE;
+            for (Flow flow : flows.values()) {
+                Entry head = flow.head();
+                if (head != null) oldest = Math.min(oldest, head.queued);
+            }
+            return oldest;
+        }
+
+        final Map<String, Flow> flows = new HashMap<String, Flow>();
+        // Start tag of the last job taken, where a source that was not waiting starts again
+        double virtualTime = 0;
+        int count = 0;
+    }
+
+    // Jobs of one source within a class, in submission order
+    private class Flow {
+        Flow(Lane lane, String source) {
+            this.lane = lane;
+            this.source = source;
+        }
+
+        // First entry not removed, the removed ones before it are dropped. The entry is tagged on reaching the head:
+        // it starts where the last job taken from the flow finished, or at the virtual time if the flow was idle.
+        Entry head() {
+            Entry head;
+            while ((head = entries.peek()) != null && head.removed) {
+                entries.poll();
+                removed--;
+            }
+            if (head != null && !head.tagged) {
+                Double weight = weights.get(source);
+                head.start = Math.max(lane.virtualTime, lastFinish);
+                head.finish = head.start + head.job.getParams().getCopies() / (weight != null ? weight : 1.0);
+                head.tagged = true;
+            }
+            return head;
+        }
+
+        final Lane lane;
+        final String source;
+        final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+        // Finish tag of the last job taken
+        double lastFinish = 0;
+    }
+
+    private static class Entry {
+        Entry(PrintJob job, int lane, long queued) {
+            this.job = job;
+            this.lane = lane;
+            this.queued = queued;
+        }
+
+        final PrintJob job;
+        final int lane;
+        final long queued;
+        // Fair queuing tags, set by Flow.head()
+        double start;
+        double finish;
+        boolean tagged = false;
+        boolean removed = false;
+    }
+
+    // Removed entries tolerated in the flows beyond the number of jobs waiting
+    private static final int PURGE_THRESHOLD = 64;
+
+    private final int capacity;
+    private final Lane[] lanes;
+    private final Map<String, Double> weights = new HashMap<String, Double>();
+    // Entry of every job waiting
+    private final IdentityHashMap<PrintJob, Entry> live = new IdentityHashMap<PrintJob, Entry>();
+    private int removed = 0;
+    private boolean closed = false;
+    private volatile PrintJob.Listener cancelListener = null;
+    // Entry of the last job taken, for putBack()
+    private Entry taken = null;
+    private long agingNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_AGING_INTERVAL);
+}
@@ -0,0 +1,78 @@
+package com.printer.sdk;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Reads JSON Lines records, one JSON object per line.
+// Values are converted to strings so records can be bound to label slots; blank lines are skipped.
+public class JsonLinesRecordReader implements Iterator<Map<String, String>>, Closeable {
+
+    public JsonLinesRecordReader(Reader reader) throws IOException {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.next = readRecord();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Map<String, String> next() {
+        if (next == null) throw new NoSuchElementException();
+        Map<String, String> record = next;
+        try {
+            next = readRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read JSON Lines record " + (line + 1), e);
+        }
+        return record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Map<String, String> readRecord() throws IOException {
+        String str;
+        do {
+            str = reader.readLine();
+            if (str == null) return null;
+            line++;
+            str = str.trim();
+        } while (str.length() == 0);
+
+        try {
+            JSONObject object = new JSONObject(str);
+            Map<String, String> record = new LinkedHashMap<String, String>();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                record.put(key, object.isNull(key) ? "" : String.valueOf(object.get(key)));
+            }
+            return record;
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON at line " + line + ": " + e.getMessage());
+        }
+    }
+
+    private final BufferedReader reader;
+
+    private Map<String, String> next;
+    private int line = 0;
+}
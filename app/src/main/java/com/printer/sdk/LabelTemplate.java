@@ -0,0 +1,485 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dothantech.lpapi.IAtBitmap;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+// Label layout compiled into a cached static layer plus named variable slots.
+// Positions and sizes are in millimeters like the LPAPI drawing functions. The static elements (text, boxes, lines,
+// images) are rasterized once per printer resolution; each print copies that layer and only draws the slot values,
+// then the result is sent with printBitmap.
+public class LabelTemplate {
+
+    // Resolution of most label printers, 8 dots per millimeter
+    public static final int DEFAULT_DPI = 203;
+
+    // Builds a template, elements are drawn in the order they are added
+    public static class Builder {
+        public Builder(double width, double height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        // Static text wrapped inside the box
+        public Builder text(String text, double x, double y, double width, double height, double fontHeight) {
+            elements.add(new TextElement(null, text, x, y, width, height, fontHeight, false));
+            return this;
+        }
+
+        // Static rectangle outline
+        public Builder rectangle(double x, double y, double width, double height, double lineWidth) {
+            elements.add(new BoxElement(x, y, width, height, lineWidth));
+            return this;
+        }
+
+        // Static filled rectangle, also used for horizontal and vertical lines
+        public Builder fillRectangle(double x, double y, double width, double height) {
+            elements.add(new BoxElement(x, y, width, height, 0));
+            return this;
+        }
+
+        // Static image such as a logo, scaled to the box
+        public Builder bitmap(Bitmap bitmap, double x, double y, double width, double height) {
+            elements.add(new BitmapElement(bitmap, x, y, width, height));
+            return this;
+        }
+
+        // Variable text, wrapped inside the box
+        public Builder textSlot(String name, double x, double y, double width, double height, double fontHeight) {
+            elements.add(new TextElement(name, null, x, y, width, height, fontHeight, false));
+            return this;
+        }
+
+        // Variable text, wrapped inside the box at the largest font height up to maxFontHeight where it all fits
+        public Builder fitTextSlot(String name, double x, double y, double width, double height, double maxFontHeight) {
+            elements.add(new TextElement(name, null, x, y, width, height, maxFontHeight, true));
+            return this;
+        }
+
+        // Variable 1D barcode of the given LPAPI.BarcodeType, with its text below when textHeight > 0
+        public Builder barcodeSlot(String name, int barcodeType, double x, double y, double width, double height, double textHeight) {
+            elements.add(new BarcodeElement(name, barcodeType, x, y, width, height, textHeight));
+            return this;
+        }
+
+        // Variable QR code inside a square box
+        public Builder qrCodeSlot(String name, double x, double y, double size) {
+            return qrCodeSlot(name, x, y, size, QrCodeEncoder.DEFAULT_ERROR_CORRECTION);
+        }
+
+        // Variable QR code inside a square box, with the given error correction level
+        public Builder qrCodeSlot(String name, double x, double y, double size, QrCodeEncoder.ErrorCorrection level) {
+            elements.add(new SymbolElement(name, BarcodeEncoder.Symbology.QR_CODE, level, x, y, size));
+            return this;
+        }
+
+        // Variable Data Matrix inside a square box
+        public Builder dataMatrixSlot(String name, double x, double y, double size) {
+            elements.add(new SymbolElement(name, BarcodeEncoder.Symbology.DATA_MATRIX, null, x, y, size));
+            return this;
+        }
+
+        public LabelTemplate build() {
+            return new LabelTemplate(width, height, new ArrayList<Element>(elements));
+        }
+
+        private final double width;
+        private final double height;
+        private final List<Element> elements = new ArrayList<Element>();
+    }
+
+    private LabelTemplate(double width, double height, List<Element> elements) {
+        this.width = width;
+        this.height = height;
+        Set<String> names = new LinkedHashSet<String>();
+        for (Element element : elements) {
+            if (element.slot != null) {
+                names.add(element.slot);
+                slots.add(element);
+            } else {
+                statics.add(element);
+            }
+        }
+        this.slotNames = Collections.unmodifiableSet(names);
+    }
+
+    // Page width in millimeters
+    public double getWidth() {
+        return width;
+    }
+
+    // Page height in millimeters
+    public double getHeight() {
+        return height;
+    }
+
+    public Set<String> getSlotNames() {
+        return slotNames;
+    }
+
+    // Renders the label at the given printer resolution, slots without a value are left empty.
+    // Can be called from several threads, each call returns a new bitmap.
+    public Bitmap render(Map<String, String> values, int dpi) {
+        Bitmap label = getStaticLayer(dpi).copy(LAYER_CONFIG, true);
+        Canvas canvas = new Canvas(label);
+        float scale = dotsPerMm(dpi);
+        for (Element element : slots) {
+            String value = values == null ? null : values.get(element.slot);
+            if (value != null && value.length() > 0) {
+                element.draw(canvas, scale, value);
+            }
+        }
+        return label;
+    }
+
+    // Static part of the label, rasterized on first use for each resolution
+    public Bitmap getStaticLayer(int dpi) {
+        synchronized (layers) {
+            Bitmap layer = layers.get(dpi);
+            if (layer == null) {
+                float scale = dotsPerMm(dpi);
+                layer = Bitmap.createBitmap(Math.max(1, Math.round((float) width * scale)),
+                        Math.max(1, Math.round((float) height * scale)), LAYER_CONFIG);
+                layer.eraseColor(Color.WHITE);
+                Canvas canvas = new Canvas(layer);
+                for (Element element : statics) {
+                    element.draw(canvas, scale, null);
+                }
+                layers.put(dpi, layer);
+            }
+            return layer;
+        }
+    }
+
+    // Drops the cached static layers, e.g. when the template is no longer used
+    public void releaseLayers() {
+        synchronized (layers) {
+            layers.clear();
+        }
+    }
+
+    static float dotsPerMm(int dpi) {
+        return (dpi > 0 ? dpi : DEFAULT_DPI) / 25.4f;
+    }
+
+    // Paint for 1-bit output: black, no anti-aliasing and no bitmap filtering so edges stay on whole dots
+    static Paint newPaint() {
+        Paint paint = new Paint();
+        paint.setColor(Color.BLACK);
+        paint.setAntiAlias(false);
+        paint.setFilterBitmap(false);
+        return paint;
+    }
+
+    // Draws a symbol scaled by a whole number of dots per module, centered in the box.
+    // 1D symbols are stretched to the box height; each run of dark modules is one rectangle.
+    static void drawModules(Canvas canvas, BarcodeMatrix symbol, int left, int top, int width, int height) {
+        boolean linear = symbol.getHeight() == 1;
+        int module = Math.max(1, linear ? width / symbol.getWidth() : Math.min(width, height) / Math.max(symbol.getWidth(), symbol.getHeight()));
+        int w = symbol.getWidth() * module;
+        int h = linear ? height : symbol.getHeight() * module;
+        int x0 = left + (width - w) / 2;
+        int y0 = top + (height - h) / 2;
+        for (int y = 0; y < symbol.getHeight(); y++) {
+            int top0 = y0 + y * module;
+            int bottom = linear ? y0 + h : top0 + module;
+            for (int x = 0; x < symbol.getWidth(); ) {
+                int end = symbol.runEnd(x, y);
+                if (symbol.isDark(x, y)) {
+                    canvas.drawRect(x0 + x * module, top0, x0 + end * module, bottom, MODULE_PAINT);
+                }
+                x = end;
+            }
+        }
+    }
+
+    // Draws a symbol bitmap (1 pixel per module) scaled by a whole number of dots per module, centered in the box
+    static void drawModules(Canvas canvas, Bitmap symbol, int left, int top, int width, int height, boolean keepRatio) {
+        if (symbol == null || symbol.getWidth() <= 0) return;
+        int module = Math.max(1, width / symbol.getWidth());
+        int w = symbol.getWidth() * module;
+        int h = keepRatio ? symbol.getHeight() * module : height;
+        int x = left + (width - w) / 2;
+        int y = top + (keepRatio ? (height - h) / 2 : 0);
+        canvas.drawBitmap(symbol, null, new Rect(x, y, x + w, y + h), MODULE_PAINT);
+    }
+
+    // Symbologies without an encoder of ours come from the LPAPI off-screen renderer, one instance per rendering thread
+    static IAtBitmap symbolRenderer() {
+        return sSymbolRenderer.get();
+    }
+
+    /********************************************************************************************************************************************/
+    // Layout elements
+    /********************************************************************************************************************************************/
+
+    private abstract static class Element {
+        Element(String slot, double x, double y, double width, double height) {
+            this.slot = slot;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        // Draws the element, value is null for static elements
+        abstract void draw(Canvas canvas, float scale, String value);
+
+        int left(float scale) {
+            return Math.round((float) x * scale);
+        }
+
+        int top(float scale) {
+            return Math.round((float) y * scale);
+        }
+
+        int width(float scale) {
+            return Math.round((float) width * scale);
+        }
+
+        int height(float scale) {
+            return Math.round((float) height * scale);
+        }
+
+        final String slot;
+        final double x;
+        final double y;
+        final double width;
+        final double height;
+    }
+
+    // Text drawn from the glyph atlas, by Canvas.drawText when the script needs shaping
+    private static class TextElement extends Element {
+        TextElement(String slot, String text, double x, double y, double width, double height, double fontHeight, boolean fit) {
+            super(slot, x, y, width, height);
+            this.text = text;
+            this.fontHeight = fontHeight;
+            this.fit = fit;
+        }
+
+        @Override
+        void draw(Canvas canvas, float scale, String value) {
+            String str = value != null ? value : text;
+            if (str == null) return;
+            int w = width(scale);
+            int h = height(scale);
+            int size = Math.max(1, Math.round((float) fontHeight * scale));
+            if (GlyphAtlas.canDraw(str)) {
+                GlyphAtlas atlas = GlyphAtlas.getShared();
+                if (fit) size = atlas.fitTextSize(null, str, w, h, size);
+                atlas.getFont(null, size).draw(canvas, str, left(scale), top(scale), w, h, TEXT_PAINT);
+                return;
+            }
+
+            Paint paint = newPaint();
+            paint.setTextSize(size);
+            // Largest size where the text fits, measured by the layout of the platform
+            if (fit) {
+                while (size > GlyphAtlas.MIN_TEXT_SIZE && !fitsWrapped(paint, str, w, h)) {
+                    paint.setTextSize(--size);
+                }
+            }
+            drawWrapped(canvas, paint, str, left(scale), top(scale), w, h);
+        }
+
+        final String text;
+        final double fontHeight;
+        final boolean fit;
+    }
+
+    // True if the text wrapped by drawWrapped() has every line inside the box
+    static boolean fitsWrapped(Paint paint, String str, int width, int height) {
+        Paint.FontMetrics fm = paint.getFontMetrics();
+        float lineHeight = fm.descent - fm.ascent;
+        int lines = 0;
+        int start = 0;
+        int length = str.length();
+        while (start < length) {
+            int end = str.indexOf('\n', start);
+            if (end < 0) end = length;
+            int count = end > start ? paint.breakText(str, start, end, true, width, null) : 0;
+            if (count <= 0 && end > start) return false;
+            start += count;
+            if (start == end) start++;
+            lines++;
+        }
+        return lines * lineHeight <= height;
+    }
+
+    // Draws text line by line, breaking on '\n' and when a line is wider than the box
+    static void drawWrapped(Canvas canvas, Paint paint, String str, int left, int top, int width, int height) {
+        Paint.FontMetrics fm = paint.getFontMetrics();
+        float lineHeight = fm.descent - fm.ascent;
+        float baseline = top - fm.ascent;
+        canvas.save();
+        canvas.clipRect(left, top, left + width, top + height);
+        int start = 0;
+        int length = str.length();
+        boolean first = true;
+        while (start < length) {
+            // Lines below the box are dropped, the first one is always drawn
+            if (!first && baseline + fm.descent > top + height) break;
+            first = false;
+            int end = str.indexOf('\n', start);
+            if (end < 0) end = length;
+            int count = end > start ? paint.breakText(str, start, end, true, width, null) : 0;
+            if (count <= 0 && end > start) count = 1;
+            canvas.drawText(str, start, start + count, left, baseline, paint);
+            start += count;
+            if (start == end) start++;
+            baseline += lineHeight;
+        }
+        canvas.restore();
+    }
+
+    private static class BoxElement extends Element {
+        BoxElement(double x, double y, double width, double height, double lineWidth) {
+            super(null, x, y, width, height);
+            this.lineWidth = lineWidth;
+        }
+
+        @Override
+        void draw(Canvas canvas, float scale, String value) {
+            Paint paint = newPaint();
+            int l = left(scale);
+            int t = top(scale);
+            int r = l + width(scale);
+            int b = t + height(scale);
+            if (lineWidth <= 0) {
+                canvas.drawRect(l, t, r, b, paint);
+                return;
+            }
+            int line = Math.max(1, Math.round((float) lineWidth * scale));
+            canvas.drawRect(l, t, r, t + line, paint);
+            canvas.drawRect(l, b - line, r, b, paint);
+            canvas.drawRect(l, t, l + line, b, paint);
+            canvas.drawRect(r - line, t, r, b, paint);
+        }
+
+        final double lineWidth;
+    }
+
+    private static class BitmapElement extends Element {
+        BitmapElement(Bitmap bitmap, double x, double y, double width, double height) {
+            super(null, x, y, width, height);
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        void draw(Canvas canvas, float scale, String value) {
+            int l = left(scale);
+            int t = top(scale);
+            Paint paint = newPaint();
+            paint.setFilterBitmap(true);
+            canvas.drawBitmap(bitmap, null, new Rect(l, t, l + width(scale), t + height(scale)), paint);
+        }
+
+        final Bitmap bitmap;
+    }
+
+    private static class BarcodeElement extends Element {
+        BarcodeElement(String slot, int type, double x, double y, double width, double height, double textHeight) {
+            super(slot, x, y, width, height);
+            this.type = type;
+            this.symbology = BarcodeEncoder.fromBarcodeType(type);
+            this.textHeight = textHeight;
+        }
+
+        @Override
+        void draw(Canvas canvas, float scale, String value) {
+            int l = left(scale);
+            int t = top(scale);
+            int w = width(scale);
+            int h = height(scale);
+            int text = textHeight > 0 ? Math.round((float) textHeight * scale) : 0;
+            BarcodeMatrix symbol = encode(value);
+            if (symbol != null) {
+                drawModules(canvas, symbol, l, t, w, h - text);
+            } else {
+                drawModules(canvas, symbolRenderer().getMin1DBarcode(value, type), l, t, w, h - text, false);
+            }
+            if (text > 0) {
+                Paint paint = newPaint();
+                paint.setTextSize(text);
+                paint.setTextAlign(Paint.Align.CENTER);
+                canvas.drawText(value, l + w / 2f, t + h - paint.getFontMetrics().descent, paint);
+            }
+        }
+
+        // Cached symbol, or null when LPAPI has to encode the value
+        private BarcodeMatrix encode(String value) {
+            if (symbology == null) return null;
+            try {
+                return BarcodeCache.getShared().get(symbology, value, null);
+            } catch (IllegalArgumentException e) {
+                // e.g. a character outside the symbology, LPAPI handles it as before
+                return null;
+            }
+        }
+
+        final int type;
+        final BarcodeEncoder.Symbology symbology;
+        final double textHeight;
+    }
+
+    private static class SymbolElement extends Element {
+        SymbolElement(String slot, BarcodeEncoder.Symbology symbology, QrCodeEncoder.ErrorCorrection level, double x, double y, double size) {
+            super(slot, x, y, size, size);
+            this.symbology = symbology;
+            this.level = level;
+        }
+
+        @Override
+        void draw(Canvas canvas, float scale, String value) {
+            BarcodeMatrix symbol;
+            try {
+                symbol = BarcodeCache.getShared().get(symbology, value, level);
+            } catch (IllegalArgumentException e) {
+                // Too much data for our encoder, QR codes are left to LPAPI as before
+                if (symbology == BarcodeEncoder.Symbology.QR_CODE) {
+                    drawModules(canvas, symbolRenderer().getMin2DQRCode(value), left(scale), top(scale), width(scale), height(scale), true);
+                }
+                return;
+            }
+            drawModules(canvas, symbol, left(scale), top(scale), width(scale), height(scale));
+        }
+
+        final BarcodeEncoder.Symbology symbology;
+        final QrCodeEncoder.ErrorCorrection level;
+    }
+
+    private static final Bitmap.Config LAYER_CONFIG = Bitmap.Config.RGB_565;
+
+    private static final Paint MODULE_PAINT = newPaint();
+
+    // Draws the glyph masks of the atlas in black
+    private static final Paint TEXT_PAINT = newPaint();
+
+    private static final ThreadLocal<IAtBitmap> sSymbolRenderer = new ThreadLocal<IAtBitmap>() {
+        @Override
+        protected IAtBitmap initialValue() {
+            return IAtBitmap.Factory.createInstance();
+        }
+    };
+
+    private final double width;
+    private final double height;
+    private final List<Element> statics = new ArrayList<Element>();
+    private final List<Element> slots = new ArrayList<Element>();
+    private final Set<String> slotNames;
+
+    // Static layers by printer resolution
+    private final Map<Integer, Bitmap> layers = new HashMap<Integer, Bitmap>();
+}
@@ -0,0 +1,102 @@
+package com.printer.sdk;
+
+// Histogram of latencies in microseconds with a fixed relative precision, in the manner of HdrHistogram.
+// Values below 64 are counted exactly; above, every power of two is split into 32 buckets, so a percentile is
+// reported within about 3% of the recorded value whatever its magnitude. Recording never allocates.
+public class LatencyHistogram {
+
+    public LatencyHistogram() {
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        this.count = other.count;
+        this.sum = other.sum;
+        this.min = other.min;
+        this.max = other.max;
+    }
+
+    public synchronized void record(long micros) {
+        if (micros < 0) micros = 0;
+        counts[indexOf(micros)]++;
+        count++;
+        sum += micros;
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    // Highest value of the bucket holding the given percentile (0 to 100), 0 when empty
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(max, highestValueOf(i));
+        }
+        return max;
+    }
+
+    // Copy of the current state, e.g. for an exporter
+    public synchronized LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + count + " p50=" + getValueAtPercentile(50) + " p90=" + getValueAtPercentile(90)
+                + " p99=" + getValueAtPercentile(99) + " max=" + max + "us";
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        // Bucket of the power of two, then the 32 sub-buckets of it given by the 5 bits below the highest one
+        int bucket = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int sub = (int) (value >>> bucket);
+        return SUB_BUCKETS + (bucket - 1) * HALF_SUB_BUCKETS + (sub - HALF_SUB_BUCKETS);
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int bucket = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((sub + 1) << bucket) - 1;
+    }
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    private final long[] counts = new long[SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+}
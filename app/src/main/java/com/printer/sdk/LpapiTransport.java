@@ -0,0 +1,308 @@
+package com.printer.sdk;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintParamName;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+
+// Printer transport backed by one LPAPI instance.
+// Sends Bitmap contents with printBitmap and Drawing contents with the graphic job functions of LPAPI.
+// BandedLabel contents are sent as one printBitmap per band on continuous paper, without margins so the bands join up;
+// print() returns once the last band is handed over, the label's progress being that of its bands.
+public class LpapiTransport implements PrinterTransport, LPAPI.Callback {
+
+    // Draws one label page with the LPAPI graphic functions, starting with startJob.
+    // The transport commits the job with the print parameters of the PrintJob.
+    public interface Drawing {
+        boolean draw(LPAPI api);
+    }
+
+    // Time to wait for the printer to finish a band before sending the next one
+    public static final long BAND_TIMEOUT = PrintQueue.DEFAULT_ACK_TIMEOUT;
+
+    public LpapiTransport() {
+        this.api = LPAPI.Factory.createInstance(this);
+    }
+
+    // The underlying LPAPI object, for printer information and discovery
+    public LPAPI getApi() {
+        return api;
+    }
+
+    @Override
+    public void addCallback(LPAPI.Callback callback) {
+        callbacks.addIfAbsent(callback);
+    }
+
+    @Override
+    public void removeCallback(LPAPI.Callback callback) {
+        callbacks.remove(callback);
+    }
+
+    @Override
+    public boolean openPrinter(PrinterAddress address) {
+        this.address = address;
+        return api.openPrinterByAddress(address);
+    }
+
+    @Override
+    public void closePrinter() {
+        api.closePrinter();
+    }
+
+    @Override
+    public PrinterState getPrinterState() {
+        return api.getPrinterState();
+    }
+
+    @Override
+    public PrinterAddress getPrinterAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean print(PrintJob job) {
+        synchronized (this) {
+            printing = job;
+        }
+
+        Object content = job.getContent();
+        Bundle param = toBundle(job.getParams());
+        boolean result = false;
+        if (content instanceof Bitmap) {
+            result = api.printBitmap((Bitmap) content, param);
+        } else if (content instanceof Drawing) {
+            if (((Drawing) content).draw(api)) {
+                result = api.commitJobWithParam(param);
+            } else {
+                api.abortJob();
+            }
+        } else if (content instanceof BandedLabel) {
+            result = printBands(job, (BandedLabel) content);
+        }
+
+        if (!result) {
+            synchronized (this) {
+                if (printing == job) printing = null;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void quit() {
+        synchronized (this) {
+            if (bandRenderer != null) bandRenderer.shutdownNow();
+        }
+        api.quit();
+    }
+
+    // Sends the bands of every copy one after another, each one once the printer finished the previous one while the
+    // next is rendered. Returns false if a band could not be rendered or sent, or was not finished in time, and for an
+    // orientation other than 0 (see BandedLabel).
+    private boolean printBands(PrintJob job, BandedLabel label) {
+        if (job.getParams().getOrientation() != 0) return false;
+        Bundle param = toBandBundle(job.getParams());
+        int copies = job.getParams().getCopies();
+        int bands = label.getBandCount();
+        for (int copy = 0; copy < copies; copy++) {
+            BandedLabel.Stream stream = label.open(getBandRenderer());
+            try {
+                for (int i = 0; i < bands; i++) {
+                    MonoBitmap band = stream.next();
+                    Bitmap bitmap = MonochromeBitmaps.toBitmap(band, bandBitmaps);
+                    boolean last = copy == copies - 1 && i == bands - 1;
+                    synchronized (this) {
+                        // Failed or disconnected meanwhile, the queue already knows
+                        if (printing != job) return true;
+                        streamBand = bitmap;
+                        streamLast = last;
+                        bandDone = null;
+                    }
+                    if (!api.printBitmap(bitmap, param)) return false;
+                    if (last) return true;
+
+                    synchronized (this) {
+                        long deadline = System.currentTimeMillis() + BAND_TIMEOUT;
+                        while (bandDone == null && printing == job) {
+                            long left = deadline - System.currentTimeMillis();
+                            if (left <= 0) return false;
+                            wait(left);
+                        }
+                        if (bandDone != PrintProgress.Success) return true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                return false;
+            } catch (InterruptedException e) {
+                // The print queue is shutting down
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                stream.close();
+            }
+        }
+        return true;
+    }
+
+    private synchronized ExecutorService getBandRenderer() {
+        if (bandRenderer == null) {
+            bandRenderer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "BandRender");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return bandRenderer;
+    }
+
+    // Parameters of one band of a banded label: continuous paper without margins, one copy in the feed direction;
+    // printBands() refuses the labels asking for another orientation
+    private static Bundle toBandBundle(PrintParams params) {
+        Bundle param = toBundle(new PrintParams(params.getDensity(), params.getSpeed(), GAP_CONTINUOUS, 0, 1));
+        param.putInt(PrintParamName.TOP_MARGIN_PX, 0);
+        param.putInt(PrintParamName.BOTTOM_MARGIN_PX, 0);
+        return param;
+    }
+
+    // Converts print parameters to the Bundle expected by LPAPI
+    public static Bundle toBundle(PrintParams params) {
+        Bundle param = new Bundle();
+
+        // Print density
+        if (params.getDensity() >= 0) {
+            param.putInt(PrintParamName.PRINT_DENSITY, params.getDensity());
+        }
+
+        // Print speed
+        if (params.getSpeed() >= 0) {
+            param.putInt(PrintParamName.PRINT_SPEED, params.getSpeed());
+        }
+
+        // Gap type
+        if (params.getGapType() >= 0) {
+            param.putInt(PrintParamName.GAP_TYPE, params.getGapType());
+        }
+
+        // Print page rotation angle
+        if (params.getOrientation() != 0) {
+            param.putInt(PrintParamName.PRINT_DIRECTION, params.getOrientation());
+        }
+
+        // Number of copies
+        if (params.getCopies() > 1) {
+            param.putInt(PrintParamName.PRINT_COPIES, params.getCopies());
+        }
+
+        return param;
+    }
+
+    /********************************************************************************************************************************************/
+    // LPAPI callbacks, forwarded to every registered callback
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
+        // Late progress of a job whose link dropped must not be taken for the same job sent again
+        if (arg1 == PrinterState.Disconnected) {
+            synchronized (this) {
+                printing = null;
+                // A banded label being sent stops at the band that was printing
+                notifyAll();
+            }
+        }
+        for (LPAPI.Callback callback : callbacks) {
+            callback.onStateChange(arg0, arg1);
+        }
+    }
+
+    @Override
+    public void onProgressInfo(ProgressInfo arg0, Object arg1) {
+        for (LPAPI.Callback callback : callbacks) {
+            callback.onProgressInfo(arg0, arg1);
+        }
+    }
+
+    @Override
+    public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
+        for (LPAPI.Callback callback : callbacks) {
+            callback.onPrinterDiscovery(arg0, arg1);
+        }
+    }
+
+    @Override
+    public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+        // LPAPI prints one job at a time, so the progress belongs to the job being printed.
+        // For bitmap jobs, a bitmap that is not the content of that job comes from an older job and is forwarded as is.
+        PrintJob job;
+        boolean done = progress == PrintProgress.Success || progress == PrintProgress.Failed;
+        synchronized (this) {
+            job = printing;
+            if (job != null && job.getContent() instanceof Bitmap && bitmapData instanceof Bitmap && bitmapData != job.getContent()) {
+                job = null;
+            }
+            if (job != null && job.getContent() instanceof BandedLabel && bitmapData != streamBand) {
+                job = null;
+            }
+            if (job != null && streamBand != null && bitmapData == streamBand && done) {
+                bandBitmaps.put(streamBand);
+                streamBand = null;
+                // A band printed, the label goes on with the next one
+                if (progress == PrintProgress.Success && !streamLast) {
+                    bandDone = progress;
+                    notifyAll();
+                    return;
+                }
+                bandDone = progress;
+                notifyAll();
+            }
+            if (job != null && done) {
+                printing = null;
+            }
+        }
+
+        Object data = job != null ? job : bitmapData;
+        for (LPAPI.Callback callback : callbacks) {
+            callback.onPrintProgress(address, data, progress, addiInfo);
+        }
+    }
+
+    private final CopyOnWriteArrayList<LPAPI.Callback> callbacks = new CopyOnWriteArrayList<LPAPI.Callback>();
+
+    private final LPAPI api;
+
+    private volatile PrinterAddress address = null;
+
+    // Job handed to LPAPI and not yet finished
+    private PrintJob printing = null;
+
+    // Gap type of continuous paper, as in R.array.gap_type
+    private static final int GAP_CONTINUOUS = 0;
+
+    // Band of a banded label handed to LPAPI, whether it is the last one, and how the printer finished it
+    private Bitmap streamBand = null;
+    private boolean streamLast = false;
+    private PrintProgress bandDone = null;
+
+    // Bitmaps of the bands being sent, reused for the next bands
+    private final BitmapPool bandBitmaps = new BitmapPool(BAND_BITMAP_BYTES);
+    private ExecutorService bandRenderer = null;
+
+    // Two RGB_565 bands of a 4 inch head
+    private static final long BAND_BITMAP_BYTES = 2L * 832 * BandedLabel.DEFAULT_BAND_HEIGHT * 2;
+}
@@ -1,14 +1,28 @@
 package com.printer.sdk;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import com.dothantech.lpapi.LPAPI;
-import com.dothantech.lpapi.LPAPI.BarcodeType;
-import com.dothantech.printer.IDzPrinter;
-import com.dothantech.printer.IDzPrinter.PrintParamName;
 import com.dothantech.printer.IDzPrinter.PrintProgress;
 import com.dothantech.printer.IDzPrinter.PrinterAddress;
 import com.dothantech.printer.IDzPrinter.PrinterInfo;
@@ -25,10 +39,10 @@ import android.content.SharedPreferences.Editor;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.os.Handler;
 import android.text.TextUtils;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -58,27 +72,17 @@ public class MainActivity extends Activity {
         // Called when the printer connection status changes
         @Override
         public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
-            final PrinterAddress printer = arg0;
             switch (arg1) {
                 case Connected:
                 case Connected2:
-                    // Successful printer connection, send notification and update the UI
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onPrinterConnected(printer);
-                        }
-                    });
+                    // Successful printer connection, the UI reads it from the event ring
+                    mStateAddress = arg0;
+                    events.publish(EventState, arg1.ordinal(), 0);
                     break;
 
                 case Disconnected:
-                    // Printer connection failed or disconnected, send notification and update the UI
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onPrinterDisconnected();
-                        }
-                    });
+                    // Printer connection failed or disconnected, the UI reads it from the event ring
+                    events.publish(EventState, arg1.ordinal(), 0);
                     break;
 
                 default:
@@ -91,32 +95,52 @@ public class MainActivity extends Activity {
         public void onProgressInfo(ProgressInfo arg0, Object arg1) {
         }
 
+        // Printers discovered are collected by the printer discovery, registered with the transport too
         @Override
         public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
         }
 
-        // Called when the label print progress changes
+        // Called when the label print progress changes, the result of each label is reported through mPrintJobListener
         @Override
         public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+        }
+    };
+
+    // Paired printers of the Bluetooth adapter, listed by LPAPI; slow, called in the background
+    private final PrinterDiscovery.Source mBondedPrinters = new PrinterDiscovery.Source() {
+        @Override
+        public List<PrinterAddress> getPrinters() {
+            BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
+            if (btAdapter == null || !btAdapter.isEnabled()) return null;
+            return api.getAllPrinterAddresses(null);
+        }
+    };
+
+    // Called for every printer found by the discovery, refreshes the printer list while it is shown
+    private final PrinterDiscovery.Listener mDiscoveryListener = new PrinterDiscovery.Listener() {
+        @Override
+        public void onPrinterFound(PrinterDiscovery.Printer printer) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (deviceListAdapter != null) {
+                        pairedPrinters = discovery.getAddresses();
+                        deviceListAdapter.notifyDataSetChanged();
+                    }
+                }
+            });
+        }
+    };
+
+    // Callback of every label submitted to the print queue, called within the printing thread
+    private final PrintJob.Listener mPrintJobListener = new PrintJob.Listener() {
+        @Override
+        public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
             switch (progress) {
                 case Success:
-                    // Successful label printing, send notification and update the UI
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onPrintSuccess();
-                        }
-                    });
-                    break;
-
                 case Failed:
-                    // Failed label printing, send notification and update the UI
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            onPrintFailed();
-                        }
-                    });
+                    // Label printed or failed, the UI reads it from the event ring; other progress is not shown
+                    events.publish(EventPrint, progress.ordinal(), job.getId());
                     break;
 
                 default:
@@ -125,40 +149,243 @@ public class MainActivity extends Activity {
         }
     };
 
+    // Reads the printer events on the UI thread, the events of one wakeup are applied together
+    private final EventRing.Reader mEventReader = new EventRing.Reader() {
+        @Override
+        public void onEvent(int type, int code, long job, long nanos) {
+            if (type == EventState) {
+                // Only the latest connection state matters
+                eventState = code;
+            } else if (code == PrintProgress.Success.ordinal()) {
+                eventPrinted++;
+            } else {
+                eventFailed++;
+            }
+        }
+    };
+
+    // Posted once per batch of events, preallocated so the printing thread does not allocate
+    private final Runnable mEventDrain = new Runnable() {
+        @Override
+        public void run() {
+            eventState = -1;
+            eventPrinted = 0;
+            eventFailed = 0;
+            eventCursor.read(mEventReader);
+
+            if (eventState >= 0) {
+                PrinterState state = PrinterStates[eventState];
+                if (state == PrinterState.Disconnected) {
+                    onPrinterDisconnected();
+                } else {
+                    onPrinterConnected(mStateAddress);
+                }
+            }
+            // A batch of labels gets one notification
+            if (eventPrinted > 0) {
+                onPrintSuccess();
+            }
+            if (eventFailed > 0) {
+                onPrintFailed();
+            }
+        }
+    };
+
+    // Same as mPrintJobListener for labels printed from a pooled bitmap, which is released once printed
+    private final PrintJob.Listener mPooledPrintJobListener = new PrintJob.Listener() {
+        @Override
+        public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+            if (progress == PrintProgress.Success || progress == PrintProgress.Failed) {
+                Object content = job.getContent();
+                if (content instanceof Bitmap) {
+                    imageLoader.release((Bitmap) content);
+                }
+                synchronized (activeJobs) {
+                    activeJobs.remove(job);
+                }
+            }
+            mPrintJobListener.onPrintProgress(job, progress, addiInfo);
+        }
+    };
+
+    private PrintEngine engine;
+    private LpapiTransport transport;
     private LPAPI api;
+    private PrintQueue printQueue;
+    private ConnectionSupervisor connectionSupervisor;
+    private RenderPipeline renderPipeline;
+    private PrintImageLoader imageLoader;
+    private ExecutorService conversionExecutor;
+    private ExecutorService batchExecutor;
+    private PrintMetrics printMetrics;
+    private RenderedLabelCache labelCache;
+    private PrintJournal journal;
+    private ExecutorService startupExecutor;
+    private PrinterDiscovery discovery;
+    private EventRing events;
+    private EventRing.Cursor eventCursor;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        sStartupTrace.mark(StartupCreated);
         setContentView(R.layout.main);
 
+        // Images are decoded on demand into pooled bitmaps, at the size they are shown or printed
+        this.imageLoader = new PrintImageLoader(new BitmapPool(BitmapPoolBytes));
+        // Photos are dithered in stripes on every core before they reach the printer
+        this.conversionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        // Batches are printed one after another, each blocking its thread until the printer acknowledged it
+        this.batchExecutor = Executors.newSingleThreadExecutor();
+        // Labels printed earlier are kept ready to print, on disk too so reprints are instant after a restart
+        this.labelCache = new RenderedLabelCache(LabelCacheMemoryBytes, new File(getCacheDir(), LabelCacheDirName), LabelCacheDiskBytes);
+
         // Initialize the interface
         initialView();
 
-        // Call the init method of the LPAPI object to initialize it
-        this.api = LPAPI.Factory.createInstance(mCallback);
+        // Printer events reach the UI through a ring buffer, one post to the UI thread per batch of them
+        this.events = new EventRing(EventRing.DEFAULT_CAPACITY);
+        this.eventCursor = events.subscribe(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(mEventDrain);
+            }
+        });
 
-        // Try to connect to the printer that was previously connected successfully
-        if (mPrinterAddress != null) {
-            if (api.openPrinterByAddress(mPrinterAddress)) {
-                // Printer connection request sent successfully, update the UI
-                onPrinterConnecting(mPrinterAddress, false);
-                return;
+        // The printer connection and the print queue are shared with PrintService, a printer it keeps connected for
+        // other apps is ready here too; the transport forwards the printer callbacks to mCallback
+        this.engine = PrintEngine.acquire();
+        this.transport = engine.getTransport();
+        this.transport.addCallback(mCallback);
+        this.api = engine.getApi();
+
+        // Printers found and how well they connect, so the printer list opens at once with the best printer first
+        this.discovery = new PrinterDiscovery();
+        this.discovery.addListener(mDiscoveryListener);
+        this.transport.addCallback(discovery);
+
+        this.printQueue = engine.getPrintQueue();
+        this.connectionSupervisor = engine.getConnectionSupervisor();
+        this.renderPipeline = engine.getRenderPipeline();
+        this.journal = new PrintJournal(new File(getFilesDir(), JournalDirName));
+
+        // Stage latencies and counters of the print pipeline, appended to a local file with the startup milestones
+        this.printMetrics = new PrintMetrics();
+        this.printMetrics.setStartupTrace(sStartupTrace);
+        this.printQueue.addListener(printMetrics);
+        this.transport.addCallback(printMetrics);
+        this.printMetrics.startExporting(new RotatingFileExporter(new File(getFilesDir(), MetricsFileName),
+                MetricsFileBytes, MetricsFileCount), MetricsPeriodSeconds, TimeUnit.SECONDS);
+
+        // Everything reading files or talking to the printer runs in the background, the interface is usable now
+        this.startupExecutor = Executors.newFixedThreadPool(2);
+        this.startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadSettingsAndReconnect();
+            }
+        });
+        this.startupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                replayJournal();
+            }
+        });
+        this.startupExecutor.shutdown();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                sStartupTrace.mark(StartupInterfaceShown);
+            }
+        });
+    }
+
+    // Reads the settings, shows them and reconnects the printer that was previously connected successfully.
+    // Called in the background at startup.
+    private void loadSettingsAndReconnect() {
+        final StoredSettings stored = loadSettings();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                applySettings(stored);
+                showSettings();
+                settingsLoaded = true;
+                // The changes made meanwhile could not be saved yet
+                if (!changedSettings.isEmpty()) {
+                    saveSettings();
+                    changedSettings.clear();
+                }
+                sStartupTrace.mark(StartupSettingsLoaded);
+            }
+        });
+
+        // Without a previous printer the best paired one is connected, no need to pick it
+        PrinterAddress previous = mPrinterAddress;
+        if (previous == null) {
+            discovery.scan(mBondedPrinters);
+            previous = discovery.getBest();
+        }
+        final PrinterAddress printer = previous;
+        if (printer != null && connectionSupervisor.connect(printer)) {
+            // Printer connection request sent successfully, update the UI
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onPrinterConnecting(printer, false);
+                }
+            });
+        }
+    }
+
+    // Prints again the labels still queued when the process was stopped; one sent but not acknowledged yet may print
+    // twice, losing it would be worse. Called in the background at startup.
+    private void replayJournal() {
+        try {
+            for (PrintJournal.Entry entry : journal.open()) {
+                resubmit(entry);
             }
+        } catch (IOException e) {
+            // Printing works without the journal, jobs are just not kept
+            e.printStackTrace();
         }
+        sStartupTrace.mark(StartupJournalReplayed);
     }
 
     @Override
     protected void onDestroy() {
-        // When exiting the application, call the quit method of the LPAPI object to disconnect the printer
-        api.quit();
+        startupExecutor.shutdownNow();
+        discovery.shutdown();
+        printMetrics.stopExporting();
+        transport.removeCallback(mCallback);
+        transport.removeCallback(discovery);
+        transport.removeCallback(printMetrics);
+        printQueue.removeListener(printMetrics);
+
+        // Labels of this screen not sent yet are dropped, the journal prints them again on the next start
+        cancelActiveJobs();
+        conversionExecutor.shutdownNow();
+        batchExecutor.shutdownNow();
+        journal.close();
+
+        // The last user of the print engine disconnects the printer; PrintService keeps it connected for other apps
+        engine.release();
 
         // Necessary operations when exiting the application
         fini();
 
+        imageLoader.getPool().clear();
+
         super.onDestroy();
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        // Bitmaps kept for reuse can be decoded again, rendered labels are still on disk
+        imageLoader.getPool().clear();
+        labelCache.clearMemory();
+    }
+
     // Click event for each item in the printer list
     private class DeviceListItemClicker implements OnClickListener {
         @Override
@@ -166,7 +393,7 @@ public class MainActivity extends Activity {
             PrinterAddress printer = pairedPrinters.get(which);
             if (printer != null) {
                 // Connect the selected printer
-                if (api.openPrinterByAddress(printer)) {
+                if (connectionSupervisor.connect(printer)) {
                     // Printer connection request sent successfully, update the UI
                     onPrinterConnecting(printer, true);
                     return;
@@ -183,8 +410,9 @@ public class MainActivity extends Activity {
         // Call the getPrinterState method of the LPAPI object to get the printer's state
         PrinterState state = api.getPrinterState();
 
-        // Printer not connected
+        // Printer not connected, labels can still be queued while it is being reconnected
         if (state == null || state.equals(PrinterState.Disconnected)) {
+            if (connectionSupervisor.getTarget() != null) return true;
             Toast.makeText(MainActivity.this, this.getResources().getString(R.string.pleaseconnectprinter), Toast.LENGTH_SHORT).show();
             return false;
         }
@@ -200,35 +428,18 @@ public class MainActivity extends Activity {
     }
 
     // Get the necessary parameters for printing
-    private Bundle getPrintParam(int copies, int orientation) {
-        Bundle param = new Bundle();
-
-        // Print density
-        if (printDensity >= 0) {
-            param.putInt(PrintParamName.PRINT_DENSITY, printDensity);
-        }
-
-        // Print speed
-        if (printSpeed >= 0) {
-            param.putInt(PrintParamName.PRINT_SPEED, printSpeed);
-        }
-
-        // Gap type
-        if (gapType >= 0) {
-            param.putInt(PrintParamName.GAP_TYPE, gapType);
-        }
-
-        // Print page rotation angle
-        if (orientation != 0) {
-            param.putInt(PrintParamName.PRINT_DIRECTION, orientation);
-        }
+    private PrintParams getPrintParam(int copies, int orientation) {
+        return new PrintParams(printDensity, printSpeed, gapType, orientation, copies);
+    }
 
-        // Number of copies
-        if (copies > 1) {
-            param.putInt(PrintParamName.PRINT_COPIES, copies);
-        }
+    // Resolution of the connected printer, used to rasterize templates
+    private int getPrinterDpi() {
+        return engine.getPrinterDpi();
+    }
 
-        return param;
+    // Add a label to the print queue, the result is reported through mPrintJobListener
+    private boolean submitPrintJob(Object content, PrintParams param) {
+        return printQueue.offer(new PrintJob(content, param, mPrintJobListener));
     }
 
 /********************************************************************************************************************************************/
@@ -236,51 +447,234 @@ public class MainActivity extends Activity {
     /********************************************************************************************************************************************/
 
 // Print text
-    private boolean printText(String text, Bundle param) {
-        // Start the graphic printing job, passing the parameters (page width, page height)
-        api.startJob(40, 30, 0);
+    private boolean printText(String text, PrintParams param) {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(BuiltInTemplates.SLOT_TEXT, text);
+        return printTemplate(BuiltInTemplates.TEXT, values, param);
+    }
+
+    // Print text with 1D barcode
+    private boolean printText1DBarcode(String text, String onedBarcde, PrintParams param) {
+        // Only the text and the barcode are drawn, the rest of the page comes from the template's cached layer
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(BuiltInTemplates.SLOT_TEXT, text);
+        values.put(BuiltInTemplates.SLOT_BARCODE, onedBarcde);
+        return printTemplate(BuiltInTemplates.TEXT_1D_BARCODE, values, param);
+    }
 
-        // Start printing the page, draw the text
-        api.drawText(text, 4, 5, 40, 40, 4);
+    // Print 2D barcode
+    private boolean print2dBarcode(String twodBarcode, PrintParams param) {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(BuiltInTemplates.SLOT_QR_CODE, twodBarcode);
+        return printTemplate(BuiltInTemplates.QR_CODE, values, param);
+    }
 
-        // Finish the printing task and commit the print job
-        return api.commitJob();
+    // Print a label template, recorded in the print journal first
+    private boolean printTemplate(String name, Map<String, String> values, PrintParams param) {
+        try {
+            JSONObject description = newJobDescription(param);
+            description.put(JobTemplate, name);
+            description.put(JobValues, new JSONObject(values));
+            return printTemplate(journal.submitted(description.toString().getBytes("UTF-8")), name, values, param);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
-    // Print text with 1D barcode
-    private boolean printText1DBarcode(String text, String onedBarcde, Bundle param) {
-        // Start the graphic printing job, passing the parameters (page width, page height)
-        api.startJob(40, 30, 0);
+    // Print a label template, a label printed before with the same values comes from the rendered label cache
+    private boolean printTemplate(long entry, String name, final Map<String, String> values, PrintParams param) {
+        final LabelTemplate template = BuiltInTemplates.get(name);
+        final int dpi = getPrinterDpi();
+        List<String> parts = new ArrayList<String>();
+        parts.add(name);
+        parts.add(String.valueOf(dpi));
+        for (String slot : template.getSlotNames()) {
+            parts.add(slot);
+            parts.add(values.get(slot));
+        }
+        String key = RenderedLabelCache.key(param, parts.toArray());
 
-        // Start printing the page, draw the text
-        api.drawText(text, 4, 4, 40, 10, 4);
+        return printRendered(entry, key, new Callable<MonoBitmap>() {
+            @Override
+            public MonoBitmap call() {
+                Bitmap label = template.render(values, dpi);
+                MonoBitmap dots = MonochromeBitmaps.convert(label, labelConverter, null);
+                imageLoader.release(label);
+                return dots;
+            }
+        }, param);
+    }
 
-        // Set the content orientation to 180 degrees
-        api.setItemOrientation(0);
+    // Print image, recorded in the print journal first
+    private boolean printBitmap(String assetName, PrintParams param) {
+        try {
+            JSONObject description = newJobDescription(param);
+            description.put(JobBitmap, assetName);
+            return printBitmap(journal.submitted(description.toString().getBytes("UTF-8")), assetName, param);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        // Draw the 1D barcode, this is drawn with a 180-degree rotation
-        api.draw1DBarcode(onedBarcde, BarcodeType.CODE128, 4, 15, 40, 15, 3);
+    // Print image
+    private boolean printBitmap(long entry, final String assetName, PrintParams param) {
+        // Decoded no larger than the print head can use
+        final int targetWidth = (int) (MaxPrintWidthMm * getPrinterDpi() / 25.4);
+        String key = RenderedLabelCache.key(param, "bitmap", assetName, targetWidth, imageConverter.getAlgorithm());
 
-        // Finish the printing task and commit the print job
-        return api.commitJob();
+        return printRendered(entry, key, new Callable<MonoBitmap>() {
+            @Override
+            public MonoBitmap call() throws IOException {
+                Bitmap bitmap = imageLoader.decodeAsset(getAssets(), assetName, targetWidth, 0);
+                if (bitmap == null) throw new IOException("Cannot decode " + assetName);
+
+                // Dithered here so the printer gets the dots we chose instead of the SDK's own conversion
+                MonoBitmap dots = MonochromeBitmaps.convert(bitmap, imageConverter, conversionExecutor);
+                imageLoader.release(bitmap);
+                return dots;
+            }
+        }, param);
     }
 
-    // Print 2D barcode
-    private boolean print2dBarcode(String twodBarcode, Bundle param) {
-        // Start the graphic printing job, passing the parameters (page width, page height)
-        api.startJob(48, 50, 0);
+    // Prints every record of a sample batch (CSV or JSON Lines) in the background with the 1D barcode template; a batch
+    // stopped by closing the screen resumes after its last acknowledged label the next time it is printed
+    private void printBatch(final String assetName) {
+        final PrintParams param = getPrintParam(1, 90);
+        final int dpi = getPrinterDpi();
+        batchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                BatchPrinter batch = new BatchPrinter(printQueue, BuiltInTemplates.get(BuiltInTemplates.TEXT_1D_BARCODE), dpi, param);
+                batch.setCheckpoint(new File(getFilesDir(), assetName + BatchCheckpointSuffix), assetName);
+                try {
+                    Reader reader = new BufferedReader(new InputStreamReader(getAssets().open(assetName), "UTF-8"));
+                    final BatchPrinter.Result result;
+                    try {
+                        Iterator<Map<String, String>> records = assetName.endsWith(".jsonl")
+                                ? new JsonLinesRecordReader(reader) : new CsvRecordReader(reader);
+                        result = batch.run(records);
+                    } finally {
+                        reader.close();
+                    }
+                    if (result.isComplete()) batch.clearCheckpoint();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onBatchDone(result);
+                        }
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onPrintFailed();
+                        }
+                    });
+                } catch (InterruptedException e) {
+                    // The screen is closing, the checkpoint keeps the progress
+                }
+            }
+        });
+    }
 
-        // Start printing the page, draw the QR code
-        api.draw2DQRCode(twodBarcode, 9, 10, 30);
+    // Prints again a job the print journal found unfinished
+    private void resubmit(PrintJournal.Entry entry) {
+        try {
+            JSONObject description = new JSONObject(new String(entry.getPayload(), "UTF-8"));
+            PrintParams param = new PrintParams(description.getInt(JobDensity), description.getInt(JobSpeed),
+                    description.getInt(JobGapType), description.getInt(JobOrientation), description.getInt(JobCopies));
+            if (description.has(JobTemplate)) {
+                JSONObject json = description.getJSONObject(JobValues);
+                Map<String, String> values = new HashMap<String, String>();
+                for (Iterator<String> it = json.keys(); it.hasNext(); ) {
+                    String slot = it.next();
+                    values.put(slot, json.getString(slot));
+                }
+                printTemplate(entry.getId(), description.getString(JobTemplate), values, param);
+            } else {
+                printBitmap(entry.getId(), description.getString(JobBitmap), param);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            journal.record(entry.getId(), PrintJournal.FAILED);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        // Finish the printing task and commit the print job
-        return api.commitJob();
+    // Journal description of a job with its print parameters
+    private static JSONObject newJobDescription(PrintParams param) throws JSONException {
+        JSONObject description = new JSONObject();
+        description.put(JobDensity, param.getDensity());
+        description.put(JobSpeed, param.getSpeed());
+        description.put(JobGapType, param.getGapType());
+        description.put(JobOrientation, param.getOrientation());
+        description.put(JobCopies, param.getCopies());
+        return description;
     }
 
-    // Print image
-    private boolean printBitmap(Bitmap bitmap, Bundle param) {
-        // Print the image
-        return api.printBitmap(bitmap, param);
+    // Prints the label of the given key, rendered on a worker thread unless the rendered label cache has it; the
+    // printed bitmap is given back to the pool once printed and the progress is recorded under the journal entry.
+    // The label is turned to the print direction here, on its packed dots, and sent to the SDK as it prints.
+    private boolean printRendered(final long entry, final String key, final Callable<MonoBitmap> render, PrintParams param) {
+        final int orientation = param.getOrientation();
+        // Turned labels are cached apart from those cached before, which the SDK turned
+        final String cacheKey = orientation == 0 ? key : key + "@" + orientation;
+        PrintJob job = renderPipeline.offer(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                MonoBitmap dots = labelCache.get(cacheKey);
+                if (dots == null) {
+                    dots = MonoTransform.rotate(render.call(), orientation, conversionExecutor);
+                    labelCache.put(cacheKey, dots);
+                }
+                journal.record(entry, PrintJournal.RENDERED);
+                return MonochromeBitmaps.toBitmap(dots, imageLoader.getPool());
+            }
+        }, param.withOrientation(0), key, journal.listener(entry, mPooledPrintJobListener));
+        if (job == null) {
+            journal.record(entry, PrintJournal.FAILED);
+            return false;
+        }
+        synchronized (activeJobs) {
+            // Unless it is done already
+            if (!job.isDone()) activeJobs.add(job);
+        }
+        return true;
+    }
+
+    // Cancels the labels of this screen still waiting in the shared print queue
+    private void cancelActiveJobs() {
+        List<PrintJob> jobs;
+        synchronized (activeJobs) {
+            jobs = new ArrayList<PrintJob>(activeJobs);
+            activeJobs.clear();
+        }
+        for (PrintJob job : jobs) {
+            job.cancel(true);
+        }
+    }
+
+    // Preview of a sample image, decoded the first time it is shown
+    private Bitmap getPreviewBitmap(int position) {
+        String name = printBitmapNames[position];
+        Bitmap bitmap = previewBitmaps.get(name);
+        if (bitmap == null) {
+            try {
+                bitmap = imageLoader.decodeAsset(getAssets(), name, PreviewWidth, 0);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (bitmap != null) {
+                previewBitmaps.put(name, bitmap);
+            }
+        }
+        return bitmap;
     }
 
 /********************************************************************************************************************************************/
@@ -299,58 +693,69 @@ public class MainActivity extends Activity {
         btnGapType = (Button) findViewById(R.id.btn_gaptype);
         btnPrintDensity = (Button) findViewById(R.id.btn_printdensity);
         btnPrintSpeed = (Button) findViewById(R.id.btn_printspeed);
+
+        // Only the names are read here, the images are decoded when shown or printed
+        printBitmapNames = getResources().getStringArray(R.array.test_pic_name);
+        bitmapOrientations = getResources().getIntArray(R.array.test_pic_orientation);
+    }
+
+    // Reads the settings and the last print data, the first read of the preferences file is slow.
+    // Only the last printer is used right away, the rest is applied on the UI thread by applySettings().
+    private StoredSettings loadSettings() {
         SharedPreferences sharedPreferences = getSharedPreferences(getResources().getString(R.string.app_name), Context.MODE_PRIVATE);
-        String lastPrinterMac = sharedPreferences.getString(KeyLastPrinterMac, null);
-        String lastPrinterName = sharedPreferences.getString(KeyLastPrinterName, null);
-        String lastPrinterType = sharedPreferences.getString(KeyLastPrinterType, null);
-        IDzPrinter.AddressType lastAddressType = TextUtils.isEmpty(lastPrinterType) ? null : Enum.valueOf(IDzPrinter.AddressType.class, lastPrinterType);
-        if (lastPrinterMac == null || lastPrinterName == null || lastAddressType == null) {
-            mPrinterAddress = null;
-        } else {
-            mPrinterAddress = new IDzPrinter.PrinterAddress(lastPrinterName, lastPrinterMac, lastAddressType);
-        }
-        printQuality = sharedPreferences.getInt(KeyPrintQuality, -1);
-        printDensity = sharedPreferences.getInt(KeyPrintDensity, -1);
-        printSpeed = sharedPreferences.getInt(KeyPrintSpeed, -1);
-        gapType = sharedPreferences.getInt(KeyGapType, -1);
-        defaultText1 = sharedPreferences.getString(KeyDefaultText1, getResources().getString(R.string.defaulttextone));
-        defaultText2 = sharedPreferences.getString(KeyDefaultText2, getResources().getString(R.string.defaulttexttwo));
-        default1dBarcode = sharedPreferences.getString(KeyDefault1dBarcode, getResources().getString(R.string.defaultonedbarcode));
-        default2dBarcode = sharedPreferences.getString(KeyDefault2dBarcode, getResources().getString(R.string.defaulttwodbarcode));
+        mPrinterAddress = PrintEngine.loadLastPrinter(sharedPreferences);
+        StoredSettings stored = new StoredSettings();
+        stored.printQuality = sharedPreferences.getInt(KeyPrintQuality, -1);
+        stored.printDensity = sharedPreferences.getInt(KeyPrintDensity, -1);
+        stored.printSpeed = sharedPreferences.getInt(KeyPrintSpeed, -1);
+        stored.gapType = sharedPreferences.getInt(KeyGapType, -1);
+        stored.defaultText1 = sharedPreferences.getString(KeyDefaultText1, getResources().getString(R.string.defaulttextone));
+        stored.defaultText2 = sharedPreferences.getString(KeyDefaultText2, getResources().getString(R.string.defaulttexttwo));
+        stored.default1dBarcode = sharedPreferences.getString(KeyDefault1dBarcode, getResources().getString(R.string.defaultonedbarcode));
+        stored.default2dBarcode = sharedPreferences.getString(KeyDefault2dBarcode, getResources().getString(R.string.defaulttwodbarcode));
+        return stored;
+    }
+
+    // Uses the settings read in the background, except the ones the user changed while they were read
+    private void applySettings(StoredSettings stored) {
+        if (!changedSettings.contains(KeyPrintQuality)) printQuality = stored.printQuality;
+        if (!changedSettings.contains(KeyPrintDensity)) printDensity = stored.printDensity;
+        if (!changedSettings.contains(KeyPrintSpeed)) printSpeed = stored.printSpeed;
+        if (!changedSettings.contains(KeyGapType)) gapType = stored.gapType;
+        if (!changedSettings.contains(KeyDefaultText1)) defaultText1 = stored.defaultText1;
+        if (!changedSettings.contains(KeyDefaultText2)) defaultText2 = stored.defaultText2;
+        if (!changedSettings.contains(KeyDefault1dBarcode)) default1dBarcode = stored.default1dBarcode;
+        if (!changedSettings.contains(KeyDefault2dBarcode)) default2dBarcode = stored.default2dBarcode;
+    }
+
+    // Saves the settings after the user changed the given ones; until the stored settings are loaded they are
+    // remembered so the loaded values do not replace them
+    private void settingChanged(String... keys) {
+        if (!settingsLoaded) {
+            Collections.addAll(changedSettings, keys);
+        }
+        saveSettings();
+    }
+
+    // Shows the settings on their buttons, once loaded
+    private void showSettings() {
         btnPrintDensity.setText(getResources().getString(R.string.printdensity) + printDensityList[printDensity + 1]);
         btnPrintQuality.setText(getResources().getString(R.string.printquality) + printQualityList[printQuality + 1]);
         btnPrintSpeed.setText(getResources().getString(R.string.printspeed) + printSpeedList[printSpeed + 1]);
         btnGapType.setText(getResources().getString(R.string.gaptype) + gapTypeList[gapType + 1]);
-
-        String[] testPicName = getResources().getStringArray(R.array.test_pic_name);
-        bitmapOrientations = getResources().getIntArray(R.array.test_pic_orientation);
-
-        // Load test images
-        if (testPicName != null) {
-            for (String str : testPicName) {
-                try {
-                    InputStream is = getAssets().open(str);
-                    if (is != null) {
-                        Bitmap bmp = BitmapFactory.decodeStream(is);
-                        if (bmp != null) {
-                            printBitmaps.add(bmp);
-                        }
-                        try {
-                            is.close();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                } catch (IOException e1) {
-                    e1.printStackTrace();
-                }
-            }
-        }
     }
 
     // Operations needed when closing the application
     private void fini() {
         // Save relevant information
+        saveSettings();
+    }
+
+    // Saves the settings and the last print data, in the background so they survive the process being killed
+    private void saveSettings() {
+        // Nothing to save yet, and the defaults must not overwrite the saved settings
+        if (!settingsLoaded) return;
+
         SharedPreferences sharedPreferences = getSharedPreferences(getResources().getString(R.string.app_name), Context.MODE_PRIVATE);
         Editor editor = sharedPreferences.edit();
 
@@ -359,9 +764,7 @@ public class MainActivity extends Activity {
         editor.putInt(KeyPrintSpeed, printSpeed);
         editor.putInt(KeyGapType, gapType);
         if (mPrinterAddress != null) {
-            editor.putString(KeyLastPrinterMac, mPrinterAddress.macAddress);
-            editor.putString(KeyLastPrinterName, mPrinterAddress.shownName);
-            editor.putString(KeyLastPrinterType, mPrinterAddress.addressType.toString());
+            PrintEngine.saveLastPrinter(editor, mPrinterAddress);
         }
         if (defaultText1 != null) {
             editor.putString(KeyDefaultText1, defaultText1);
@@ -375,7 +778,7 @@ public class MainActivity extends Activity {
         if (default2dBarcode != null) {
             editor.putString(KeyDefault2dBarcode, default2dBarcode);
         }
-        editor.commit();
+        editor.apply();
     }
 
     // Printer selection button event
@@ -390,8 +793,11 @@ public class MainActivity extends Activity {
             return;
         }
 
-        pairedPrinters = api.getAllPrinterAddresses(null);
-        new AlertDialog.Builder(MainActivity.this).setTitle(R.string.selectbondeddevice).setAdapter(new DeviceListAdapter(), new DeviceListItemClicker()).show();
+        // The printers known already are shown at once, best first, the list grows as the paired printers are listed
+        pairedPrinters = discovery.getAddresses();
+        deviceListAdapter = new DeviceListAdapter();
+        new AlertDialog.Builder(MainActivity.this).setTitle(R.string.selectbondeddevice).setAdapter(deviceListAdapter, new DeviceListItemClicker()).show();
+        discovery.refresh(mBondedPrinters);
     }
 
     // Set print quality button event
@@ -425,6 +831,7 @@ public class MainActivity extends Activity {
             public void onClick(DialogInterface dialog, int which) {
                 // Get print data and print
                 defaultText1 = et1.getText().toString();
+                settingChanged(KeyDefaultText1);
                 if (isPrinterConnected()) {
                     if (printText(defaultText1, getPrintParam(1, 0))) {
                         onPrintStart();
@@ -450,6 +857,7 @@ public class MainActivity extends Activity {
                 // Get print data and print
                 defaultText2 = et1.getText().toString();
                 default1dBarcode = et2.getText().toString();
+                settingChanged(KeyDefaultText2, KeyDefault1dBarcode);
                 if (isPrinterConnected()) {
                     if (printText1DBarcode(defaultText2, default1dBarcode, getPrintParam(1, 90))) {
                         onPrintStart();
@@ -474,6 +882,7 @@ public class MainActivity extends Activity {
             public void onClick(DialogInterface dialog, int which) {
                 // Get print data and print
                 default2dBarcode = et1.getText().toString();
+                settingChanged(KeyDefault2dBarcode);
                 if (isPrinterConnected()) {
                     if (print2dBarcode(default2dBarcode, getPrintParam(1, 0))) {
                         onPrintStart();
@@ -492,6 +901,19 @@ public class MainActivity extends Activity {
         new AlertDialog.Builder(MainActivity.this).setTitle(R.string.printbitmap).setAdapter(new BitmapListAdapter(), new BitmapListItemClicker()).show();
     }
 
+    // Print batch button event
+    public void printBatchOnClick(View view) {
+        new AlertDialog.Builder(MainActivity.this).setTitle(R.string.printbatch).setItems(BatchAssets, new OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                if (isPrinterConnected()) {
+                    printBatch(BatchAssets[which]);
+                    onPrintStart();
+                }
+            }
+        }).show();
+    }
+
     // Printer connection request successful operation
     private void onPrinterConnecting(PrinterAddress printer, boolean showDialog) {
         // Printer connection request successful, refresh interface prompt
@@ -511,6 +933,9 @@ public class MainActivity extends Activity {
         clearAlertDialog();
         Toast.makeText(MainActivity.this, this.getResources().getString(R.string.connectprintersuccess), Toast.LENGTH_SHORT).show();
         mPrinterAddress = printer;
+        saveSettings();
+        sStartupTrace.mark(StartupPrinterConnected);
+        discovery.seen(printer, api.getPrinterInfo());
         // Call the LPAPI object's getPrinterInfo method to get the current connected printer's information
         String txt = getResources().getString(R.string.printer) + getResources().getString(R.string.chinesecolon);
         txt += api.getPrinterInfo().deviceName + "\n";
@@ -523,23 +948,39 @@ public class MainActivity extends Activity {
         // Printer connection failed or disconnected, refresh interface prompt
         clearAlertDialog();
 
+        // The connection supervisor is reconnecting it
+        if (connectionSupervisor.getTarget() != null) {
+            btnConnectDevice.setText(getResources().getString(R.string.reconnectingprinter));
+            return;
+        }
+
         Toast.makeText(MainActivity.this, this.getResources().getString(R.string.connectprinterfailed), Toast.LENGTH_SHORT).show();
         btnConnectDevice.setText("");
     }
 
-    // Start printing label operation
+    // Label added to the print queue operation
     private void onPrintStart() {
-        // Start printing label, refresh interface prompt
-        showStateAlertDialog(R.string.nowisprinting);
+        // The label is printed in the background, the interface stays usable for the next one
+        Toast.makeText(MainActivity.this, this.getResources().getString(R.string.printqueued), Toast.LENGTH_SHORT).show();
     }
 
     // Label printing successful operation
     private void onPrintSuccess() {
+        sStartupTrace.mark(StartupFirstPrint);
+
         // Label printing successful, refresh interface prompt
         clearAlertDialog();
         Toast.makeText(MainActivity.this, this.getResources().getString(R.string.printsuccess), Toast.LENGTH_SHORT).show();
     }
 
+    // Batch finished or stopped at a failed label
+    private void onBatchDone(BatchPrinter.Result result) {
+        String txt = result.isComplete()
+                ? getResources().getString(R.string.batchprinted, result.printed)
+                : getResources().getString(R.string.batchstopped, result.failedIndex + 1);
+        Toast.makeText(MainActivity.this, txt, Toast.LENGTH_SHORT).show();
+    }
+
     // Print request failed or label printing failed operation
     private void onPrintFailed() {
         // Print request failed or label printing failed, refresh interface prompt
@@ -652,12 +1093,12 @@ public class MainActivity extends Activity {
 
         @Override
         public int getCount() {
-            return printBitmaps.size();
+            return printBitmapNames == null ? 0 : printBitmapNames.length;
         }
 
         @Override
         public Object getItem(int position) {
-            return printBitmaps.get(position);
+            return printBitmapNames[position];
         }
 
         @Override
@@ -671,8 +1112,8 @@ public class MainActivity extends Activity {
                 convertView = LayoutInflater.from(MainActivity.this).inflate(R.layout.bitmap_item, null);
             }
             iv_bmp = (ImageView) convertView.findViewById(R.id.iv_bmp);
-            if (printBitmaps != null && printBitmaps.size() > position) {
-                Bitmap bmp = printBitmaps.get(position);
+            if (printBitmapNames != null && printBitmapNames.length > position) {
+                Bitmap bmp = getPreviewBitmap(position);
                 if (bmp != null) {
                     iv_bmp.setImageBitmap(bmp);
                 }
@@ -688,6 +1129,7 @@ public class MainActivity extends Activity {
         public void onClick(DialogInterface dialog, int which) {
             printQuality = which - 1;
             btnPrintQuality.setText(getResources().getString(R.string.printquality) + printQualityList[which]);
+            settingChanged(KeyPrintQuality);
         }
     }
 
@@ -697,6 +1139,7 @@ public class MainActivity extends Activity {
         public void onClick(DialogInterface dialog, int which) {
             printDensity = which - 1;
             btnPrintDensity.setText(getResources().getString(R.string.printdensity) + printDensityList[which]);
+            settingChanged(KeyPrintDensity);
         }
     }
 
@@ -706,6 +1149,7 @@ public class MainActivity extends Activity {
         public void onClick(DialogInterface dialog, int which) {
             printSpeed = which - 1;
             btnPrintSpeed.setText(getResources().getString(R.string.printspeed) + printSpeedList[which]);
+            settingChanged(KeyPrintSpeed);
         }
     }
 
@@ -715,9 +1159,22 @@ public class MainActivity extends Activity {
         public void onClick(DialogInterface dialog, int which) {
             gapType = which - 1;
             btnGapType.setText(getResources().getString(R.string.gaptype) + gapTypeList[which]);
+            settingChanged(KeyGapType);
         }
     }
 
+    // Settings read from the preferences in the background, see loadSettings()
+    private static class StoredSettings {
+        int printQuality;
+        int printDensity;
+        int printSpeed;
+        int gapType;
+        String defaultText1;
+        String defaultText2;
+        String default1dBarcode;
+        String default2dBarcode;
+    }
+
     // Click event for each item in the sample print image list
     private class BitmapListItemClicker implements OnClickListener {
         @Override
@@ -729,12 +1186,9 @@ public class MainActivity extends Activity {
                 }
 
                 // Get the print data and perform the print
-                Bitmap bmp = printBitmaps.get(which);
-                if (bmp != null) {
-                    if (printBitmap(bmp, getPrintParam(1, orientation))) {
-                        onPrintStart();
-                        return;
-                    }
+                if (printBitmap(printBitmapNames[which], getPrintParam(1, orientation))) {
+                    onPrintStart();
+                    return;
                 }
 
                 onPrintFailed();
@@ -770,16 +1224,86 @@ public class MainActivity extends Activity {
     // Handler to manage various notification messages and update the interface
     private final Handler mHandler = new Handler();
 
+    // Types of the events of the event ring
+    private static final int EventState = 1;
+    private static final int EventPrint = 2;
+
+    private static final PrinterState[] PrinterStates = PrinterState.values();
+
+    // Address of the last connection state published to the event ring
+    private volatile PrinterAddress mStateAddress = null;
+
+    // Events of the current batch, only touched by the UI thread
+    private int eventState = -1;
+    private int eventPrinted = 0;
+    private int eventFailed = 0;
+
+    // Print metrics export: file name, size before rotation, number of files kept and period
+    private static final String MetricsFileName = "print-metrics.jsonl";
+    private static final long MetricsFileBytes = 256 * 1024;
+    private static final int MetricsFileCount = 4;
+    private static final int MetricsPeriodSeconds = 60;
+
+    // Startup milestones, from the class being loaded with the process
+    private static final StartupTrace sStartupTrace = new StartupTrace();
+    private static final String StartupCreated = "activityCreated";
+    private static final String StartupInterfaceShown = "interfaceShown";
+    private static final String StartupSettingsLoaded = "settingsLoaded";
+    private static final String StartupJournalReplayed = "journalReplayed";
+    private static final String StartupPrinterConnected = "printerConnected";
+    private static final String StartupFirstPrint = "firstPrint";
+
+    // Directory of the print journal
+    private static final String JournalDirName = "journal";
+
+    // Key names of the job descriptions recorded in the print journal
+    private static final String JobTemplate = "template";
+    private static final String JobValues = "values";
+    private static final String JobBitmap = "bitmap";
+    private static final String JobDensity = "density";
+    private static final String JobSpeed = "speed";
+    private static final String JobGapType = "gapType";
+    private static final String JobOrientation = "orientation";
+    private static final String JobCopies = "copies";
+
+    // Memory kept by the bitmap pool for decoding images again
+    private static final long BitmapPoolBytes = 4 * 1024 * 1024;
+
+    // Rendered label cache: memory and disk sizes, directory in the cache directory
+    private static final long LabelCacheMemoryBytes = 2 * 1024 * 1024;
+    private static final long LabelCacheDiskBytes = 16 * 1024 * 1024;
+    private static final String LabelCacheDirName = "labels";
+
+    // Sample batches in the assets, and the suffix of their checkpoint files in the files directory
+    private static final String[] BatchAssets = {"batch.csv", "batch.jsonl"};
+    private static final String BatchCheckpointSuffix = ".checkpoint";
+
+    // Widest label printed by the sample, images are not decoded wider than this
+    private static final int MaxPrintWidthMm = 48;
+
+    // Width of the sample image previews, in pixels
+    private static final int PreviewWidth = 240;
+
+    // Sample images are photos, error diffusion keeps their gray levels
+    private final MonochromeConverter imageConverter = new MonochromeConverter(MonochromeConverter.Algorithm.FLOYD_STEINBERG);
+
+    // Templates are black and white already, a threshold keeps text and bars sharp
+    private final MonochromeConverter labelConverter = new MonochromeConverter(MonochromeConverter.Algorithm.THRESHOLD);
+
+    // Previews of the sample images, limited by their byte size; an evicted preview may still be shown so it is left to the garbage collector
+    private final LruCache<String, Bitmap> previewBitmaps = new LruCache<String, Bitmap>(1024 * 1024) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return BitmapPool.byteCount(value);
+        }
+    };
+
     // Key names to save various configurations
     private static final String KeyPrintQuality = "PrintQuality";
     private static final String KeyPrintDensity = "PrintDensity";
     private static final String KeyPrintSpeed = "PrintSpeed";
     private static final String KeyGapType = "GapType";
 
-    private static final String KeyLastPrinterMac = "LastPrinterMac";
-    private static final String KeyLastPrinterName = "LastPrinterName";
-    private static final String KeyLastPrinterType = "LastPrinterType";
-
     private static final String KeyDefaultText1 = "DefaultText1";
     private static final String KeyDefaultText2 = "DefaultText2";
     private static final String KeyDefault1dBarcode = "Default1dBarcode";
@@ -794,6 +1318,11 @@ public class MainActivity extends Activity {
     private EditText et1 = null;
     private EditText et2 = null;
 
+    // Set once the settings are loaded in the background, until then the defaults are used and nothing is saved
+    private volatile boolean settingsLoaded = false;
+    // Settings the user changed before they were loaded, only touched on the UI thread
+    private final Set<String> changedSettings = new HashSet<String>();
+
     // Print parameters
     private int printQuality = -1;
     private int printDensity = -1;
@@ -814,7 +1343,11 @@ public class MainActivity extends Activity {
 
     private List<PrinterAddress> pairedPrinters = new ArrayList<PrinterAddress>();
 
-    private List<Bitmap> printBitmaps = new ArrayList<Bitmap>();
+    // Labels of this screen in the shared print queue, until printed or failed
+    private final Set<PrintJob> activeJobs = new HashSet<PrintJob>();
+    private DeviceListAdapter deviceListAdapter = null;
+
+    private String[] printBitmapNames = null;
     private int[] bitmapOrientations = null;
 
     // Last connected printer
@@ -0,0 +1,65 @@
+package com.printer.sdk;
+
+import java.util.Arrays;
+
+// 1-bit image as sent to a thermal print head: rows of packed bytes, most significant bit first, a set bit is a black dot.
+// Every row starts on a byte boundary, the unused bits at the end of a row are always clear.
+public class MonoBitmap {
+
+    public MonoBitmap(int width, int height) {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.stride = (width + 7) >> 3;
+        this.data = new byte[stride * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Bytes per row
+    public int getStride() {
+        return stride;
+    }
+
+    // The packed rows, shared with this bitmap
+    public byte[] getData() {
+        return data;
+    }
+
+    public boolean isBlack(int x, int y) {
+        return (data[y * stride + (x >> 3)] & (0x80 >>> (x & 7))) != 0;
+    }
+
+    public void setBlack(int x, int y, boolean black) {
+        int i = y * stride + (x >> 3);
+        if (black) {
+            data[i] |= 0x80 >>> (x & 7);
+        } else {
+            data[i] &= ~(0x80 >>> (x & 7));
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(data, (byte) 0);
+    }
+
+    // Number of black dots, e.g. to estimate the print head energy of a label
+    public int countBlack() {
+        int count = 0;
+        for (byte b : data) {
+            count += Integer.bitCount(b & 0xFF);
+        }
+        return count;
+    }
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final byte[] data;
+}
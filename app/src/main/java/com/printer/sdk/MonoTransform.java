@@ -0,0 +1,352 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// Rotation and scaling of packed 1-bit labels without unpacking them, e.g. to turn a landscape label before it is sent
+// instead of leaving PRINT_DIRECTION to the SDK, or to fit a label rendered for another print head.
+// Quarter turns move 8x8 blocks of dots at once: the 8 bytes of a block are gathered into a long, transposed with three
+// masked swaps and scattered to the 8 rows of the destination; white blocks, most of a label, are skipped.
+// With an executor the destination is split into horizontal stripes transformed in parallel, each stripe writing only
+// its own rows, so the result is the same as on one thread.
+public final class MonoTransform {
+
+    public enum Filter {
+        // Every dot takes the source dot at its position, keeps lines sharp when enlarging
+        NEAREST,
+        // Every dot is black when at least half of the source dots it covers are, keeps thin lines when reducing
+        BOX
+    }
+
+    // Stripes are not made smaller than this so the per-stripe setup stays negligible
+    public static final int MIN_STRIPE_ROWS = 64;
+
+    private MonoTransform() {
+    }
+
+    // The label turned clockwise by 0, 90, 180 or 270 degrees (negative angles turn counterclockwise), on the calling
+    // thread; the label itself is returned for 0
+    public static MonoBitmap rotate(MonoBitmap src, int degrees) {
+        return rotate(src, degrees, null);
+    }
+
+    // Same, in stripes on the executor when it is not null
+    public static MonoBitmap rotate(final MonoBitmap src, int degrees, Executor executor) {
+        if (degrees % 90 != 0) throw new IllegalArgumentException("Not a quarter turn: " + degrees);
+        final int turns = ((degrees / 90) % 4 + 4) % 4;
+        if (turns == 0) return src;
+
+        final MonoBitmap dst = turns == 2
+                ? new MonoBitmap(src.getWidth(), src.getHeight())
+                : new MonoBitmap(src.getHeight(), src.getWidth());
+        // Quarter turns write whole blocks of 8 rows
+        run(dst.getHeight(), turns == 2 ? 1 : 8, executor, new Stripe() {
+            @Override
+            void run(int top, int bottom) {
+                switch (turns) {
+                    case 1:
+                        rotate90(src, dst, top, bottom);
+                        break;
+                    case 2:
+                        rotate180(src, dst, top, bottom);
+                        break;
+                    default:
+                        rotate270(src, dst, top, bottom);
+                        break;
+                }
+            }
+        });
+        return dst;
+    }
+
+    // The label resized to width x height dots, on the calling thread
+    public static MonoBitmap scale(MonoBitmap src, int width, int height, Filter filter) {
+        return scale(src, width, height, filter, null);
+    }
+
+    // Same, in stripes on the executor when it is not null
+    public static MonoBitmap scale(final MonoBitmap src, int width, int height, final Filter filter, Executor executor) {
+        final MonoBitmap dst = new MonoBitmap(width, height);
+        // Source columns of every destination column, computed once for all rows
+        final int[] left = new int[width];
+        final int[] right = new int[width];
+        for (int x = 0; x < width; x++) {
+            left[x] = (int) ((long) x * src.getWidth() / width);
+            right[x] = Math.max(left[x] + 1, (int) (((long) (x + 1) * src.getWidth() + width - 1) / width));
+        }
+        run(height, 1, executor, new Stripe() {
+            @Override
+            void run(int top, int bottom) {
+                if (filter == Filter.NEAREST) {
+                    scaleNearest(src, dst, left, top, bottom);
+                } else {
+                    scaleBox(src, dst, left, right, top, bottom);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /****************************************************************************************************************************************/
+    // Quarter turns
+
+    // Destination rows [top, bottom) of the clockwise turn: destination row y is source column y read upwards
+    static void rotate90(MonoBitmap src, MonoBitmap dst, int top, int bottom) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int inStride = src.getStride();
+        int outStride = dst.getStride();
+        int srcHeight = src.getHeight();
+        int rows = dst.getHeight();
+        // Blocks with all 8 source rows, the last one may have fewer
+        int full = srcHeight >> 3;
+        for (int c = top >> 3; c << 3 < bottom; c++) {
+            for (int b = 0; b < outStride; b++) {
+                // Destination columns 8b to 8b + 7 come from the source rows srcHeight - 1 - 8b upwards
+                int i = (srcHeight - 1 - (b << 3)) * inStride + c;
+                long block;
+                if (b < full) {
+                    block = (long) (in[i] & 0xFF) << 56 | (long) (in[i - inStride] & 0xFF) << 48
+                            | (long) (in[i - 2 * inStride] & 0xFF) << 40 | (long) (in[i - 3 * inStride] & 0xFF) << 32
+                            | (long) (in[i - 4 * inStride] & 0xFF) << 24 | (in[i - 5 * inStride] & 0xFF) << 16
+                            | (in[i - 6 * inStride] & 0xFF) << 8 | (in[i - 7 * inStride] & 0xFF);
+                } else {
+                    block = 0;
+                    for (int k = 0; k < 8; k++, i -= inStride) {
+                        block <<= 8;
+                        if (i >= 0) block |= in[i] & 0xFF;
+                    }
+                }
+                if (block == 0) continue;
+                scatter(transpose8(block), out, c << 3, rows, outStride, b);
+            }
+        }
+    }
+
+    // Destination rows [top, bottom) of the counterclockwise turn: destination row y is source column width - 1 - y
+    static void rotate270(MonoBitmap src, MonoBitmap dst, int top, int bottom) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int inStride = src.getStride();
+        int outStride = dst.getStride();
+        int srcWidth = src.getWidth();
+        int srcHeight = src.getHeight();
+        int full = srcHeight >> 3;
+        // Source columns feeding the stripe, the bytes c holding columns srcWidth - bottom to srcWidth - 1 - top
+        int first = Math.max(0, srcWidth - bottom) >> 3;
+        int last = (srcWidth - 1 - top) >> 3;
+        for (int c = first; c <= last; c++) {
+            for (int b = 0; b < outStride; b++) {
+                // Destination columns 8b to 8b + 7 come from the source rows 8b downwards
+                int i = (b << 3) * inStride + c;
+                long block;
+                if (b < full) {
+                    block = (long) (in[i] & 0xFF) << 56 | (long) (in[i + inStride] & 0xFF) << 48
+                            | (long) (in[i + 2 * inStride] & 0xFF) << 40 | (long) (in[i + 3 * inStride] & 0xFF) << 32
+                            | (long) (in[i + 4 * inStride] & 0xFF) << 24 | (in[i + 5 * inStride] & 0xFF) << 16
+                            | (in[i + 6 * inStride] & 0xFF) << 8 | (in[i + 7 * inStride] & 0xFF);
+                } else {
+                    block = 0;
+                    for (int k = 0; k < 8; k++, i += inStride) {
+                        block <<= 8;
+                        if (i < in.length) block |= in[i] & 0xFF;
+                    }
+                }
+                if (block == 0) continue;
+                // Byte j of the transposed block is source column 8c + j, destination row srcWidth - 1 - 8c - j
+                long t = transpose8(block);
+                for (int j = 0; j < 8; j++) {
+                    int row = srcWidth - 1 - (c << 3) - j;
+                    if (row < top) break;
+                    if (row < bottom) out[row * outStride + b] = (byte) (t >>> (56 - (j << 3)));
+                }
+            }
+        }
+    }
+
+    // Writes byte j of the block to row first + j, byte column b, for the rows that exist
+    private static void scatter(long block, byte[] out, int first, int rows, int stride, int b) {
+        int n = Math.min(8, rows - first);
+        for (int j = 0; j < n; j++) {
+            out[(first + j) * stride + b] = (byte) (block >>> (56 - (j << 3)));
+        }
+    }
+
+    // Transposes an 8x8 block of dots stored row after row, first row in the most significant byte and first column in
+    // the most significant bit of each byte (Hacker's Delight, transpose8)
+    static long transpose8(long x) {
+        long t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        return x ^ t ^ (t << 28);
+    }
+
+    // Destination rows [top, bottom) of the half turn: every row is a source row with its bytes and bits reversed,
+    // shifted left by the unused bits at the end of the row
+    static void rotate180(MonoBitmap src, MonoBitmap dst, int top, int bottom) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int stride = src.getStride();
+        int height = src.getHeight();
+        int pad = (stride << 3) - src.getWidth();
+        for (int y = top; y < bottom; y++) {
+            int from = (height - 1 - y) * stride + stride - 1;
+            int to = y * stride;
+            if (pad == 0) {
+                for (int k = 0; k < stride; k++) {
+                    out[to + k] = REVERSED[in[from - k] & 0xFF];
+                }
+            } else {
+                // Reversed byte k + 1 brings the pad bits missing at the end of reversed byte k
+                int current = REVERSED[in[from] & 0xFF] & 0xFF;
+                for (int k = 0; k < stride; k++) {
+                    int next = k + 1 < stride ? REVERSED[in[from - k - 1] & 0xFF] & 0xFF : 0;
+                    out[to + k] = (byte) ((current << pad) | (next >>> (8 - pad)));
+                    current = next;
+                }
+            }
+        }
+    }
+
+    /****************************************************************************************************************************************/
+    // Scaling
+
+    // Destination rows [top, bottom) taking the source dot at the left edge of every box; rows from the same source row
+    // are copied
+    static void scaleNearest(MonoBitmap src, MonoBitmap dst, int[] left, int top, int bottom) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int inStride = src.getStride();
+        int outStride = dst.getStride();
+        int width = dst.getWidth();
+        int previous = -1;
+        for (int y = top; y < bottom; y++) {
+            int sy = (int) ((long) y * src.getHeight() / dst.getHeight());
+            int to = y * outStride;
+            if (sy == previous) {
+                System.arraycopy(out, to - outStride, out, to, outStride);
+                continue;
+            }
+            previous = sy;
+            int from = sy * inStride;
+            for (int b = 0, x = 0; b < outStride; b++) {
+                int bits = 0;
+                int n = Math.min(8, width - x);
+                for (int i = 0; i < n; i++, x++) {
+                    int sx = left[x];
+                    bits |= ((in[from + (sx >> 3)] >>> (7 - (sx & 7))) & 1) << (7 - i);
+                }
+                out[to + b] = (byte) bits;
+            }
+        }
+    }
+
+    // Destination rows [top, bottom) by majority of the source dots covered: black dots are counted per source column
+    // over the rows of the box, then summed over the columns of every destination dot
+    static void scaleBox(MonoBitmap src, MonoBitmap dst, int[] left, int[] right, int top, int bottom) {
+        byte[] in = src.getData();
+        byte[] out = dst.getData();
+        int inStride = src.getStride();
+        int outStride = dst.getStride();
+        int srcHeight = src.getHeight();
+        int height = dst.getHeight();
+        int width = dst.getWidth();
+        // Black dots per source column over the rows of the box, then running sums: counts[x + 1] - counts[x] being the
+        // black dots of source column x
+        int[] counts = new int[(inStride << 3) + 1];
+        for (int y = top; y < bottom; y++) {
+            int y0 = (int) ((long) y * srcHeight / height);
+            int y1 = Math.max(y0 + 1, (int) (((long) (y + 1) * srcHeight + height - 1) / height));
+            Arrays.fill(counts, 0);
+            for (int sy = y0; sy < y1; sy++) {
+                int from = sy * inStride;
+                for (int k = 0; k < inStride; k++) {
+                    int bits = in[from + k] & 0xFF;
+                    // White bytes, most of a label, add nothing
+                    while (bits != 0) {
+                        int bit = Integer.numberOfLeadingZeros(bits) - 24;
+                        counts[(k << 3) + bit + 1]++;
+                        bits &= ~(0x80 >>> bit);
+                    }
+                }
+            }
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+
+            int rows = y1 - y0;
+            int to = y * outStride;
+            for (int b = 0, x = 0; b < outStride; b++) {
+                int bits = 0;
+                int n = Math.min(8, width - x);
+                for (int i = 0; i < n; i++, x++) {
+                    int black = counts[right[x]] - counts[left[x]];
+                    if (black * 2 >= rows * (right[x] - left[x])) bits |= 0x80 >>> i;
+                }
+                out[to + b] = (byte) bits;
+            }
+        }
+    }
+
+    /****************************************************************************************************************************************/
+    // Stripes
+
+    // Part of a transform writing the destination rows [top, bottom)
+    private abstract static class Stripe {
+        abstract void run(int top, int bottom);
+    }
+
+    // Runs the stripe over all rows on the calling thread, or split into stripes of a multiple of unit rows on the executor
+    private static void run(int height, int unit, Executor executor, final Stripe stripe) {
+        int stripes = executor == null ? 1 : Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_STRIPE_ROWS);
+        if (stripes <= 1) {
+            stripe.run(0, height);
+            return;
+        }
+
+        int rows = ((height + stripes - 1) / stripes + unit - 1) / unit * unit;
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(stripes);
+        for (int top = 0; top < height; top += rows) {
+            final int from = top;
+            final int to = Math.min(height, top + rows);
+            FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    stripe.run(from, to);
+                }
+            }, null);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Transform interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Every byte with its bits in reverse order
+    private static final byte[] REVERSED = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            REVERSED[i] = (byte) (Integer.reverse(i) >>> 24);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.printer.sdk;
+
+import java.util.concurrent.Executor;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+
+// Android side of MonochromeConverter: reads the rows of a Bitmap and turns a MonoBitmap back into a Bitmap for LPAPI.
+// The bitmap given to printBitmap is then already black and white, so the SDK's own conversion has nothing left to change.
+public final class MonochromeBitmaps {
+
+    // Draws a whole label; for a banded label the canvas is clipped to one band and shifted so the label keeps its
+    // coordinates, drawing calls outside the band cost little
+    public interface Painter {
+        void draw(Canvas canvas);
+    }
+
+    private MonochromeBitmaps() {
+    }
+
+    // Long label drawn with Android graphics one band at a time, on one ARGB band bitmap released after the last band
+    public static BandedLabel banded(final int width, final int height, int bandHeight, final Painter painter,
+            final MonochromeConverter converter) {
+        return new BandedLabel(width, height, bandHeight, new BandedLabel.Renderer() {
+            @Override
+            public void render(int top, MonoBitmap band) {
+                int rows = band.getHeight();
+                if (canvas == null) {
+                    pixels = Bitmap.createBitmap(width, rows, Bitmap.Config.ARGB_8888);
+                    canvas = new Canvas(pixels);
+                }
+                pixels.eraseColor(Color.WHITE);
+                int save = canvas.save();
+                canvas.translate(0, -top);
+                canvas.clipRect(0, top, width, top + rows);
+                painter.draw(canvas);
+                canvas.restoreToCount(save);
+
+                converter.convert(new MonochromeConverter.RowSource() {
+                    @Override
+                    public void getRow(int y, int[] row) {
+                        pixels.getPixels(row, 0, width, 0, y, width, 1);
+                    }
+                }, band);
+
+                // The last band, the next print of the label starts over with a new bitmap
+                if (top + rows >= height) {
+                    pixels.recycle();
+                    pixels = null;
+                    canvas = null;
+                }
+            }
+
+            private Bitmap pixels = null;
+            private Canvas canvas = null;
+        });
+    }
+
+    // Converts a bitmap, in stripes on the executor when it is not null
+    public static MonoBitmap convert(final Bitmap bitmap, MonochromeConverter converter, Executor executor) {
+        final int width = bitmap.getWidth();
+        return converter.convert(new MonochromeConverter.RowSource() {
+            @Override
+            public void getRow(int y, int[] row) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            }
+        }, width, bitmap.getHeight(), executor);
+    }
+
+    // Black and white bitmap of the dots, taken from the pool when it is not null
+    public static Bitmap toBitmap(MonoBitmap mono, BitmapPool pool) {
+        int width = mono.getWidth();
+        int height = mono.getHeight();
+        Bitmap bitmap = pool != null ? pool.obtain(width, height, Bitmap.Config.RGB_565)
+                : Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+
+        byte[] data = mono.getData();
+        int stride = mono.getStride();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            int base = y * stride;
+            for (int x = 0; x < width; x++) {
+                row[x] = (data[base + (x >> 3)] & (0x80 >>> (x & 7))) != 0 ? 0xFF000000 : 0xFFFFFFFF;
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,286 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// Converts ARGB pixels to the 1-bit dots of a thermal print head.
+// Works one scanline at a time on primitive buffers allocated once per stripe, never per pixel. With an executor the
+// image is split into horizontal stripes converted in parallel; error diffusion then restarts at the top of every stripe,
+// which is not visible at print head resolution.
+// Pure Java so it can be tested and benchmarked off the device, see MonochromeBitmaps for the Android side.
+public class MonochromeConverter {
+
+    public enum Algorithm {
+        // Fixed threshold, best for text and barcodes
+        THRESHOLD,
+        // 8x8 ordered dither, regular pattern that survives the print head well
+        BAYER,
+        // Error diffusion to 4 neighbours, closest tones for photos
+        FLOYD_STEINBERG,
+        // Error diffusion of 3/4 of the error to 6 neighbours, higher contrast than Floyd-Steinberg
+        ATKINSON
+    }
+
+    // Supplies the ARGB pixels of one row, may be called from several threads for different rows
+    public interface RowSource {
+        void getRow(int y, int[] row);
+    }
+
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    // Stripes are not made smaller than this so the per-stripe setup stays negligible
+    public static final int MIN_STRIPE_ROWS = 64;
+
+    public MonochromeConverter(Algorithm algorithm) {
+        this(algorithm, DEFAULT_THRESHOLD);
+    }
+
+    // threshold: gray level (0 black to 255 white) below which a pixel prints black
+    public MonochromeConverter(Algorithm algorithm, int threshold) {
+        if (algorithm == null) throw new NullPointerException("algorithm");
+        this.algorithm = algorithm;
+        this.threshold = Math.max(1, Math.min(255, threshold));
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    // Converts packed ARGB pixels, stride being the distance between rows in the array
+    public MonoBitmap convert(final int[] pixels, final int offset, final int stride, int width, int height) {
+        return convert(new RowSource() {
+            @Override
+            public void getRow(int y, int[] row) {
+                System.arraycopy(pixels, offset + y * stride, row, 0, row.length);
+            }
+        }, width, height, null);
+    }
+
+    // Converts the image into a bitmap of its size on the calling thread, e.g. a band reused for every part of a long label
+    public void convert(RowSource source, MonoBitmap out) {
+        new Stripe(source, out, 0, out.getHeight()).run();
+    }
+
+    // Converts the image on the calling thread, or in stripes on the executor when it is not null
+    public MonoBitmap convert(RowSource source, int width, int height, Executor executor) {
+        MonoBitmap out = new MonoBitmap(width, height);
+        int stripes = executor == null ? 1 : Math.min(Runtime.getRuntime().availableProcessors(), height / MIN_STRIPE_ROWS);
+        if (stripes <= 1) {
+            new Stripe(source, out, 0, height).run();
+            return out;
+        }
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(stripes);
+        int rows = (height + stripes - 1) / stripes;
+        for (int top = 0; top < height; top += rows) {
+            FutureTask<Void> task = new FutureTask<Void>(new Stripe(source, out, top, Math.min(height, top + rows)), null);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        try {
+            for (FutureTask<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            for (FutureTask<Void> task : tasks) {
+                task.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Monochrome conversion interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        return out;
+    }
+
+    // Gray level of an ARGB pixel composited over white paper, 0 black to 255 white
+    static int gray(int argb) {
+        int a = argb >>> 24;
+        int luma = (((argb >> 16) & 0xFF) * 77 + ((argb >> 8) & 0xFF) * 150 + (argb & 0xFF) * 29) >> 8;
+        if (a == 0xFF) return luma;
+        return 255 - (((255 - luma) * a + 127) / 255);
+    }
+
+    // Converts the rows [top, bottom), writing only the bytes of those rows
+    private class Stripe implements Runnable {
+        Stripe(RowSource source, MonoBitmap out, int top, int bottom) {
+            this.source = source;
+            this.out = out;
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        @Override
+        public void run() {
+            int width = out.getWidth();
+            int[] row = new int[width];
+            int[] gray = new int[width];
+            // Error diffusion keeps the error of the current row and of the two rows below, with 2 pixels of margin
+            // on both sides so the kernels need no bounds checks
+            int[][] errors = null;
+            if (algorithm == Algorithm.FLOYD_STEINBERG || algorithm == Algorithm.ATKINSON) {
+                errors = new int[3][width + 4];
+            }
+
+            byte[] data = out.getData();
+            int stride = out.getStride();
+            for (int y = top; y < bottom; y++) {
+                source.getRow(y, row);
+                for (int x = 0; x < width; x++) {
+                    gray[x] = gray(row[x]);
+                }
+
+                int base = y * stride;
+                switch (algorithm) {
+                    case THRESHOLD:
+                        threshold(gray, width, data, base);
+                        break;
+
+                    case BAYER:
+                        bayer(gray, width, y, data, base);
+                        break;
+
+                    case FLOYD_STEINBERG:
+                        floydSteinberg(gray, width, errors, data, base);
+                        break;
+
+                    case ATKINSON:
+                        atkinson(gray, width, errors, data, base);
+                        break;
+                }
+
+                if (errors != null) {
+                    // Shift the error rows up and clear the new last one
+                    int[] first = errors[0];
+                    errors[0] = errors[1];
+                    errors[1] = errors[2];
+                    errors[2] = first;
+                    Arrays.fill(first, 0);
+                }
+            }
+        }
+
+        private final RowSource source;
+        private final MonoBitmap out;
+        private final int top;
+        private final int bottom;
+    }
+
+    private void threshold(int[] gray, int width, byte[] data, int base) {
+        int bits = 0;
+        for (int x = 0; x < width; x++) {
+            bits = (bits << 1) | (gray[x] < threshold ? 1 : 0);
+            if ((x & 7) == 7) {
+                data[base + (x >> 3)] = (byte) bits;
+                bits = 0;
+            }
+        }
+        flush(bits, width, data, base);
+    }
+
+    private void bayer(int[] gray, int width, int y, byte[] data, int base) {
+        // The threshold moves the matrix so a flat gray at the threshold prints half of its dots
+        int shift = threshold - 128;
+        int matrixRow = (y & 7) << 3;
+        int bits = 0;
+        for (int x = 0; x < width; x++) {
+            bits = (bits << 1) | (gray[x] < BAYER_8X8[matrixRow | (x & 7)] + shift ? 1 : 0);
+            if ((x & 7) == 7) {
+                data[base + (x >> 3)] = (byte) bits;
+                bits = 0;
+            }
+        }
+        flush(bits, width, data, base);
+    }
+
+    private void floydSteinberg(int[] gray, int width, int[][] errors, byte[] data, int base) {
+        int[] cur = errors[0];
+        int[] next = errors[1];
+        int bits = 0;
+        for (int x = 0; x < width; x++) {
+            int i = x + 2;
+            int value = gray[x] + (cur[i] >> 4);
+            int black = value < threshold ? 1 : 0;
+            int error = black != 0 ? value : value - 255;
+            // 7/16 right, 3/16 below left, 5/16 below, 1/16 below right, kept in sixteenths
+            cur[i + 1] += error * 7;
+            next[i - 1] += error * 3;
+            next[i] += error * 5;
+            next[i + 1] += error;
+
+            bits = (bits << 1) | black;
+            if ((x & 7) == 7) {
+                data[base + (x >> 3)] = (byte) bits;
+                bits = 0;
+            }
+        }
+        flush(bits, width, data, base);
+    }
+
+    private void atkinson(int[] gray, int width, int[][] errors, byte[] data, int base) {
+        int[] cur = errors[0];
+        int[] next = errors[1];
+        int[] after = errors[2];
+        int bits = 0;
+        for (int x = 0; x < width; x++) {
+            int i = x + 2;
+            int value = gray[x] + cur[i];
+            int black = value < threshold ? 1 : 0;
+            int error = (black != 0 ? value : value - 255) >> 3;
+            // 1/8 of the error to each of 6 neighbours, the remaining 1/4 is dropped
+            cur[i + 1] += error;
+            cur[i + 2] += error;
+            next[i - 1] += error;
+            next[i] += error;
+            next[i + 1] += error;
+            after[i] += error;
+
+            bits = (bits << 1) | black;
+            if ((x & 7) == 7) {
+                data[base + (x >> 3)] = (byte) bits;
+                bits = 0;
+            }
+        }
+        flush(bits, width, data, base);
+    }
+
+    // Writes the last partial byte of a row, aligned to the most significant bit
+    private static void flush(int bits, int width, byte[] data, int base) {
+        int rest = width & 7;
+        if (rest != 0) {
+            data[base + (width >> 3)] = (byte) (bits << (8 - rest));
+        }
+    }
+
+    // Ordered dither thresholds in the 0-255 range
+    private static final int[] BAYER_8X8 = new int[64];
+
+    static {
+        int[] matrix = {
+                0, 32, 8, 40, 2, 34, 10, 42,
+                48, 16, 56, 24, 50, 18, 58, 26,
+                12, 44, 4, 36, 14, 46, 6, 38,
+                60, 28, 52, 20, 62, 30, 54, 22,
+                3, 35, 11, 43, 1, 33, 9, 41,
+                51, 19, 59, 27, 49, 17, 57, 25,
+                15, 47, 7, 39, 13, 45, 5, 37,
+                63, 31, 55, 23, 61, 29, 53, 21
+        };
+        for (int i = 0; i < 64; i++) {
+            BAYER_8X8[i] = matrix[i] * 4 + 2;
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final int threshold;
+}
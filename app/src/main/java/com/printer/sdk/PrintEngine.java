@@ -0,0 +1,130 @@
+package com.printer.sdk;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+// The printer connection and the job queue of the process, shared by the demo screen and PrintService so one
+// warm connection serves every user. acquire() creates it on first use; it is shut down, disconnecting the printer,
+// when the last user releases it.
+public final class PrintEngine {
+
+    // Maximum number of labels waiting in the print queue
+    public static final int PRINT_QUEUE_CAPACITY = 32;
+
+    // Threads rendering labels ahead of the printer
+    public static final int RENDER_WORKERS = 2;
+
+    // Time a run of the same label waits for more of it, to send them all as one job with copies; a label printed once
+    // is not held back
+    public static final long COALESCE_WINDOW = 150;
+
+    // Preferences keeping the last printer connected successfully
+    public static final String KEY_LAST_PRINTER_MAC = "LastPrinterMac";
+    public static final String KEY_LAST_PRINTER_NAME = "LastPrinterName";
+    public static final String KEY_LAST_PRINTER_TYPE = "LastPrinterType";
+
+    // The engine of the process, created if needed; every call must be matched by a release()
+    public static PrintEngine acquire() {
+        synchronized (PrintEngine.class) {
+            if (sEngine == null) {
+                sEngine = new PrintEngine();
+            }
+            sEngine.users++;
+            return sEngine;
+        }
+    }
+
+    private PrintEngine() {
+        this.transport = new LpapiTransport();
+        // Labels are printed one after another by the print queue, without blocking the interface
+        this.printQueue = new PrintQueue(transport, PRINT_QUEUE_CAPACITY);
+        // Labels wait while the printer reconnects, the one being printed when the link dropped is sent again
+        this.printQueue.setReplayOnReconnect(true);
+        // The same label printed several times in a row is sent once with copies
+        this.printQueue.setCoalesceWindow(COALESCE_WINDOW);
+        this.printQueue.start();
+        this.connectionSupervisor = new ConnectionSupervisor(transport);
+        this.renderPipeline = new RenderPipeline(printQueue, RENDER_WORKERS, RenderPipeline.DEFAULT_LOOKAHEAD);
+    }
+
+    // Gives the engine back, the last user shuts it down: labels not sent yet are dropped and the printer disconnected.
+    // A release() not matching an acquire() is ignored, the engine is only shut down once.
+    public void release() {
+        synchronized (PrintEngine.class) {
+            // Shut down already, possibly replaced by a newer engine since
+            if (users <= 0) return;
+            if (--users > 0) return;
+            if (sEngine == this) sEngine = null;
+        }
+        connectionSupervisor.shutdown();
+        renderPipeline.shutdown();
+        printQueue.shutdown();
+        transport.quit();
+    }
+
+    public LpapiTransport getTransport() {
+        return transport;
+    }
+
+    public LPAPI getApi() {
+        return transport.getApi();
+    }
+
+    public PrintQueue getPrintQueue() {
+        return printQueue;
+    }
+
+    public ConnectionSupervisor getConnectionSupervisor() {
+        return connectionSupervisor;
+    }
+
+    public RenderPipeline getRenderPipeline() {
+        return renderPipeline;
+    }
+
+    // Resolution of the connected printer, used to rasterize templates
+    public int getPrinterDpi() {
+        PrinterInfo info = getApi().getPrinterInfo();
+        return info != null && info.deviceDPI > 0 ? info.deviceDPI : LabelTemplate.DEFAULT_DPI;
+    }
+
+    // Connects the last printer saved in the preferences unless a printer is kept connected already.
+    // Returns the printer being connected, or null.
+    public PrinterAddress connectLastPrinter(SharedPreferences preferences) {
+        if (connectionSupervisor.getTarget() != null) return null;
+        PrinterAddress printer = loadLastPrinter(preferences);
+        if (printer == null || !connectionSupervisor.connect(printer)) return null;
+        return printer;
+    }
+
+    // Last printer connected successfully, or null
+    public static PrinterAddress loadLastPrinter(SharedPreferences preferences) {
+        String mac = preferences.getString(KEY_LAST_PRINTER_MAC, null);
+        String name = preferences.getString(KEY_LAST_PRINTER_NAME, null);
+        String type = preferences.getString(KEY_LAST_PRINTER_TYPE, null);
+        IDzPrinter.AddressType addressType = TextUtils.isEmpty(type) ? null : Enum.valueOf(IDzPrinter.AddressType.class, type);
+        if (mac == null || name == null || addressType == null) return null;
+        return new PrinterAddress(name, mac, addressType);
+    }
+
+    public static void saveLastPrinter(SharedPreferences.Editor editor, PrinterAddress printer) {
+        editor.putString(KEY_LAST_PRINTER_MAC, printer.macAddress);
+        editor.putString(KEY_LAST_PRINTER_NAME, printer.shownName);
+        editor.putString(KEY_LAST_PRINTER_TYPE, printer.addressType.toString());
+    }
+
+    private static PrintEngine sEngine = null;
+
+    private final LpapiTransport transport;
+    private final PrintQueue printQueue;
+    private final ConnectionSupervisor connectionSupervisor;
+    private final RenderPipeline renderPipeline;
+
+    // Guarded by PrintEngine.class, back to 0 only when the engine is shut down
+    private int users = 0;
+}
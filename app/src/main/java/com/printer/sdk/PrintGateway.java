@@ -0,0 +1,532 @@
+package com.printer.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+import android.graphics.Bitmap;
+
+// Print server for other machines (e.g. POS or WMS backends) pushing labels to the printer of this device.
+// One thread serves every connection with a selector; requests go to the render pipeline of the engine.
+//
+// A client sends requests as JSON lines (UTF-8, at most MAX_LINE bytes):
+//   {"id":"A1","template":"text","values":{"text":"Hello"}}   prints a built-in template with its slot values
+//   {"id":"A2","raster":1234}                                 prints the RasterEncoder stream of 1234 bytes following the line
+// with the optional print parameters "density", "speed", "gapType", "orientation" and "copies", and "priority", the name
+// of a PrintJob.Priority. Each connection is a source of its own, connections share the printer fairly (see JobScheduler).
+// The gateway answers with JSON lines carrying the "id" of the request, if any, and "seq", its index on the
+// connection: one per PrintProgress of the job with "progress" and "job", "reason" when it failed, or "error" when
+// the request was rejected.
+//
+// At most maxInFlight requests are accepted and not finished yet, maxPerConnection per connection. A connection
+// reaching its share, or not reading its answers, is not read any further until jobs finish, so its client is held
+// back by TCP flow control without slowing down the others. Jobs accepted are printed even if their client leaves.
+public class PrintGateway {
+
+    public static final int DEFAULT_PORT = 9100;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    public static final int DEFAULT_MAX_PER_CONNECTION = 8;
+
+    // Longest request line
+    public static final int MAX_LINE = 8 * 1024;
+    // Largest raster stream of one request
+    public static final int MAX_RASTER = 1024 * 1024;
+
+    public PrintGateway(PrintEngine engine, InetSocketAddress address) {
+        this(engine, address, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_PER_CONNECTION);
+    }
+
+    public PrintGateway(PrintEngine engine, InetSocketAddress address, int maxInFlight, int maxPerConnection) {
+        if (maxInFlight < 1 || maxPerConnection < 1) {
+            throw new IllegalArgumentException("Limits must be positive: " + maxInFlight + ", " + maxPerConnection);
+        }
+        this.engine = engine;
+        this.address = address;
+        this.maxInFlight = maxInFlight;
+        this.maxPerConnection = maxPerConnection;
+    }
+
+    // Opens the port and starts serving, throws if the port cannot be opened
+    public synchronized void start() throws IOException {
+        if (thread != null) return;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.configureBlocking(false);
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close(server);
+            close(selector);
+            throw e;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "PrintGateway");
+        thread.start();
+    }
+
+    // Closes the port and every connection. Requests not handed to the pipeline yet are dropped.
+    public void stop() {
+        Thread stopping;
+        synchronized (this) {
+            running = false;
+            stopping = thread;
+            thread = null;
+        }
+        if (stopping == null) return;
+        selector.wakeup();
+        try {
+            stopping.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Port the gateway listens on, the one chosen by the system when it was asked for port 0
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /********************************************************************************************************************************************/
+    // Selector thread
+    /********************************************************************************************************************************************/
+
+    private void serve() {
+        try {
+            while (running) {
+                // Requests refused by a full pipeline are offered again after a while, it may be fed by other users too
+                selector.select(waiting.isEmpty() ? 0 : RETRY_INTERVAL);
+                if (!running) break;
+                handleUpdates();
+                dispatch();
+                resume();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isWritable()) connection.write();
+                        if (key.isValid() && key.isReadable()) connection.read();
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+                dispatch();
+            }
+        } catch (IOException e) {
+            // The selector failed, nothing can be served anymore
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            waiting.clear();
+            paused.clear();
+            close(server);
+            close(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel, "gateway:" + (++connections));
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        }
+    }
+
+    // Hands the accepted requests to the render pipeline, in order, as long as it has room
+    private void dispatch() {
+        Request request;
+        while ((request = waiting.peek()) != null) {
+            if (engine.getRenderPipeline().offer(request.render, request.params, request.labelKey, request.priority,
+                    request.connection.source, request) == null) return;
+            waiting.poll();
+        }
+    }
+
+    // Reports the progress of the jobs to their clients
+    private void handleUpdates() {
+        Update update;
+        while ((update = updates.poll()) != null) {
+            Request request = update.request;
+            boolean finished = update.progress == PrintProgress.Success || update.progress == PrintProgress.Failed;
+            if (finished) {
+                inFlight--;
+                request.connection.inFlight--;
+            }
+            if (request.connection.isOpen()) {
+                JSONObject answer = request.answer();
+                put(answer, "job", update.job);
+                put(answer, "progress", update.progress.name());
+                if (update.progress == PrintProgress.Failed) {
+                    put(answer, "reason", (update.reason != null ? update.reason : PrintFailReason.Other).name());
+                }
+                request.connection.send(answer);
+                if (finished) request.connection.proceed();
+            }
+        }
+    }
+
+    // Reads on from the connections held back, in the order they stopped, while there is room
+    private void resume() {
+        Connection connection;
+        while (inFlight < maxInFlight && (connection = paused.poll()) != null) {
+            connection.held = false;
+            connection.proceed();
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Connections, used by the selector thread only
+    /********************************************************************************************************************************************/
+
+    private class Connection {
+        Connection(SocketChannel channel, String source) {
+            this.channel = channel;
+            this.source = source;
+        }
+
+        boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        void read() throws IOException {
+            if (channel.read(input) < 0) {
+                // The client has sent everything, it still gets the answers of its jobs
+                ended = true;
+            }
+            proceed();
+        }
+
+        void write() throws IOException {
+            flush();
+            proceed();
+        }
+
+        // Handles the requests read so far as far as the limits allow, then waits for the next event
+        void proceed() {
+            if (!isOpen()) return;
+            parse();
+            if (output.isEmpty() && (closing || ended && inFlight == 0 && !held)) {
+                close();
+                return;
+            }
+            boolean accepting = !closing && !ended && canAccept();
+            if (!accepting && !closing && !held && inFlight < maxPerConnection && outputLength < MAX_OUTPUT
+                    && PrintGateway.this.inFlight >= maxInFlight) {
+                // Waiting for room in the whole gateway rather than for its own jobs
+                held = true;
+                paused.add(this);
+            }
+            // Requests that cannot be accepted wait in the socket, their client is slowed down by TCP
+            key.interestOps((accepting ? SelectionKey.OP_READ : 0) | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+
+        private void parse() {
+            input.flip();
+            try {
+                while (!closing && canAccept()) {
+                    if (raster != null) {
+                        int n = Math.min(input.remaining(), raster.length - rasterLength);
+                        input.get(raster, rasterLength, n);
+                        rasterLength += n;
+                        if (rasterLength < raster.length) break;
+                        accept(new Request(this, sequence++, header, rasterRenderer(raster), getParams(header), null));
+                        raster = null;
+                        header = null;
+                        continue;
+                    }
+
+                    int end = -1;
+                    for (int i = input.position(); i < input.limit(); i++) {
+                        if (input.get(i) == '\n') {
+                            end = i;
+                            break;
+                        }
+                    }
+                    if (end < 0) {
+                        if (input.remaining() == input.capacity()) {
+                            reject(new JSONObject(), "Request line longer than " + MAX_LINE + " bytes");
+                            closing = true;
+                        }
+                        break;
+                    }
+                    String line = new String(input.array(), input.position(), end - input.position(), UTF_8).trim();
+                    input.position(end + 1);
+                    if (line.length() > 0) request(line);
+                }
+            } finally {
+                input.compact();
+            }
+        }
+
+        // One request line, a raster request is accepted once the stream it announces has been read
+        private void request(String line) {
+            JSONObject object;
+            try {
+                object = new JSONObject(line);
+            } catch (JSONException e) {
+                reject(new JSONObject(), "Invalid JSON: " + e.getMessage());
+                return;
+            }
+
+            try {
+                getPriority(object);
+            } catch (IllegalArgumentException e) {
+                // Checked before a raster stream is read
+                reject(object, "Unknown priority " + object.optString("priority", null));
+                return;
+            }
+
+            if (object.has("raster")) {
+                int length = object.optInt("raster", -1);
+                if (length <= 0 || length > MAX_RASTER) {
+                    // The stream cannot be skipped safely, the connection is given up
+                    reject(object, "Raster length must be between 1 and " + MAX_RASTER);
+                    closing = true;
+                    return;
+                }
+                header = object;
+                raster = new byte[length];
+                rasterLength = 0;
+                return;
+            }
+
+            String name = object.optString("template", null);
+            JSONObject slots = object.optJSONObject("values");
+            Map<String, String> values = new HashMap<String, String>();
+            if (slots != null) {
+                Iterator<String> keys = slots.keys();
+                while (keys.hasNext()) {
+                    String slot = keys.next();
+                    values.put(slot, slots.optString(slot, ""));
+                }
+            }
+            int dpi = engine.getPrinterDpi();
+            PrintParams params = getParams(object);
+            Callable<Bitmap> render;
+            String labelKey;
+            try {
+                render = BuiltInTemplates.renderer(name, values, dpi);
+                labelKey = BuiltInTemplates.key(name, values, dpi, params);
+            } catch (IllegalArgumentException e) {
+                reject(object, e.getMessage());
+                return;
+            }
+            accept(new Request(this, sequence++, object, render, params, labelKey));
+        }
+
+        private void accept(Request request) {
+            inFlight++;
+            PrintGateway.this.inFlight++;
+            waiting.add(request);
+        }
+
+        private void reject(JSONObject request, String error) {
+            JSONObject answer = new JSONObject();
+            put(answer, "id", request.optString("id", null));
+            put(answer, "seq", sequence++);
+            put(answer, "error", error);
+            send(answer);
+        }
+
+        private boolean canAccept() {
+            return inFlight < maxPerConnection && PrintGateway.this.inFlight < maxInFlight && outputLength < MAX_OUTPUT;
+        }
+
+        void send(JSONObject answer) {
+            byte[] bytes = (answer.toString() + "\n").getBytes(UTF_8);
+            output.add(ByteBuffer.wrap(bytes));
+            outputLength += bytes.length;
+            try {
+                flush();
+            } catch (IOException e) {
+                // The client is gone, the connection closes once its requests are handled
+                closing = true;
+                output.clear();
+                outputLength = 0;
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = output.peek()) != null) {
+                outputLength -= channel.write(buffer);
+                if (buffer.hasRemaining()) break;
+                output.poll();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            PrintGateway.close(channel);
+        }
+
+        private final SocketChannel channel;
+        private final String source;
+        private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE);
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+
+        private SelectionKey key;
+        private int outputLength = 0;
+        private int inFlight = 0;
+        private int sequence = 0;
+        // Waiting in the paused connections of the gateway
+        private boolean held = false;
+        // The client shut its side down
+        private boolean ended = false;
+        // No more requests are read, the connection closes once the answers sent so far are written
+        private boolean closing = false;
+
+        // Raster request being read
+        private JSONObject header = null;
+        private byte[] raster = null;
+        private int rasterLength = 0;
+    }
+
+    // One accepted request, its job reports to the selector thread
+    private class Request implements PrintJob.Listener {
+        Request(Connection connection, int sequence, JSONObject request, Callable<Bitmap> render, PrintParams params,
+                String labelKey) {
+            this.connection = connection;
+            this.sequence = sequence;
+            this.id = request.optString("id", null);
+            this.priority = getPriority(request);
+            this.render = render;
+            this.params = params;
+            this.labelKey = labelKey;
+        }
+
+        @Override
+        public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+            updates.add(new Update(this, job.getId(), progress, progress == PrintProgress.Failed ? job.getFailReason() : null));
+            selector.wakeup();
+        }
+
+        JSONObject answer() {
+            JSONObject answer = new JSONObject();
+            put(answer, "id", id);
+            put(answer, "seq", sequence);
+            return answer;
+        }
+
+        final Connection connection;
+        final int sequence;
+        final String id;
+        final Callable<Bitmap> render;
+        final PrintParams params;
+        final String labelKey;
+        final PrintJob.Priority priority;
+    }
+
+    private static class Update {
+        Update(Request request, long job, PrintProgress progress, PrintFailReason reason) {
+            this.request = request;
+            this.job = job;
+            this.progress = progress;
+            this.reason = reason;
+        }
+
+        final Request request;
+        final long job;
+        final PrintProgress progress;
+        final PrintFailReason reason;
+    }
+
+    // Decodes the raster stream on the render worker
+    private static Callable<Bitmap> rasterRenderer(final byte[] stream) {
+        return new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return MonochromeBitmaps.toBitmap(RasterEncoder.decode(stream), null);
+            }
+        };
+    }
+
+    // Throws IllegalArgumentException for an unknown priority
+    private static PrintJob.Priority getPriority(JSONObject request) {
+        String name = request.optString("priority", null);
+        return name != null ? PrintJob.Priority.valueOf(name) : PrintJob.Priority.NORMAL;
+    }
+
+    private static PrintParams getParams(JSONObject request) {
+        return new PrintParams(request.optInt("density", -1), request.optInt("speed", -1), request.optInt("gapType", -1),
+                request.optInt("orientation", 0), Math.max(1, request.optInt("copies", 1)));
+    }
+
+    private static void put(JSONObject object, String name, Object value) {
+        try {
+            object.put(name, value);
+        } catch (JSONException e) {
+            // Only thrown for non-finite numbers
+        }
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Time after which a request refused by a full render pipeline is offered again
+    private static final long RETRY_INTERVAL = 50;
+    // Answers waiting for a slow client above which its requests are not read anymore
+    private static final int MAX_OUTPUT = 64 * 1024;
+
+    private final PrintEngine engine;
+    private final InetSocketAddress address;
+    private final int maxInFlight;
+    private final int maxPerConnection;
+
+    // Progress of the jobs, from the print queue thread to the selector thread
+    private final ConcurrentLinkedQueue<Update> updates = new ConcurrentLinkedQueue<Update>();
+
+    // Used by the selector thread only
+    private final ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+    private final ArrayDeque<Connection> paused = new ArrayDeque<Connection>();
+    private int inFlight = 0;
+    private int connections = 0;
+
+    private volatile boolean running = false;
+    private Thread thread = null;
+    private Selector selector;
+    private ServerSocketChannel server;
+}
@@ -0,0 +1,117 @@
+package com.printer.sdk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+// Decodes images for printing at the size the printer can actually use.
+// A label printer prints 1-bit dots at 203/300 dpi, so images are decoded with the largest power-of-two sample size
+// that keeps them at least as wide as the print head, as RGB_565, into bitmaps taken from a BitmapPool.
+public class PrintImageLoader {
+
+    // Opens the image data, called once for the bounds and once for the pixels
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    public PrintImageLoader(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    public BitmapPool getPool() {
+        return pool;
+    }
+
+    public Bitmap decodeAsset(final AssetManager assets, final String name, int targetWidth, int targetHeight) throws IOException {
+        return decode(new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return assets.open(name);
+            }
+        }, targetWidth, targetHeight);
+    }
+
+    public Bitmap decodeFile(final File file, int targetWidth, int targetHeight) throws IOException {
+        return decode(new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        }, targetWidth, targetHeight);
+    }
+
+    // Decodes an image no smaller than the target size (0 for no limit), or returns null if it cannot be decoded
+    public Bitmap decode(Source source, int targetWidth, int targetHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(source, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inDither = false;
+        options.inScaled = false;
+
+        Bitmap reuse = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            options.inMutable = true;
+            // Before Android 4.4 inBitmap only works without sampling
+            if (options.inSampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                int w = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+                int h = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+                reuse = pool.get(w, h, Bitmap.Config.RGB_565);
+                options.inBitmap = reuse;
+            }
+        }
+
+        try {
+            Bitmap bitmap = decodeStream(source, options);
+            if (bitmap == null && reuse != null) pool.put(reuse);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit this image, decode into a new one
+            if (reuse == null) throw e;
+            options.inBitmap = null;
+            pool.put(reuse);
+            return decodeStream(source, options);
+        }
+    }
+
+    // Gives a decoded bitmap back once it has been printed or is no longer shown
+    public void release(Bitmap bitmap) {
+        pool.put(bitmap);
+    }
+
+    // Largest power of two keeping the image at least as large as the target
+    static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        while ((targetWidth <= 0 || width / (sample * 2) >= targetWidth)
+                && (targetHeight <= 0 || height / (sample * 2) >= targetHeight)
+                && (targetWidth > 0 || targetHeight > 0)) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    private static Bitmap decodeStream(Source source, BitmapFactory.Options options) throws IOException {
+        InputStream is = source.open();
+        try {
+            return BitmapFactory.decodeStream(is, null, options);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final BitmapPool pool;
+}
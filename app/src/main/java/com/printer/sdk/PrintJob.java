@@ -0,0 +1,381 @@
+package com.printer.sdk;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+// One label submitted to a PrintQueue.
+// The content is whatever the transport knows how to send (a Bitmap or an LpapiTransport.Drawing for the LPAPI transport).
+// It can also be a Future of that content, still being rendered: the queue waits for it just before sending the job.
+// The job is its own future: get() returns true when the printer reported Success and false when it reported Failed.
+// Jobs given the same label key print the same label: a PrintQueue may print a run of them as one job with copies.
+// The priority and the source of a job decide when it is printed among the others waiting, see JobScheduler.
+public class PrintJob implements Future<Boolean> {
+
+    public enum Priority {
+        // Printed before anything else waiting, e.g. a label needed right now at the packing station
+        URGENT,
+        // Labels printed by a user at the device
+        NORMAL,
+        // Large batches, printed when nothing more pressing waits
+        BULK
+    }
+
+    // Receives every print progress change of a job.
+    // Called within the printing thread, post to the UI thread before touching any view.
+    public interface Listener {
+        void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo);
+    }
+
+    public PrintJob(Object content, PrintParams params) {
+        this(content, params, null);
+    }
+
+    public PrintJob(Object content, PrintParams params, Listener listener) {
+        this(content, params, null, listener);
+    }
+
+    // The label key identifies the content (e.g. RenderedLabelCache.key()), null if it is not known.
+    // Throws IllegalArgumentException for a BandedLabel with an orientation, banded labels are not turned.
+    public PrintJob(Object content, PrintParams params, String labelKey, Listener listener) {
+        if (content == null) throw new NullPointerException("content");
+        this.id = sNextId.incrementAndGet();
+        this.content = content;
+        this.params = params == null ? PrintParams.DEFAULT : params;
+        if (content instanceof BandedLabel && this.params.getOrientation() != 0) {
+            throw new IllegalArgumentException("Banded labels print unrotated, not at " + this.params.getOrientation() + " degrees");
+        }
+        this.labelKey = labelKey;
+        this.listener = listener;
+        this.members = null;
+    }
+
+    // One job printing the labels of several jobs as copies, see merge()
+    private PrintJob(List<PrintJob> members, int copies) {
+        PrintJob first = members.get(0);
+        this.id = sNextId.incrementAndGet();
+        this.content = first.content;
+        this.params = first.params.withCopies(copies);
+        this.labelKey = first.labelKey;
+        this.listener = null;
+        this.members = members;
+        this.priority = first.priority;
+        this.source = first.source;
+    }
+
+    // Job printing the label of the given jobs once per copy of each; they must all be able to coalesce with the
+    // first one and be at the printer already. Their progress is reported by PrintQueue when the merged job completes.
+    static PrintJob merge(List<PrintJob> jobs) {
+        int copies = 0;
+        for (PrintJob job : jobs) {
+            copies += job.params.getCopies();
+        }
+        return new PrintJob(jobs, copies);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Object getContent() {
+        return content;
+    }
+
+    public PrintParams getParams() {
+        return params;
+    }
+
+    public String getLabelKey() {
+        return labelKey;
+    }
+
+    // Sets the priority class of the job, NORMAL by default; must be called before the job is queued
+    public PrintJob setPriority(Priority priority) {
+        if (priority == null) throw new NullPointerException("priority");
+        this.priority = priority;
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    // Sets who submits the job (e.g. an app or a network client), sources share the printer fairly within a priority
+    // class; must be called before the job is queued
+    public PrintJob setSource(String source) {
+        this.source = source == null ? DEFAULT_SOURCE : source;
+        return this;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    // True if the other job prints the same label with the same parameters, apart from the number of copies
+    public boolean canCoalesce(PrintJob other) {
+        return labelKey != null && labelKey.equals(other.labelKey)
+                && params.withCopies(1).equals(other.params.withCopies(1));
+    }
+
+    // Reason reported with the Failed progress, or null if the job did not fail
+    public synchronized PrintFailReason getFailReason() {
+        return failReason;
+    }
+
+    // True once the job has been handed to the printer
+    public synchronized boolean isSent() {
+        return state >= STATE_SENT && state != STATE_CANCELLED;
+    }
+
+    // Cancels the job if it has not been handed to the printer yet, the listener and the listeners of the queue it
+    // waits in get Failed with Cancelled
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (state != STATE_PENDING) return false;
+            state = STATE_CANCELLED;
+            failReason = PrintFailReason.Cancelled;
+            notifyAll();
+        }
+
+        // Leaves the queue it waits in, its place is free for another job
+        JobScheduler waitingIn = scheduler;
+        if (waitingIn != null) {
+            waitingIn.remove(this);
+        }
+        if (content instanceof Future) {
+            ((Future<?>) content).cancel(mayInterruptIfRunning);
+        }
+        if (listener != null) {
+            listener.onPrintProgress(this, PrintProgress.Failed, PrintFailReason.Cancelled);
+        }
+        // Also when it was taken meanwhile: the dispatcher drops it without an outcome
+        if (waitingIn != null) {
+            waitingIn.reportCancelled(this);
+        }
+        // A merged job is only cancelled when it is dropped by PrintQueue.shutdown(), its jobs were already sent
+        if (members != null) {
+            for (PrintJob member : members) {
+                member.dispatchProgress(PrintProgress.Failed, PrintFailReason.Cancelled);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return state == STATE_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return state >= STATE_SUCCESS;
+    }
+
+    @Override
+    public synchronized Boolean get() throws InterruptedException {
+        while (state < STATE_SUCCESS) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized Boolean get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!await(unit.toMillis(timeout))) throw new TimeoutException();
+        return result();
+    }
+
+    @Override
+    public String toString() {
+        return "PrintJob#" + id;
+    }
+
+    // Waits until the job is done, returns false on timeout
+    synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (state < STATE_SUCCESS) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    // Waits while the job is at the printer, returns false on timeout.
+    // Returns early when the job is done or was given back by requeue().
+    synchronized boolean awaitPrinted(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (state == STATE_SENT) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    // Takes back a job the printer did not acknowledge so it can be sent again.
+    // A job is only given back once, returns false if it was already or is not at the printer.
+    synchronized boolean requeue() {
+        if (state != STATE_SENT || requeued) return false;
+        state = STATE_PENDING;
+        requeued = true;
+        stamps[STAMP_DATA_ENDED] = 0;
+        notifyAll();
+        return true;
+    }
+
+    // Waits for content rendered in the background and replaces the future with the result
+    void resolveContent() throws InterruptedException, ExecutionException {
+        if (members != null) {
+            PrintJob first = members.get(0);
+            first.resolveContent();
+            content = first.content;
+            for (PrintJob member : members) {
+                member.stamp(STAMP_READY);
+            }
+        }
+        Object value = content;
+        if (value instanceof Future) {
+            content = ((Future<?>) value).get();
+        }
+        stamp(STAMP_READY);
+    }
+
+    // Content of a job printed as a copy of another one: a render still running is cancelled, a finished one is kept
+    // so the listener can still recycle it
+    void dropContent() {
+        Object value = content;
+        if (!(value instanceof Future)) return;
+        Future<?> future = (Future<?>) value;
+        if (!future.isDone()) {
+            future.cancel(true);
+            return;
+        }
+        try {
+            content = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Not printed anyway
+        } catch (CancellationException e) {
+            // Not printed anyway
+        }
+    }
+
+    // Jobs printed by a merged job, null for a plain job
+    List<PrintJob> getMembers() {
+        return members;
+    }
+
+    // Scheduler the job waits in, null once taken
+    void setScheduler(JobScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    // Marks the job as added to a queue, again when it is moved to another printer
+    synchronized void markQueued() {
+        stamps[STAMP_QUEUED] = System.nanoTime();
+    }
+
+    // Marks the job as handed to the printer, returns false if it was cancelled before
+    synchronized boolean markSent() {
+        if (state != STATE_PENDING) return false;
+        state = STATE_SENT;
+        stamps[STAMP_SENT] = System.nanoTime();
+        return true;
+    }
+
+    // System.nanoTime() of a step of the job, 0 if it did not happen
+    synchronized long getStamp(int step) {
+        return stamps[step];
+    }
+
+    // Reports a print progress of the job, Success and Failed complete it.
+    // Progress of a job that is not at the printer (done, or given back by requeue()) is dropped so the listener sees
+    // exactly one final state; returns false then.
+    boolean dispatchProgress(PrintProgress progress, Object addiInfo) {
+        synchronized (this) {
+            if (state != STATE_SENT) return false;
+            switch (progress) {
+                case DataEnded:
+                    stamps[STAMP_DATA_ENDED] = System.nanoTime();
+                    break;
+
+                case Success:
+                    state = STATE_SUCCESS;
+                    stamps[STAMP_DONE] = System.nanoTime();
+                    notifyAll();
+                    break;
+
+                case Failed:
+                    state = STATE_FAILED;
+                    failReason = addiInfo instanceof PrintFailReason ? (PrintFailReason) addiInfo : PrintFailReason.Other;
+                    stamps[STAMP_DONE] = System.nanoTime();
+                    notifyAll();
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        if (listener != null) {
+            listener.onPrintProgress(this, progress, addiInfo);
+        }
+        return true;
+    }
+
+    private synchronized void stamp(int step) {
+        stamps[step] = System.nanoTime();
+    }
+
+    private Boolean result() {
+        if (state == STATE_CANCELLED) throw new CancellationException();
+        return state == STATE_SUCCESS;
+    }
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SENT = 1;
+    private static final int STATE_SUCCESS = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_CANCELLED = 4;
+
+    // Steps of a job timed by getStamp()
+    static final int STAMP_QUEUED = 0;
+    static final int STAMP_SENT = 1;
+    static final int STAMP_READY = 2;
+    static final int STAMP_DATA_ENDED = 3;
+    static final int STAMP_DONE = 4;
+
+    // Source of the jobs no source was given to
+    static final String DEFAULT_SOURCE = "";
+
+    private static final AtomicLong sNextId = new AtomicLong();
+
+    private final long id;
+    private final PrintParams params;
+    private final String labelKey;
+    private final Listener listener;
+    private final List<PrintJob> members;
+
+    // Replaced by the rendered content once resolved
+    private volatile Object content;
+
+    // Set before the job is queued
+    private Priority priority = Priority.NORMAL;
+    private String source = DEFAULT_SOURCE;
+    private volatile JobScheduler scheduler = null;
+
+    private int state = STATE_PENDING;
+    private PrintFailReason failReason = null;
+    private final long[] stamps = new long[5];
+    private boolean requeued = false;
+}
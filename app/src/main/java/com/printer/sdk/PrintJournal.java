@@ -0,0 +1,440 @@
+package com.printer.sdk;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+// Durable record of the print jobs, so labels still queued when the process is killed can be printed after a restart.
+// Every state change of a job is appended to a segmented log of checksummed records. Appending only copies the
+// record into a buffer; a flusher thread writes the buffer and forces it to disk every commit interval, so a burst
+// of state changes costs one fsync (group commit) and no print waits on the disk.
+// When a segment is full the live jobs are written at the start of a new one and the older segments are deleted.
+//
+// Record: int length of the body, int CRC32 of the body, body = long entry id, byte state, payload (SUBMITTED only).
+public class PrintJournal {
+
+    public static final int SUBMITTED = 0;
+    public static final int RENDERED = 1;
+    public static final int SENT = 2;
+    public static final int ACKNOWLEDGED = 3;
+    public static final int FAILED = 4;
+
+    public static final long DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL = 20;
+
+    // A job not acknowledged or failed yet, as found by open()
+    public static class Entry {
+        Entry(long id, byte[] payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        // Last recorded state, SENT means the label may or may not have been printed
+        public int getState() {
+            return state;
+        }
+
+        // Description of the job given to submitted()
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        private final long id;
+        private final byte[] payload;
+        private int state = SUBMITTED;
+    }
+
+    public PrintJournal(File dir) {
+        this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_COMMIT_INTERVAL);
+    }
+
+    // commitInterval: milliseconds between two forced writes, what a crash can lose at most
+    public PrintJournal(File dir, long segmentBytes, long commitInterval) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.commitInterval = commitInterval;
+    }
+
+    // Reads the journal back and starts recording, returns the jobs left unfinished in submission order.
+    // A torn record at the end of the log (the process died while writing it) is dropped.
+    public List<Entry> open() throws IOException {
+        synchronized (this) {
+            if (flusher != null) throw new IllegalStateException("Journal already open");
+            if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+            // Jobs submitted before open() are recorded by the checkpoint below but are not unfinished jobs
+            List<Long> early = new ArrayList<Long>(live.keySet());
+
+            File[] segments = listSegments();
+            for (File segment : segments) {
+                replay(segment);
+            }
+            int last = segments.length == 0 ? 0 : segmentNumber(segments[segments.length - 1]);
+
+            // The live jobs start a new segment, what was replayed is no longer needed
+            pending = ByteBuffer.allocate(BUFFER_BYTES);
+            startSegment(last + 1, checkpoint());
+            for (File segment : segments) {
+                segment.delete();
+            }
+
+            flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            }, "PrintJournal");
+            flusher.setDaemon(true);
+            flusher.start();
+
+            List<Entry> unfinished = new ArrayList<Entry>(live.values());
+            for (Long id : early) {
+                unfinished.remove(live.get(id));
+            }
+            return unfinished;
+        }
+    }
+
+    // Records a new job, returns its entry id. Jobs submitted before open() are written when it is called.
+    public synchronized long submitted(byte[] payload) {
+        long id = nextId++;
+        Entry entry = new Entry(id, payload);
+        live.put(id, entry);
+        append(id, SUBMITTED, payload);
+        return id;
+    }
+
+    // Records a state change of an entry
+    public synchronized void record(long id, int state) {
+        Entry entry = live.get(id);
+        if (entry == null) return;
+        if (state == ACKNOWLEDGED || state == FAILED) {
+            live.remove(id);
+        } else {
+            entry.state = state;
+        }
+        append(id, state, null);
+    }
+
+    // Listener recording the progress of a job under the given entry before passing it on to next (may be null)
+    public PrintJob.Listener listener(final long id, final PrintJob.Listener next) {
+        return new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                switch (progress) {
+                    case StartCopy:
+                        record(id, SENT);
+                        break;
+
+                    case Success:
+                        record(id, ACKNOWLEDGED);
+                        break;
+
+                    case Failed:
+                        // Jobs cancelled by the queue shutting down are printed again on the next start
+                        if (addiInfo != PrintFailReason.Cancelled) {
+                            record(id, FAILED);
+                        }
+                        break;
+
+                    default:
+                        break;
+                }
+                if (next != null) next.onPrintProgress(job, progress, addiInfo);
+            }
+        };
+    }
+
+    // Waits until every record appended so far is on disk
+    public void sync() throws IOException, InterruptedException {
+        synchronized (this) {
+            long target = appended;
+            while (durable < target && failure == null && flusher != null) {
+                wait();
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    // Writes what is left and stops the flusher, the journal cannot be used afterwards
+    public void close() {
+        Thread thread;
+        synchronized (this) {
+            thread = flusher;
+            if (thread == null) return;
+            closing = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Number of forced writes, each one committing a group of records
+    public synchronized long getCommitCount() {
+        return commits;
+    }
+
+    private void append(long id, int state, byte[] payload) {
+        if (flusher == null || closing) return;
+        boolean wasEmpty = pending.position() == 0;
+        pending = encode(pending, id, state, payload);
+        appended++;
+        if (wasEmpty) notifyAll();
+    }
+
+    // Writes a record into the buffer, which is grown rather than waiting for the flusher
+    private ByteBuffer encode(ByteBuffer buffer, long id, int state, byte[] payload) {
+        int length = BODY_HEADER + (payload == null ? 0 : payload.length);
+        if (buffer.remaining() < RECORD_HEADER + length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + RECORD_HEADER + length));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        int start = buffer.position();
+        buffer.putInt(length);
+        buffer.putInt(0);
+        buffer.putLong(id);
+        buffer.put((byte) state);
+        if (payload != null) buffer.put(payload);
+
+        crc.reset();
+        crc.update(buffer.array(), start + RECORD_HEADER, length);
+        buffer.putInt(start + 4, (int) crc.getValue());
+        return buffer;
+    }
+
+    /********************************************************************************************************************************************/
+    // Flusher
+    /********************************************************************************************************************************************/
+
+    private void flushLoop() {
+        ByteBuffer spare = ByteBuffer.allocate(BUFFER_BYTES);
+        long lastCommit = 0;
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            boolean last;
+            synchronized (this) {
+                try {
+                    while (!closing && pending.position() == 0) {
+                        wait();
+                    }
+                    // Records appended meanwhile join the group, at most one forced write per commit interval
+                    long left = lastCommit + commitInterval - System.currentTimeMillis();
+                    while (!closing && left > 0) {
+                        wait(left);
+                        left = lastCommit + commitInterval - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    closing = true;
+                }
+                batch = pending;
+                batchEnd = appended;
+                last = closing;
+                spare.clear();
+                pending = spare;
+            }
+
+            try {
+                batch.flip();
+                if (batch.hasRemaining()) {
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                }
+                lastCommit = System.currentTimeMillis();
+                if (channel.size() >= segmentBytes) {
+                    rollSegment();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (this) {
+                    failure = e;
+                }
+                last = true;
+            }
+
+            synchronized (this) {
+                durable = batchEnd;
+                commits++;
+                if (last) {
+                    closeChannel();
+                    flusher = null;
+                }
+                notifyAll();
+                if (last) return;
+            }
+            // The buffer just written is the next spare one, unless it was grown
+            spare = batch.capacity() == BUFFER_BYTES ? batch : ByteBuffer.allocate(BUFFER_BYTES);
+        }
+    }
+
+    // Starts the next segment with the live jobs, then deletes the older one; called by the flusher only
+    private void rollSegment() throws IOException {
+        File previous = segment;
+        ByteBuffer checkpoint;
+        synchronized (this) {
+            checkpoint = checkpoint();
+        }
+        startSegment(segmentNumber(previous) + 1, checkpoint);
+        previous.delete();
+    }
+
+    // Records of the live jobs, called with the lock
+    private ByteBuffer checkpoint() {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        for (Entry entry : live.values()) {
+            buffer = encode(buffer, entry.id, SUBMITTED, entry.payload);
+            if (entry.state != SUBMITTED) buffer = encode(buffer, entry.id, entry.state, null);
+        }
+        return buffer;
+    }
+
+    // Opens a new segment starting with the given records
+    private void startSegment(int number, ByteBuffer records) throws IOException {
+        closeChannel();
+        segment = new File(dir, String.format(SEGMENT_FORMAT, number));
+        channel = new RandomAccessFile(segment, "rw").getChannel();
+        channel.truncate(0);
+        records.flip();
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+        channel.force(false);
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+    }
+
+    /********************************************************************************************************************************************/
+    // Replay
+    /********************************************************************************************************************************************/
+
+    private void replay(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel in = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) in.size());
+            while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+            }
+            buffer.flip();
+
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < BODY_HEADER || length > buffer.remaining()) break;
+                crc.reset();
+                crc.update(buffer.array(), buffer.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+
+                long id = buffer.getLong();
+                int state = buffer.get();
+                byte[] payload = null;
+                if (state == SUBMITTED) {
+                    payload = new byte[length - BODY_HEADER];
+                    buffer.get(payload);
+                } else {
+                    buffer.position(buffer.position() + length - BODY_HEADER);
+                }
+                apply(id, state, payload);
+                nextId = Math.max(nextId, id + 1);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void apply(long id, int state, byte[] payload) {
+        if (state == SUBMITTED) {
+            if (!live.containsKey(id)) live.put(id, new Entry(id, payload));
+        } else if (state == ACKNOWLEDGED || state == FAILED) {
+            live.remove(id);
+        } else {
+            Entry entry = live.get(id);
+            if (entry != null) entry.state = state;
+        }
+    }
+
+    private File[] listSegments() {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) return new File[0];
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SEGMENT_FORMAT = SEGMENT_PREFIX + "%08d" + SEGMENT_SUFFIX;
+
+    private static final int RECORD_HEADER = 8;
+    private static final int BODY_HEADER = 9;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final File dir;
+    private final long segmentBytes;
+    private final long commitInterval;
+    private final CRC32 crc = new CRC32();
+
+    // Jobs not acknowledged or failed, by entry id
+    private final Map<Long, Entry> live = new TreeMap<Long, Entry>();
+
+    // Ids continue from the clock, so jobs submitted before open() cannot collide with the replayed ones
+    private long nextId = System.currentTimeMillis() * 1000;
+    private ByteBuffer pending;
+    private long appended = 0;
+    private long durable = 0;
+    private long commits = 0;
+    private IOException failure = null;
+    private boolean closing = false;
+    private Thread flusher = null;
+
+    // Segment being written, only touched by the flusher once open
+    private File segment;
+    private FileChannel channel;
+}
@@ -0,0 +1,329 @@
+package com.printer.sdk;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+// Timing and counters of the print pipeline.
+// Register it with PrintQueue.addListener() for the jobs and with PrinterTransport.addCallback() for the connection.
+// Every finished job is split in four stages, each with its own latency histogram:
+// queue (queued until taken by the dispatcher), render (waiting for content rendered ahead), transmit (sending the data
+// until DataEnded) and ack (DataEnded until the printer reported Success or Failed).
+// The queue stage is also recorded per priority class, showing how long each class waits behind the others.
+public class PrintMetrics implements PrintJob.Listener, LPAPI.Callback {
+
+    // Receives a snapshot of the metrics periodically
+    public interface Exporter {
+        void export(Snapshot snapshot) throws IOException;
+    }
+
+    // Copy of the metrics at a point in time
+    public static class Snapshot {
+        Snapshot(PrintMetrics metrics) {
+            this.time = System.currentTimeMillis();
+            this.queue = metrics.queue.copy();
+            this.queueByPriority = new LatencyHistogram[metrics.queueByPriority.length];
+            for (int i = 0; i < queueByPriority.length; i++) {
+                queueByPriority[i] = metrics.queueByPriority[i].copy();
+            }
+            this.render = metrics.render.copy();
+            this.transmit = metrics.transmit.copy();
+            this.ack = metrics.ack.copy();
+            this.total = metrics.total.copy();
+            synchronized (metrics) {
+                this.printed = metrics.printed;
+                this.failed = metrics.failed;
+                this.failures = metrics.failures.clone();
+                this.reconnects = metrics.reconnects;
+                this.disconnects = metrics.disconnects;
+                this.labelsLastMinute = metrics.countLastMinute(System.currentTimeMillis() / 1000);
+            }
+            StartupTrace trace = metrics.startupTrace;
+            this.startup = trace != null ? trace.getMarks() : Collections.<String, Long>emptyMap();
+        }
+
+        public long getFailures(PrintFailReason reason) {
+            return failures[reason.ordinal()];
+        }
+
+        // Queue stage of the jobs of one priority class
+        public LatencyHistogram getQueue(PrintJob.Priority priority) {
+            return queueByPriority[priority.ordinal()];
+        }
+
+        // Failed jobs out of all finished ones, 0 to 1
+        public double getFailureRate() {
+            long done = printed + failed;
+            return done == 0 ? 0 : (double) failed / done;
+        }
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("time", time);
+            json.put("printed", printed);
+            json.put("failed", failed);
+            json.put("labelsPerMinute", labelsLastMinute);
+            json.put("reconnects", reconnects);
+            json.put("disconnects", disconnects);
+
+            JSONObject reasons = new JSONObject();
+            for (PrintFailReason reason : PrintFailReason.values()) {
+                if (failures[reason.ordinal()] > 0) {
+                    reasons.put(reason.toString(), failures[reason.ordinal()]);
+                }
+            }
+            json.put("failures", reasons);
+
+            json.put("queue", toJson(queue));
+            JSONObject priorities = new JSONObject();
+            for (PrintJob.Priority priority : PrintJob.Priority.values()) {
+                if (queueByPriority[priority.ordinal()].getCount() > 0) {
+                    priorities.put(priority.toString(), toJson(queueByPriority[priority.ordinal()]));
+                }
+            }
+            json.put("queueByPriority", priorities);
+            json.put("render", toJson(render));
+            json.put("transmit", toJson(transmit));
+            json.put("ack", toJson(ack));
+            json.put("total", toJson(total));
+
+            if (!startup.isEmpty()) {
+                JSONObject marks = new JSONObject();
+                for (Map.Entry<String, Long> mark : startup.entrySet()) {
+                    marks.put(mark.getKey(), mark.getValue().longValue());
+                }
+                json.put("startup", marks);
+            }
+            return json;
+        }
+
+        private static JSONObject toJson(LatencyHistogram histogram) throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", histogram.getCount());
+            json.put("p50", histogram.getValueAtPercentile(50));
+            json.put("p90", histogram.getValueAtPercentile(90));
+            json.put("p99", histogram.getValueAtPercentile(99));
+            json.put("max", histogram.getMax());
+            return json;
+        }
+
+        public final long time;
+        // Latencies in microseconds
+        public final LatencyHistogram queue;
+        public final LatencyHistogram render;
+        public final LatencyHistogram transmit;
+        public final LatencyHistogram ack;
+        public final LatencyHistogram total;
+
+        public final long printed;
+        public final long failed;
+        public final long reconnects;
+        public final long disconnects;
+        // Labels printed during the last 60 seconds
+        public final long labelsLastMinute;
+        // Startup milestones in milliseconds, empty without a startup trace
+        public final Map<String, Long> startup;
+
+        private final LatencyHistogram[] queueByPriority;
+        private final long[] failures;
+    }
+
+    // Startup milestones exported with the metrics
+    public void setStartupTrace(StartupTrace trace) {
+        this.startupTrace = trace;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // Exports a snapshot every period on a background thread, replacing the previous exporter
+    public synchronized void startExporting(final Exporter exporter, long period, TimeUnit unit) {
+        stopExporting();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PrintMetrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exporter.export(snapshot());
+                } catch (IOException e) {
+                    // The next period tries again
+                    e.printStackTrace();
+                }
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stopExporting() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    // Starts counting from zero again
+    public void reset() {
+        queue.reset();
+        for (LatencyHistogram histogram : queueByPriority) {
+            histogram.reset();
+        }
+        render.reset();
+        transmit.reset();
+        ack.reset();
+        total.reset();
+        synchronized (this) {
+            printed = 0;
+            failed = 0;
+            failures = new long[PrintFailReason.values().length];
+            reconnects = 0;
+            disconnects = 0;
+            for (int i = 0; i < perSecond.length; i++) {
+                perSecond[i] = 0;
+            }
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Job progress, from PrintQueue
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+        if (progress != PrintProgress.Success && progress != PrintProgress.Failed) return;
+
+        long queued = job.getStamp(PrintJob.STAMP_QUEUED);
+        long sent = job.getStamp(PrintJob.STAMP_SENT);
+        long ready = job.getStamp(PrintJob.STAMP_READY);
+        long dataEnded = job.getStamp(PrintJob.STAMP_DATA_ENDED);
+        long done = job.getStamp(PrintJob.STAMP_DONE);
+
+        // A stage is only recorded when the job went through it
+        recordStage(queue, queued, sent);
+        recordStage(queueByPriority[job.getPriority().ordinal()], queued, sent);
+        recordStage(render, sent, ready);
+        recordStage(transmit, ready, dataEnded);
+        recordStage(ack, dataEnded, done);
+        recordStage(total, queued, done);
+
+        synchronized (this) {
+            if (progress == PrintProgress.Success) {
+                printed++;
+                long second = System.currentTimeMillis() / 1000;
+                int slot = (int) (second % perSecond.length);
+                if (slotSecond[slot] != second) {
+                    slotSecond[slot] = second;
+                    perSecond[slot] = 0;
+                }
+                perSecond[slot]++;
+            } else {
+                failed++;
+                PrintFailReason reason = job.getFailReason();
+                failures[(reason != null ? reason : PrintFailReason.Other).ordinal()]++;
+            }
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Connection state, from the transport
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
+        synchronized (this) {
+            switch (arg1) {
+                case Disconnected:
+                    if (connected) disconnects++;
+                    connected = false;
+                    break;
+
+                case Connected:
+                case Connected2:
+                    // A connection after a lost one is a reconnect
+                    if (!connected && disconnects > 0) reconnects++;
+                    connected = true;
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void onProgressInfo(ProgressInfo arg0, Object arg1) {
+    }
+
+    @Override
+    public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
+    }
+
+    @Override
+    public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+        // Jobs are timed through PrintQueue, which knows when they were queued and sent
+    }
+
+    private static void recordStage(LatencyHistogram histogram, long from, long to) {
+        if (from != 0 && to != 0 && to >= from) {
+            histogram.record((to - from) / 1000);
+        }
+    }
+
+    private static LatencyHistogram[] newHistograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    private long countLastMinute(long now) {
+        long count = 0;
+        for (int i = 0; i < perSecond.length; i++) {
+            if (now - slotSecond[i] < perSecond.length) count += perSecond[i];
+        }
+        return count;
+    }
+
+    private final LatencyHistogram queue = new LatencyHistogram();
+    private final LatencyHistogram[] queueByPriority = newHistograms(PrintJob.Priority.values().length);
+    private final LatencyHistogram render = new LatencyHistogram();
+    private final LatencyHistogram transmit = new LatencyHistogram();
+    private final LatencyHistogram ack = new LatencyHistogram();
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    private long printed = 0;
+    private long failed = 0;
+    private long[] failures = new long[PrintFailReason.values().length];
+    private long reconnects = 0;
+    private long disconnects = 0;
+    private boolean connected = false;
+
+    // Labels printed in each of the last 60 seconds, slotSecond telling which second a slot holds
+    private final long[] perSecond = new long[60];
+    private final long[] slotSecond = new long[60];
+
+    private ScheduledExecutorService scheduler = null;
+    private volatile StartupTrace startupTrace = null;
+}
@@ -0,0 +1,81 @@
+package com.printer.sdk;
+
+// Print parameters of a label job.
+// A negative density, speed or gap type means "use the printer's own setting", the same convention used by the settings
+// buttons of MainActivity. The class does not depend on Android so jobs can be built and compared off-device.
+public final class PrintParams {
+
+    // Printer defaults, no rotation, one copy
+    public static final PrintParams DEFAULT = new PrintParams(-1, -1, -1, 0, 1);
+
+    public PrintParams(int density, int speed, int gapType, int orientation, int copies) {
+        this.density = density;
+        this.speed = speed;
+        this.gapType = gapType;
+        this.orientation = orientation;
+        this.copies = copies < 1 ? 1 : copies;
+    }
+
+    public int getDensity() {
+        return density;
+    }
+
+    public int getSpeed() {
+        return speed;
+    }
+
+    public int getGapType() {
+        return gapType;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public int getCopies() {
+        return copies;
+    }
+
+    // Same parameters with a different number of copies
+    public PrintParams withCopies(int copies) {
+        if (copies == this.copies) return this;
+        return new PrintParams(density, speed, gapType, orientation, copies);
+    }
+
+    // Same parameters with a different print direction
+    public PrintParams withOrientation(int orientation) {
+        if (orientation == this.orientation) return this;
+        return new PrintParams(density, speed, gapType, orientation, copies);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PrintParams)) return false;
+        PrintParams p = (PrintParams) o;
+        return density == p.density && speed == p.speed && gapType == p.gapType
+                && orientation == p.orientation && copies == p.copies;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = density;
+        h = 31 * h + speed;
+        h = 31 * h + gapType;
+        h = 31 * h + orientation;
+        h = 31 * h + copies;
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "PrintParams[density=" + density + ", speed=" + speed + ", gapType=" + gapType
+                + ", orientation=" + orientation + ", copies=" + copies + ']';
+    }
+
+    private final int density;
+    private final int speed;
+    private final int gapType;
+    private final int orientation;
+    private final int copies;
+}
@@ -0,0 +1,375 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+// Bounded queue of print jobs in front of one printer transport, ordered by priority and source (see JobScheduler).
+// Jobs can be submitted from any thread; submit() blocks and offer() refuses while the queue is full.
+// Jobs submitted after shutdown() are failed with Cancelled.
+// A single dispatcher thread hands the next job to the printer as soon as the previous one reported Success or Failed.
+// With replay on reconnect, jobs are held while the printer is disconnected and the job the printer did not acknowledge
+// before the link dropped is sent again once, first, when it comes back (see ConnectionSupervisor).
+// With a coalescing window, jobs printing the same label (see PrintJob.canCoalesce) that follow each other in the queue
+// are sent as one job with copies; each of them still gets its own Success or Failed. A label is only held back to
+// wait for more of the same when one is queued behind it already, a label printed once is sent at once.
+public class PrintQueue implements LPAPI.Callback {
+
+    // Time to wait for the printer to report Success or Failed for a job
+    public static final long DEFAULT_ACK_TIMEOUT = 60000;
+
+    // Most copies sent as one job by coalescing, a failure fails all of them
+    public static final int MAX_COALESCED_COPIES = 32;
+
+    public PrintQueue(PrinterTransport transport, int capacity) {
+        this.transport = transport;
+        this.pending = new JobScheduler(capacity);
+        this.pending.setCancelListener(new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                notifyListeners(job, progress, addiInfo);
+            }
+        });
+    }
+
+    public PrinterTransport getTransport() {
+        return transport;
+    }
+
+    // Orders the jobs waiting, e.g. to set the weight of a source
+    public JobScheduler getScheduler() {
+        return pending;
+    }
+
+    public void setAckTimeout(long millis) {
+        this.ackTimeout = millis;
+    }
+
+    // Holds the jobs while the printer is disconnected and sends an unacknowledged job again after reconnecting,
+    // instead of failing them with Disconnected
+    public void setReplayOnReconnect(boolean replay) {
+        this.replayOnReconnect = replay;
+        synchronized (connection) {
+            connection.notifyAll();
+        }
+    }
+
+    // Time a run of identical jobs waits for more of them to be submitted, 0 to never coalesce jobs.
+    // Jobs already queued behind a job are coalesced without waiting; a job with no identical job queued behind it
+    // does not wait.
+    public void setCoalesceWindow(long millis) {
+        this.coalesceWindow = Math.max(0, millis);
+    }
+
+    // Receives the progress of every job dispatched by this queue, after the job's own listener (e.g. PrintMetrics);
+    // jobs cancelled before they were sent get Failed with Cancelled
+    public void addListener(PrintJob.Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(PrintJob.Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts the dispatcher thread
+    public synchronized void start() {
+        if (dispatcher != null) return;
+        running = true;
+        transport.addCallback(this);
+        setConnected(isConnected(transport.getPrinterState()));
+        dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatchLoop();
+            }
+        }, "PrintQueue");
+        dispatcher.start();
+    }
+
+    // Stops the dispatcher, the job being printed and the jobs that were not sent yet are failed with Cancelled
+    public void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = dispatcher;
+            dispatcher = null;
+        }
+        // Before draining, so no job is added behind the drain
+        pending.close();
+        transport.removeCallback(this);
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        List<PrintJob> dropped = new ArrayList<PrintJob>();
+        PrintJob held = replay;
+        replay = null;
+        if (held != null) dropped.add(held);
+        pending.drainTo(dropped);
+        for (PrintJob job : dropped) {
+            cancel(job);
+        }
+    }
+
+    // Adds a job, waiting for free space if the queue is full; after shutdown() the job is cancelled instead
+    public PrintJob submit(PrintJob job) throws InterruptedException {
+        job.markQueued();
+        try {
+            pending.put(job);
+        } catch (IllegalStateException e) {
+            cancel(job);
+        }
+        return job;
+    }
+
+    // Adds a job if there is free space, never blocks; after shutdown() the job is cancelled and false returned
+    public boolean offer(PrintJob job) {
+        job.markQueued();
+        return added(job, pending.offer(job));
+    }
+
+    // Adds a job, waiting up to the given time for free space
+    public boolean offer(PrintJob job, long timeout, TimeUnit unit) throws InterruptedException {
+        job.markQueued();
+        return added(job, pending.offer(job, timeout, unit));
+    }
+
+    // Number of jobs waiting to be sent, the job being printed is not counted
+    public int getPendingCount() {
+        return pending.size() + (replay != null ? 1 : 0);
+    }
+
+    // Job being printed, or null
+    public PrintJob getCurrentJob() {
+        return current;
+    }
+
+    // Jobs waiting plus the one being printed
+    public int getLoad() {
+        return getPendingCount() + (current != null ? 1 : 0);
+    }
+
+    // Moves the jobs not sent yet to the given list, used to hand them to another printer
+    public int drainTo(List<PrintJob> jobs) {
+        return pending.drainTo(jobs);
+    }
+
+    // A job refused because the queue shut down would never get an outcome
+    private boolean added(PrintJob job, boolean queued) {
+        if (!queued && pending.isClosed()) {
+            cancel(job);
+        }
+        return queued;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                waitForPrinter();
+                PrintJob job = replay;
+                replay = null;
+                dispatch(job != null ? job : pending.take());
+            } catch (InterruptedException e) {
+                // shutdown() interrupts the thread, the loop condition ends it
+            }
+        }
+    }
+
+    private void dispatch(PrintJob job) throws InterruptedException {
+        // Cancelled while waiting in the queue
+        if (!job.markSent()) return;
+        if (coalesceWindow > 0 && job.getLabelKey() != null && job.getMembers() == null) {
+            job = coalesce(job);
+        }
+
+        current = job;
+        try {
+            // Interrupted while coalescing
+            if (Thread.interrupted()) throw new InterruptedException();
+
+            // Content rendered ahead by a RenderPipeline, normally ready by the time the job gets here
+            try {
+                job.resolveContent();
+            } catch (ExecutionException e) {
+                report(job, PrintProgress.Failed, PrintFailReason.Other);
+                return;
+            } catch (CancellationException e) {
+                report(job, PrintProgress.Failed, PrintFailReason.Cancelled);
+                return;
+            }
+
+            if (!transport.print(job)) {
+                // The link may have dropped between taking the job and sending it
+                boolean linked = isConnected(transport.getPrinterState());
+                report(job, PrintProgress.Failed, linked ? PrintFailReason.Other : PrintFailReason.Disconnected);
+            } else if (!job.awaitPrinted(ackTimeout)) {
+                report(job, PrintProgress.Failed, PrintFailReason.Timeout);
+            } else if (!job.isSent() && !job.isCancelled()) {
+                // Given back when the link dropped, it goes before every other job
+                replay = job;
+            }
+        } catch (InterruptedException e) {
+            // shutdown() stops waiting for the printer, the job is not left without an outcome
+            report(job, PrintProgress.Failed, PrintFailReason.Cancelled);
+            throw e;
+        } finally {
+            current = null;
+        }
+    }
+
+    // Takes the jobs printing the same label as the first one, queued behind it or, once one was, submitted within the
+    // coalescing window, and returns the job printing all of them. The first job that differs is given back to the
+    // scheduler, a job of a higher priority queued meanwhile still goes before it.
+    private PrintJob coalesce(PrintJob first) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(coalesceWindow);
+        List<PrintJob> group = null;
+        int copies = first.getParams().getCopies();
+        while (true) {
+            PrintJob job;
+            try {
+                // Only a run of identical jobs already queued is worth waiting for more of
+                long wait = group == null ? 0 : Math.max(0, deadline - System.nanoTime());
+                job = pending.poll(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // The jobs taken so far are failed together by dispatch()
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (job == null) break;
+            if (!first.canCoalesce(job) || copies + job.getParams().getCopies() > MAX_COALESCED_COPIES) {
+                pending.putBack(job);
+                break;
+            }
+            // Cancelled while waiting in the queue
+            if (!job.markSent()) continue;
+
+            // Only the label of the first job is printed
+            job.dropContent();
+            if (group == null) {
+                group = new ArrayList<PrintJob>();
+                group.add(first);
+            }
+            group.add(job);
+            copies += job.getParams().getCopies();
+        }
+        if (group == null) return first;
+        // At the printer like its jobs, so its progress is reported and it is not sent again
+        PrintJob merged = PrintJob.merge(group);
+        merged.markSent();
+        return merged;
+    }
+
+    // With replay on reconnect, blocks until the printer is connected
+    private void waitForPrinter() throws InterruptedException {
+        synchronized (connection) {
+            while (replayOnReconnect && !connected) {
+                connection.wait();
+            }
+        }
+    }
+
+    private void setConnected(boolean value) {
+        synchronized (connection) {
+            connected = value;
+            connection.notifyAll();
+        }
+    }
+
+    private static boolean isConnected(PrinterState state) {
+        return state != null && state != PrinterState.Disconnected && state != PrinterState.Connecting;
+    }
+
+    private void report(PrintJob job, PrintProgress progress, Object addiInfo) {
+        if (!job.dispatchProgress(progress, addiInfo)) return;
+
+        // Every job of a merged job gets the progress of the whole, listeners see each of them
+        List<PrintJob> members = job.getMembers();
+        if (members != null) {
+            for (PrintJob member : members) {
+                report(member, progress, addiInfo);
+            }
+            return;
+        }
+        notifyListeners(job, progress, addiInfo);
+    }
+
+    // Cancels a job that is not in the scheduler anymore, or was never added to it; the scheduler reports the others
+    private void cancel(PrintJob job) {
+        if (!job.cancel(false)) return;
+        List<PrintJob> members = job.getMembers();
+        if (members == null) {
+            notifyListeners(job, PrintProgress.Failed, PrintFailReason.Cancelled);
+            return;
+        }
+        for (PrintJob member : members) {
+            notifyListeners(member, PrintProgress.Failed, PrintFailReason.Cancelled);
+        }
+    }
+
+    private void notifyListeners(PrintJob job, PrintProgress progress, Object addiInfo) {
+        for (PrintJob.Listener listener : listeners) {
+            listener.onPrintProgress(job, progress, addiInfo);
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Transport callbacks
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
+        setConnected(isConnected(arg1));
+
+        // The printer went away while printing, the job cannot be acknowledged anymore
+        if (arg1 == PrinterState.Disconnected) {
+            PrintJob job = current;
+            if (job != null && !(replayOnReconnect && job.requeue())) {
+                report(job, PrintProgress.Failed, PrintFailReason.Disconnected);
+            }
+        }
+    }
+
+    @Override
+    public void onProgressInfo(ProgressInfo arg0, Object arg1) {
+    }
+
+    @Override
+    public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
+    }
+
+    @Override
+    public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+        // The transport passes the job as bitmapData, anything else is not one of ours
+        PrintJob job = current;
+        if (job != null && bitmapData == job) {
+            report(job, progress, addiInfo);
+        }
+    }
+
+    private final PrinterTransport transport;
+    private final JobScheduler pending;
+    private final CopyOnWriteArrayList<PrintJob.Listener> listeners = new CopyOnWriteArrayList<PrintJob.Listener>();
+
+    private volatile long ackTimeout = DEFAULT_ACK_TIMEOUT;
+    private volatile long coalesceWindow = 0;
+    private volatile boolean running = false;
+    private volatile PrintJob current = null;
+    // Job given back by the printer, sent before the pending ones; only touched by the dispatcher thread and shutdown()
+    private volatile PrintJob replay = null;
+
+    private final Object connection = new Object();
+    private volatile boolean replayOnReconnect = false;
+    private boolean connected = false;
+    private Thread dispatcher = null;
+}
@@ -0,0 +1,454 @@
+package com.printer.sdk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import com.dothantech.printer.IDzPrinter;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+
+import android.annotation.TargetApi;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+
+// Foreground service sharing the printer connection and the print queue of the process with other apps, so they do
+// not each open their own Bluetooth connection and fight over the printer. It stays up KEEP_ALIVE after its last
+// client and last job, keeping the connection warm for the next one.
+//
+// Clients holding the PRINT permission bind to it and send Messages to the Messenger it returns:
+//   MSG_CONNECT           connects the printer EXTRA_PRINTER_MAC, EXTRA_PRINTER_NAME, EXTRA_PRINTER_TYPE
+//   MSG_PRINT_TEMPLATE    prints the built-in template EXTRA_TEMPLATE with the slot values of EXTRA_VALUES (a Bundle)
+//   MSG_PRINT_RASTER      prints the label read from EXTRA_RASTER, a ParcelFileDescriptor with a RasterEncoder stream
+// Print messages take the optional EXTRA_DENSITY, EXTRA_SPEED, EXTRA_GAP_TYPE, EXTRA_ORIENTATION, EXTRA_COPIES and
+// EXTRA_PRIORITY (the name of a PrintJob.Priority), and arg1 as a token of the client; the service replies to replyTo
+// with MSG_JOB_DONE, the same arg1 and arg2 1 when the label printed, 0 with EXTRA_FAIL_REASON when it failed.
+// The apps sending messages share the printer fairly, see JobScheduler.
+// ACTION_PRINT_TEMPLATE does the same with an Intent given to startService, the result is sent to the PendingIntent of
+// EXTRA_RESULT, if any, with EXTRA_SUCCESS and EXTRA_FAIL_REASON.
+// ACTION_START_GATEWAY opens a PrintGateway on EXTRA_PORT for machines on the network, or for this device only with
+// EXTRA_LOCAL_ONLY (the default); the service stays up until ACTION_STOP_GATEWAY.
+public class PrintService extends Service {
+
+    public static final String PERMISSION_PRINT = "com.printer.sdk.permission.PRINT";
+    public static final String ACTION_PRINT_TEMPLATE = "com.printer.sdk.action.PRINT_TEMPLATE";
+    public static final String ACTION_START_GATEWAY = "com.printer.sdk.action.START_GATEWAY";
+    public static final String ACTION_STOP_GATEWAY = "com.printer.sdk.action.STOP_GATEWAY";
+
+    public static final int MSG_CONNECT = 1;
+    public static final int MSG_PRINT_TEMPLATE = 2;
+    public static final int MSG_PRINT_RASTER = 3;
+    public static final int MSG_JOB_DONE = 100;
+
+    public static final String EXTRA_PRINTER_MAC = "printerMac";
+    public static final String EXTRA_PRINTER_NAME = "printerName";
+    public static final String EXTRA_PRINTER_TYPE = "printerType";
+    public static final String EXTRA_TEMPLATE = "template";
+    public static final String EXTRA_VALUES = "values";
+    public static final String EXTRA_RASTER = "raster";
+    public static final String EXTRA_DENSITY = "density";
+    public static final String EXTRA_SPEED = "speed";
+    public static final String EXTRA_GAP_TYPE = "gapType";
+    public static final String EXTRA_ORIENTATION = "orientation";
+    public static final String EXTRA_COPIES = "copies";
+    public static final String EXTRA_PRIORITY = "priority";
+    public static final String EXTRA_RESULT = "result";
+    public static final String EXTRA_SUCCESS = "success";
+    public static final String EXTRA_FAIL_REASON = "failReason";
+    public static final String EXTRA_PORT = "port";
+    public static final String EXTRA_LOCAL_ONLY = "localOnly";
+
+    // Time the service stays up without clients nor jobs
+    public static final long KEEP_ALIVE = 5 * 60 * 1000;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startForeground(NotificationId, buildNotification());
+
+        this.engine = PrintEngine.acquire();
+        this.engine.connectLastPrinter(getSharedPreferences(getResources().getString(R.string.app_name), Context.MODE_PRIVATE));
+
+        // Requests are handled in order on one thread, submitting a label may wait for room in the render pipeline
+        this.requestThread = new HandlerThread("PrintService");
+        this.requestThread.start();
+        this.requestHandler = new RequestHandler(requestThread.getLooper());
+        this.messenger = new Messenger(requestHandler);
+        this.mainHandler = new Handler();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && intent.getAction() != null) {
+            requestHandler.obtainMessage(MSG_INTENT, intent).sendToTarget();
+        }
+        scheduleStop();
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        onClientBound();
+        return messenger.getBinder();
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        onClientBound();
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        synchronized (this) {
+            bound = false;
+        }
+        scheduleStop();
+        // onRebind() is called for the next client
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        mainHandler.removeCallbacks(mStopIfIdle);
+        requestThread.quit();
+        stopGateway();
+        stopForeground(true);
+        // Labels still printing are left to the other users of the engine, if any
+        engine.release();
+        super.onDestroy();
+    }
+
+    // Started as well as bound, so the service outlives its clients until it has been idle for KEEP_ALIVE
+    private void onClientBound() {
+        synchronized (this) {
+            bound = true;
+        }
+        startService(new Intent(this, PrintService.class));
+    }
+
+    private void scheduleStop() {
+        mainHandler.removeCallbacks(mStopIfIdle);
+        mainHandler.postDelayed(mStopIfIdle, KEEP_ALIVE);
+    }
+
+    private final Runnable mStopIfIdle = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PrintService.this) {
+                if (bound || jobs > 0 || gateway != null) return;
+            }
+            stopSelf();
+        }
+    };
+
+    /********************************************************************************************************************************************/
+    // Requests, handled on the request thread
+    /********************************************************************************************************************************************/
+
+    private class RequestHandler extends Handler {
+        RequestHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_CONNECT:
+                    connect(msg.getData());
+                    break;
+
+                case MSG_PRINT_TEMPLATE:
+                    printTemplate(msg.getData(), getSource(msg), new MessengerResult(msg.replyTo, msg.arg1));
+                    break;
+
+                case MSG_PRINT_RASTER:
+                    printRaster(msg.getData(), getSource(msg), new MessengerResult(msg.replyTo, msg.arg1));
+                    break;
+
+                case MSG_INTENT:
+                    handleIntent((Intent) msg.obj);
+                    break;
+
+                default:
+                    super.handleMessage(msg);
+                    break;
+            }
+        }
+    }
+
+    private void handleIntent(Intent intent) {
+        String action = intent.getAction();
+        if (ACTION_PRINT_TEMPLATE.equals(action)) {
+            Bundle extras = intent.getExtras();
+            PendingIntent result = extras != null ? (PendingIntent) extras.getParcelable(EXTRA_RESULT) : null;
+            printTemplate(extras != null ? extras : new Bundle(), SOURCE_INTENTS, new IntentResult(result));
+        } else if (ACTION_START_GATEWAY.equals(action)) {
+            startGateway(intent.getIntExtra(EXTRA_PORT, PrintGateway.DEFAULT_PORT), intent.getBooleanExtra(EXTRA_LOCAL_ONLY, true));
+        } else if (ACTION_STOP_GATEWAY.equals(action)) {
+            stopGateway();
+            scheduleStop();
+        }
+    }
+
+    private void startGateway(int port, boolean localOnly) {
+        stopGateway();
+        InetSocketAddress address = localOnly ? new InetSocketAddress("127.0.0.1", port) : new InetSocketAddress(port);
+        PrintGateway started = new PrintGateway(engine, address);
+        try {
+            started.start();
+        } catch (IOException e) {
+            // The port is taken or not allowed, the gateway stays off
+            return;
+        }
+        synchronized (this) {
+            gateway = started;
+        }
+    }
+
+    private void stopGateway() {
+        PrintGateway stopped;
+        synchronized (this) {
+            stopped = gateway;
+            gateway = null;
+        }
+        if (stopped != null) stopped.stop();
+    }
+
+    private void connect(Bundle data) {
+        String mac = data.getString(EXTRA_PRINTER_MAC);
+        String type = data.getString(EXTRA_PRINTER_TYPE);
+        if (mac == null || type == null) return;
+        String name = data.getString(EXTRA_PRINTER_NAME);
+        try {
+            PrinterAddress printer = new PrinterAddress(name != null ? name : mac, mac, Enum.valueOf(IDzPrinter.AddressType.class, type));
+            engine.getConnectionSupervisor().connect(printer);
+        } catch (IllegalArgumentException e) {
+            // Unknown address type, nothing to connect
+        }
+    }
+
+    private void printTemplate(Bundle data, String source, Result result) {
+        String name = data.getString(EXTRA_TEMPLATE);
+        LabelTemplate template;
+        try {
+            template = BuiltInTemplates.get(name);
+        } catch (IllegalArgumentException e) {
+            result.send(false, PrintFailReason.Other);
+            return;
+        }
+
+        Bundle bundle = data.getBundle(EXTRA_VALUES);
+        Map<String, String> values = new HashMap<String, String>();
+        for (String slot : template.getSlotNames()) {
+            String value = bundle != null ? bundle.getString(slot) : null;
+            if (value != null) values.put(slot, value);
+        }
+        int dpi = engine.getPrinterDpi();
+        PrintParams params = getParams(data);
+        submit(BuiltInTemplates.renderer(name, values, dpi), params, BuiltInTemplates.key(name, values, dpi, params),
+                getPriority(data), source, result);
+    }
+
+    private void printRaster(Bundle data, String source, Result result) {
+        final ParcelFileDescriptor raster = data.getParcelable(EXTRA_RASTER);
+        if (raster == null) {
+            result.send(false, PrintFailReason.Other);
+            return;
+        }
+
+        // Read by the render worker, a slow client does not hold up the other requests
+        submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(raster);
+                ByteArrayOutputStream stream = new ByteArrayOutputStream();
+                try {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        stream.write(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+                return MonochromeBitmaps.toBitmap(RasterEncoder.decode(stream.toByteArray()), null);
+            }
+        }, getParams(data), null, getPriority(data), source, result);
+    }
+
+    private void submit(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Priority priority, String source,
+            final Result result) {
+        synchronized (this) {
+            jobs++;
+        }
+        PrintJob.Listener listener = new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                if (progress != PrintProgress.Success && progress != PrintProgress.Failed) return;
+                Object content = job.getContent();
+                if (content instanceof Bitmap) {
+                    ((Bitmap) content).recycle();
+                }
+                result.send(progress == PrintProgress.Success, job.getFailReason());
+                onJobDone();
+            }
+        };
+
+        try {
+            engine.getRenderPipeline().submit(render, params, labelKey, priority, source, listener);
+        } catch (InterruptedException e) {
+            // The request thread is stopping with the service
+            result.send(false, PrintFailReason.Cancelled);
+            onJobDone();
+        }
+    }
+
+    private void onJobDone() {
+        synchronized (this) {
+            jobs--;
+        }
+        scheduleStop();
+    }
+
+    private static PrintJob.Priority getPriority(Bundle data) {
+        String name = data.getString(EXTRA_PRIORITY);
+        if (name != null) {
+            try {
+                return PrintJob.Priority.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                // Unknown priority, printed as a normal label
+            }
+        }
+        return PrintJob.Priority.NORMAL;
+    }
+
+    // Jobs of each app form their own source when the system tells who sent the message
+    private static String getSource(Message msg) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1 && msg.sendingUid >= 0) {
+            return "uid:" + msg.sendingUid;
+        }
+        return SOURCE_MESSAGES;
+    }
+
+    private static PrintParams getParams(Bundle data) {
+        return new PrintParams(data.getInt(EXTRA_DENSITY, -1), data.getInt(EXTRA_SPEED, -1), data.getInt(EXTRA_GAP_TYPE, -1),
+                data.getInt(EXTRA_ORIENTATION, 0), data.getInt(EXTRA_COPIES, 1));
+    }
+
+    // Where the outcome of a job goes
+    private interface Result {
+        void send(boolean success, PrintFailReason reason);
+    }
+
+    private static class MessengerResult implements Result {
+        MessengerResult(Messenger replyTo, int token) {
+            this.replyTo = replyTo;
+            this.token = token;
+        }
+
+        @Override
+        public void send(boolean success, PrintFailReason reason) {
+            if (replyTo == null) return;
+            Message reply = Message.obtain(null, MSG_JOB_DONE, token, success ? 1 : 0);
+            if (!success && reason != null) {
+                reply.getData().putString(EXTRA_FAIL_REASON, reason.name());
+            }
+            try {
+                replyTo.send(reply);
+            } catch (RemoteException e) {
+                // The client is gone, the label is printed anyway
+            }
+        }
+
+        private final Messenger replyTo;
+        private final int token;
+    }
+
+    private class IntentResult implements Result {
+        IntentResult(PendingIntent pendingIntent) {
+            this.pendingIntent = pendingIntent;
+        }
+
+        @Override
+        public void send(boolean success, PrintFailReason reason) {
+            if (pendingIntent == null) return;
+            Intent fill = new Intent();
+            fill.putExtra(EXTRA_SUCCESS, success);
+            if (!success && reason != null) {
+                fill.putExtra(EXTRA_FAIL_REASON, reason.name());
+            }
+            try {
+                pendingIntent.send(PrintService.this, 0, fill);
+            } catch (PendingIntent.CanceledException e) {
+                // The client does not want the result anymore
+            }
+        }
+
+        private final PendingIntent pendingIntent;
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification buildNotification() {
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            createChannel();
+            builder = new Notification.Builder(this, NotificationChannelId);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        builder.setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getResources().getString(R.string.app_name))
+                .setContentText(getResources().getString(R.string.printservicerunning))
+                .setOngoing(true);
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? builder.build() : builder.getNotification();
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private void createChannel() {
+        NotificationChannel channel = new NotificationChannel(NotificationChannelId,
+                getResources().getString(R.string.printservicechannel), NotificationManager.IMPORTANCE_LOW);
+        ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+    }
+
+    // Print intent handed from the main thread to the request thread
+    private static final int MSG_INTENT = 1000;
+
+    // Sources of the jobs of clients that cannot be told apart
+    private static final String SOURCE_MESSAGES = "messages";
+    private static final String SOURCE_INTENTS = "intents";
+
+    private static final int NotificationId = 1;
+    private static final String NotificationChannelId = "print_service";
+
+    private PrintEngine engine;
+    private HandlerThread requestThread;
+    private RequestHandler requestHandler;
+    private Messenger messenger;
+    private Handler mainHandler;
+
+    // Guarded by this
+    private boolean bound = false;
+    private int jobs = 0;
+    private PrintGateway gateway = null;
+}
@@ -0,0 +1,303 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+// Printers seen recently, by MAC address, ranked by how likely a connection is to work quickly.
+// Printers are added as a scan of a Source lists them and as LPAPI reports them through onPrinterDiscovery; each one
+// is streamed to the listeners as soon as it is found. Register the discovery with PrinterTransport.addCallback() so
+// it also learns how often and how fast every printer connects. Printers not seen for the TTL are forgotten.
+public class PrinterDiscovery implements LPAPI.Callback {
+
+    public static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+    // Lists the printers that can be connected, e.g. the paired Bluetooth printers; may be slow
+    public interface Source {
+        List<PrinterAddress> getPrinters();
+    }
+
+    // Called for every printer found or updated, on the thread that found it
+    public interface Listener {
+        void onPrinterFound(Printer printer);
+    }
+
+    // What is known about one printer at a point in time
+    public static class Printer {
+        Printer(Entry entry, double score) {
+            this.address = entry.address;
+            this.info = entry.info;
+            this.lastSeen = entry.lastSeen;
+            this.connectAttempts = entry.attempts;
+            this.connectSuccesses = entry.successes;
+            this.connectLatency = entry.latency;
+            this.score = score;
+        }
+
+        public PrinterAddress getAddress() {
+            return address;
+        }
+
+        // Information reported by the printer, null until it was discovered or connected
+        public PrinterInfo getInfo() {
+            return info;
+        }
+
+        // System.currentTimeMillis() when the printer was last found
+        public long getLastSeen() {
+            return lastSeen;
+        }
+
+        public int getConnectAttempts() {
+            return connectAttempts;
+        }
+
+        public int getConnectSuccesses() {
+            return connectSuccesses;
+        }
+
+        // Average time to connect in milliseconds, -1 if it never connected
+        public long getConnectLatency() {
+            return connectLatency;
+        }
+
+        // Rank of the printer, higher is better
+        public double getScore() {
+            return score;
+        }
+
+        private final PrinterAddress address;
+        private final PrinterInfo info;
+        private final long lastSeen;
+        private final int connectAttempts;
+        private final int connectSuccesses;
+        private final long connectLatency;
+        private final double score;
+    }
+
+    public PrinterDiscovery() {
+        this(DEFAULT_TTL);
+    }
+
+    public PrinterDiscovery(long ttl) {
+        this.ttl = ttl;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PrinterDiscovery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Scans the source in the background, the printers found are streamed to the listeners.
+    // Does nothing if a scan is already running.
+    public void refresh(final Source source) {
+        synchronized (this) {
+            if (scanning) return;
+            scanning = true;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    scan(source);
+                } finally {
+                    synchronized (PrinterDiscovery.this) {
+                        scanning = false;
+                    }
+                }
+            }
+        });
+    }
+
+    // Scans the source on the calling thread
+    public void scan(Source source) {
+        List<PrinterAddress> printers = source.getPrinters();
+        if (printers == null) return;
+        for (PrinterAddress printer : printers) {
+            seen(printer, null);
+        }
+    }
+
+    // Records that the printer is reachable, with its information when known
+    public void seen(PrinterAddress address, PrinterInfo info) {
+        if (address == null || address.macAddress == null) return;
+        Printer printer;
+        synchronized (this) {
+            Entry entry = entry(address);
+            entry.address = address;
+            if (info != null) entry.info = info;
+            entry.lastSeen = System.currentTimeMillis();
+            printer = new Printer(entry, score(entry, entry.lastSeen));
+        }
+        for (Listener listener : listeners) {
+            listener.onPrinterFound(printer);
+        }
+    }
+
+    // Known printers, best first
+    public List<Printer> getPrinters() {
+        List<Printer> printers = new ArrayList<Printer>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (now - entry.lastSeen > ttl && entry.connectStart == 0) {
+                    it.remove();
+                } else {
+                    printers.add(new Printer(entry, score(entry, now)));
+                }
+            }
+        }
+        Collections.sort(printers, new Comparator<Printer>() {
+            @Override
+            public int compare(Printer a, Printer b) {
+                return Double.compare(b.score, a.score);
+            }
+        });
+        return printers;
+    }
+
+    // Addresses of the known printers, best first
+    public List<PrinterAddress> getAddresses() {
+        List<Printer> printers = getPrinters();
+        List<PrinterAddress> addresses = new ArrayList<PrinterAddress>(printers.size());
+        for (Printer printer : printers) {
+            addresses.add(printer.address);
+        }
+        return addresses;
+    }
+
+    // The printer to connect without asking, null if none is known
+    public PrinterAddress getBest() {
+        List<Printer> printers = getPrinters();
+        return printers.isEmpty() ? null : printers.get(0).address;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Connection reliability weighs most, with an unknown printer counted as 50%; a slow connection (2 seconds
+    // halves its factor) and not being seen for a while (down to half at the TTL) lower the rank
+    private double score(Entry entry, long now) {
+        double success = (entry.successes + 1.0) / (entry.attempts + 2.0);
+        double speed = 1.0 / (1.0 + (entry.latency < 0 ? SLOW_CONNECT : entry.latency) / (double) SLOW_CONNECT);
+        double age = Math.min(1.0, Math.max(0, now - entry.lastSeen) / (double) ttl);
+        return success * speed * (1.0 - age / 2);
+    }
+
+    private Entry entry(PrinterAddress address) {
+        Entry entry = entries.get(address.macAddress);
+        if (entry == null) {
+            entry = new Entry();
+            entry.address = address;
+            entries.put(address.macAddress, entry);
+        }
+        return entry;
+    }
+
+    /********************************************************************************************************************************************/
+    // Printer callbacks, from the transport
+    /********************************************************************************************************************************************/
+
+    @Override
+    public void onStateChange(PrinterAddress address, PrinterState state) {
+        if (address == null || address.macAddress == null) return;
+        switch (state) {
+            case Connecting:
+                synchronized (this) {
+                    entry(address).connectStart = System.nanoTime();
+                }
+                break;
+
+            case Connected:
+            case Connected2:
+                synchronized (this) {
+                    Entry entry = entry(address);
+                    if (entry.connectStart != 0) {
+                        long latency = (System.nanoTime() - entry.connectStart) / 1000000;
+                        entry.latency = entry.latency < 0 ? latency : (entry.latency * 2 + latency) / 3;
+                        entry.attempts++;
+                        entry.successes++;
+                        entry.connectStart = 0;
+                    }
+                }
+                seen(address, null);
+                break;
+
+            case Disconnected:
+                synchronized (this) {
+                    Entry entry = entries.get(address.macAddress);
+                    // Failed to connect, a disconnection after connecting does not count
+                    if (entry != null && entry.connectStart != 0) {
+                        entry.attempts++;
+                        entry.connectStart = 0;
+                    }
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onProgressInfo(ProgressInfo info, Object addiInfo) {
+    }
+
+    @Override
+    public void onPrinterDiscovery(PrinterAddress address, PrinterInfo info) {
+        seen(address, info);
+    }
+
+    @Override
+    public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+    }
+
+    private static class Entry {
+        PrinterAddress address;
+        PrinterInfo info;
+        long lastSeen;
+        int attempts;
+        int successes;
+        long latency = -1;
+        // System.nanoTime() of the connection in progress, 0 if none
+        long connectStart;
+    }
+
+    // Connection time in milliseconds that halves the rank, also assumed for printers never connected
+    private static final long SLOW_CONNECT = 2000;
+
+    private final long ttl;
+    private final ExecutorService executor;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean scanning = false;
+}
@@ -0,0 +1,284 @@
+package com.printer.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterInfo;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.dothantech.printer.IDzPrinter.ProgressInfo;
+
+// Several printers of one station used as a single print target.
+// Each printer has its own transport (one LPAPI instance per device) and its own short PrintQueue. A job is routed to
+// the connected printer with the fewest jobs; when a printer reports Disconnected, the jobs it had not sent yet are
+// moved to the other printers, and a ConnectionSupervisor opens it again. After shutdown() jobs are failed with Cancelled.
+public class PrinterPool {
+
+    // Creates the transport of one printer of the pool
+    public interface TransportFactory {
+        PrinterTransport createTransport(PrinterAddress address);
+    }
+
+    // One LPAPI instance per printer
+    public static final TransportFactory LPAPI_TRANSPORTS = new TransportFactory() {
+        @Override
+        public PrinterTransport createTransport(PrinterAddress address) {
+            return new LpapiTransport();
+        }
+    };
+
+    // Jobs kept by each printer; small so that a slow printer does not hold work the others could do
+    public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    public PrinterPool(TransportFactory factory) {
+        this(factory, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public PrinterPool(TransportFactory factory, int queueCapacity) {
+        this.factory = factory;
+        this.queueCapacity = queueCapacity;
+    }
+
+    // Opens a printer and adds it to the pool, an address already in the pool is ignored
+    public boolean addPrinter(PrinterAddress address) {
+        if (address == null) return false;
+        Member member;
+        synchronized (this) {
+            if (find(address) != null) return false;
+            member = new Member(address, factory.createTransport(address));
+            members.add(member);
+        }
+
+        // The pool hears of a disconnect before the queue does, so the jobs waiting are moved to the other printers
+        // before the dispatcher takes the next one
+        member.transport.addCallback(member);
+        member.queue.start();
+        if (!member.supervisor.connect(address)) {
+            removePrinter(address);
+            return false;
+        }
+        return true;
+    }
+
+    // Opens every given printer, e.g. the list returned by LPAPI.getAllPrinterAddresses(null)
+    public int addPrinters(List<PrinterAddress> addresses) {
+        int count = 0;
+        if (addresses != null) {
+            for (PrinterAddress address : addresses) {
+                if (addPrinter(address)) count++;
+            }
+        }
+        return count;
+    }
+
+    // Closes a printer, its jobs not sent yet are moved to the other printers
+    public void removePrinter(PrinterAddress address) {
+        Member member;
+        synchronized (this) {
+            member = find(address);
+            if (member == null) return;
+            members.remove(member);
+        }
+        member.connected = false;
+        member.transport.removeCallback(member);
+        member.supervisor.shutdown();
+        reroute(member);
+        member.queue.shutdown();
+        member.transport.quit();
+    }
+
+    public int getPrinterCount() {
+        return members.size();
+    }
+
+    public int getConnectedCount() {
+        int count = 0;
+        for (Member member : members) {
+            if (member.connected) count++;
+        }
+        return count;
+    }
+
+    // Jobs waiting in the pool and in the printer queues, including the ones being printed
+    public synchronized int getLoad() {
+        int load = orphans.size();
+        for (Member member : members) {
+            load += member.queue.getLoad();
+        }
+        return load;
+    }
+
+    // Routes a job to the least loaded connected printer, returns false if none has free space.
+    // After shutdown() the job is cancelled and false returned.
+    public boolean offer(PrintJob job) {
+        synchronized (this) {
+            if (!closed) return routeNew(job);
+        }
+        job.cancel(false);
+        return false;
+    }
+
+    // Routes a job, waiting until a connected printer has free space; printers that dropped the link are reconnected
+    // meanwhile. After shutdown() the job is cancelled, also when submit() was waiting.
+    public PrintJob submit(PrintJob job) throws InterruptedException {
+        synchronized (this) {
+            while (!closed) {
+                if (routeNew(job)) return job;
+                // Also woken by printers finishing jobs or connecting, the timeout covers a signal missed in between
+                wait(RETRY_MILLIS);
+            }
+        }
+        job.cancel(false);
+        return job;
+    }
+
+    // Closes every printer, jobs not sent yet are failed with Cancelled
+    public void shutdown() {
+        List<Member> all;
+        List<PrintJob> dropped;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<Member>(members);
+            members.clear();
+            dropped = new ArrayList<PrintJob>(orphans);
+            orphans.clear();
+            notifyAll();
+        }
+        for (Member member : all) {
+            member.transport.removeCallback(member);
+            member.supervisor.shutdown();
+            member.queue.shutdown();
+            member.transport.quit();
+        }
+        for (PrintJob job : dropped) {
+            job.cancel(false);
+        }
+    }
+
+    // Routes a new job behind the ones taken back from disconnected printers
+    private boolean routeNew(PrintJob job) {
+        if (!orphans.isEmpty()) {
+            flushOrphans();
+            if (!orphans.isEmpty()) return false;
+        }
+        return route(job);
+    }
+
+    private boolean route(PrintJob job) {
+        // Pick the connected printer with the fewest jobs, ties go round robin so idle printers share the work
+        Member best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        int count = members.size();
+        for (int i = 0; i < count; i++) {
+            Member member = members.get((next + i) % count);
+            if (!member.connected || member.queue.getPendingCount() >= queueCapacity) continue;
+            int load = member.queue.getLoad();
+            if (load < bestLoad) {
+                best = member;
+                bestLoad = load;
+            }
+        }
+        if (best == null || !best.queue.offer(job)) return false;
+        next = (members.indexOf(best) + 1) % Math.max(count, 1);
+        return true;
+    }
+
+    // Moves the jobs a printer has not sent yet back to the pool
+    private void reroute(Member member) {
+        List<PrintJob> jobs = new ArrayList<PrintJob>();
+        member.queue.drainTo(jobs);
+        synchronized (this) {
+            orphans.addAll(jobs);
+            flushOrphans();
+        }
+    }
+
+    // Hands the jobs taken from disconnected printers to the others, in their original order
+    private void flushOrphans() {
+        while (!orphans.isEmpty() && route(orphans.peekFirst())) {
+            orphans.pollFirst();
+        }
+        notifyAll();
+    }
+
+    private Member find(PrinterAddress address) {
+        for (Member member : members) {
+            if (member.address.macAddress.equals(address.macAddress)) return member;
+        }
+        return null;
+    }
+
+    // One printer of the pool
+    private class Member implements LPAPI.Callback {
+        Member(PrinterAddress address, PrinterTransport transport) {
+            this.address = address;
+            this.transport = transport;
+            this.queue = new PrintQueue(transport, queueCapacity);
+            this.supervisor = new ConnectionSupervisor(transport);
+        }
+
+        @Override
+        public void onStateChange(PrinterAddress arg0, PrinterState arg1) {
+            switch (arg1) {
+                case Connected:
+                case Connected2:
+                    connected = true;
+                    synchronized (PrinterPool.this) {
+                        flushOrphans();
+                    }
+                    break;
+
+                case Disconnected:
+                    // Fail over: the jobs still waiting for this printer go to the others, the supervisor reconnects it
+                    connected = false;
+                    reroute(this);
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onProgressInfo(ProgressInfo arg0, Object arg1) {
+        }
+
+        @Override
+        public void onPrinterDiscovery(PrinterAddress arg0, PrinterInfo arg1) {
+        }
+
+        @Override
+        public void onPrintProgress(PrinterAddress address, Object bitmapData, PrintProgress progress, Object addiInfo) {
+            // A printer finished a job and may take another one
+            if (progress == PrintProgress.Success || progress == PrintProgress.Failed) {
+                synchronized (PrinterPool.this) {
+                    flushOrphans();
+                }
+            }
+        }
+
+        final PrinterAddress address;
+        final PrinterTransport transport;
+        final PrintQueue queue;
+        final ConnectionSupervisor supervisor;
+        volatile boolean connected = false;
+    }
+
+    private static final long RETRY_MILLIS = 100;
+
+    private final TransportFactory factory;
+    private final int queueCapacity;
+
+    private final List<Member> members = new CopyOnWriteArrayList<Member>();
+
+    // Jobs taken back from disconnected printers and not routed yet
+    private final ArrayDeque<PrintJob> orphans = new ArrayDeque<PrintJob>();
+
+    // Printer to try first on the next tie
+    private int next = 0;
+    private boolean closed = false;
+}
@@ -0,0 +1,31 @@
+package com.printer.sdk;
+
+import com.dothantech.lpapi.LPAPI;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+
+// Connection to one label printer, the layer the print queue sends jobs through.
+// Events are reported through the same LPAPI.Callback interface the SDK uses. When a transport knows which job an
+// onPrintProgress belongs to, it passes the PrintJob as the bitmapData argument.
+public interface PrinterTransport {
+
+    void addCallback(LPAPI.Callback callback);
+
+    void removeCallback(LPAPI.Callback callback);
+
+    // Starts connecting to the printer, the result is reported through onStateChange
+    boolean openPrinter(PrinterAddress address);
+
+    void closePrinter();
+
+    PrinterState getPrinterState();
+
+    // Address of the printer last passed to openPrinter
+    PrinterAddress getPrinterAddress();
+
+    // Hands one job to the printer, progress is reported through onPrintProgress
+    boolean print(PrintJob job);
+
+    // Releases the transport, it cannot be used afterwards
+    void quit();
+}
@@ -0,0 +1,471 @@
+package com.printer.sdk;
+
+import java.io.UnsupportedEncodingException;
+
+// QR Code Model 2 encoder, versions 1 to 40.
+// The whole payload is encoded in one segment, numeric, alphanumeric or byte (UTF-8) mode, whichever is the most
+// compact mode able to hold it; the smallest version that fits is used and the mask with the lowest penalty is chosen.
+public final class QrCodeEncoder {
+
+    public enum ErrorCorrection {
+        // Recovers about 7%, 15%, 25% and 30% of the codewords
+        L(1), M(0), Q(3), H(2);
+
+        ErrorCorrection(int formatBits) {
+            this.formatBits = formatBits;
+        }
+
+        final int formatBits;
+    }
+
+    public static final ErrorCorrection DEFAULT_ERROR_CORRECTION = ErrorCorrection.M;
+
+    private QrCodeEncoder() {
+    }
+
+    public static BarcodeMatrix encode(String text, ErrorCorrection level) {
+        if (level == null) level = DEFAULT_ERROR_CORRECTION;
+
+        int mode;
+        byte[] bytes = null;
+        if (isNumeric(text)) {
+            mode = MODE_NUMERIC;
+        } else if (isAlphanumeric(text)) {
+            mode = MODE_ALPHANUMERIC;
+        } else {
+            mode = MODE_BYTE;
+            try {
+                bytes = text.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        int length = bytes != null ? bytes.length : text.length();
+
+        // Smallest version holding the data
+        int version;
+        int dataBits = -1;
+        for (version = 1; version <= 40; version++) {
+            int bits = 4 + countBits(mode, version) + payloadBits(mode, length);
+            if (length < (1 << countBits(mode, version)) && bits <= dataCodewords(version, level) * 8) {
+                dataBits = bits;
+                break;
+            }
+        }
+        if (dataBits < 0) throw new IllegalArgumentException("Too much data for a QR code: " + length + " characters");
+
+        // Data bits, terminator and padding
+        int capacity = dataCodewords(version, level);
+        BitBuffer buffer = new BitBuffer(capacity);
+        buffer.append(mode, 4);
+        buffer.append(length, countBits(mode, version));
+        if (mode == MODE_NUMERIC) {
+            for (int i = 0; i < text.length(); i += 3) {
+                int n = Math.min(3, text.length() - i);
+                buffer.append(Integer.parseInt(text.substring(i, i + n)), n * 3 + 1);
+            }
+        } else if (mode == MODE_ALPHANUMERIC) {
+            for (int i = 0; i + 1 < text.length(); i += 2) {
+                buffer.append(ALPHANUMERIC.indexOf(text.charAt(i)) * 45 + ALPHANUMERIC.indexOf(text.charAt(i + 1)), 11);
+            }
+            if ((text.length() & 1) != 0) {
+                buffer.append(ALPHANUMERIC.indexOf(text.charAt(text.length() - 1)), 6);
+            }
+        } else {
+            for (byte b : bytes) {
+                buffer.append(b & 0xFF, 8);
+            }
+        }
+        buffer.append(0, Math.min(4, capacity * 8 - buffer.length));
+        buffer.append(0, (8 - buffer.length % 8) % 8);
+        for (int pad = 0xEC; buffer.length < capacity * 8; pad ^= 0xEC ^ 0x11) {
+            buffer.append(pad, 8);
+        }
+
+        int[] codewords = interleave(buffer.codewords, version, level);
+
+        Symbol symbol = new Symbol(version);
+        symbol.drawFunctionPatterns();
+        symbol.drawCodewords(codewords);
+
+        // Mask with the lowest penalty
+        int best = 0;
+        int bestPenalty = Integer.MAX_VALUE;
+        for (int mask = 0; mask < 8; mask++) {
+            symbol.applyMask(mask);
+            symbol.drawFormat(level, mask);
+            int penalty = symbol.penalty();
+            if (penalty < bestPenalty) {
+                best = mask;
+                bestPenalty = penalty;
+            }
+            // The mask is its own inverse
+            symbol.applyMask(mask);
+        }
+        symbol.applyMask(best);
+        symbol.drawFormat(level, best);
+        return symbol.toMatrix();
+    }
+
+    /********************************************************************************************************************************************/
+    // Data capacity
+    /********************************************************************************************************************************************/
+
+    private static boolean isNumeric(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private static boolean isAlphanumeric(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (ALPHANUMERIC.indexOf(text.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    // Size of the character count field
+    private static int countBits(int mode, int version) {
+        int range = version <= 9 ? 0 : version <= 26 ? 1 : 2;
+        switch (mode) {
+            case MODE_NUMERIC:
+                return new int[]{10, 12, 14}[range];
+            case MODE_ALPHANUMERIC:
+                return new int[]{9, 11, 13}[range];
+            default:
+                return new int[]{8, 16, 16}[range];
+        }
+    }
+
+    private static int payloadBits(int mode, int length) {
+        switch (mode) {
+            case MODE_NUMERIC:
+                return length / 3 * 10 + (length % 3 == 0 ? 0 : length % 3 == 1 ? 4 : 7);
+            case MODE_ALPHANUMERIC:
+                return length / 2 * 11 + (length % 2) * 6;
+            default:
+                return length * 8;
+        }
+    }
+
+    // Modules available for data and error correction codewords, without the function patterns
+    static int rawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int align = version / 7 + 2;
+            result -= (25 * align - 10) * align - 55;
+            if (version >= 7) result -= 36;
+        }
+        return result;
+    }
+
+    static int dataCodewords(int version, ErrorCorrection level) {
+        return rawDataModules(version) / 8
+                - EC_CODEWORDS_PER_BLOCK[level.ordinal()][version] * EC_BLOCKS[level.ordinal()][version];
+    }
+
+    // Splits the data in blocks, adds the error correction of each block and interleaves them
+    private static int[] interleave(int[] data, int version, ErrorCorrection level) {
+        int blocks = EC_BLOCKS[level.ordinal()][version];
+        int ecLength = EC_CODEWORDS_PER_BLOCK[level.ordinal()][version];
+        int raw = rawDataModules(version) / 8;
+        int shortBlocks = blocks - raw % blocks;
+        int shortLength = raw / blocks - ecLength;
+
+        int[] ec = new int[blocks * ecLength];
+        int offset = 0;
+        for (int b = 0; b < blocks; b++) {
+            int length = shortLength + (b < shortBlocks ? 0 : 1);
+            ReedSolomonEncoder.QR_CODE.encode(data, offset, length, ec, b * ecLength, ecLength);
+            offset += length;
+        }
+
+        int[] result = new int[raw];
+        int k = 0;
+        for (int i = 0; i <= shortLength; i++) {
+            offset = 0;
+            for (int b = 0; b < blocks; b++) {
+                int length = shortLength + (b < shortBlocks ? 0 : 1);
+                if (i < length) result[k++] = data[offset + i];
+                offset += length;
+            }
+        }
+        for (int i = 0; i < ecLength; i++) {
+            for (int b = 0; b < blocks; b++) {
+                result[k++] = ec[b * ecLength + i];
+            }
+        }
+        return result;
+    }
+
+    private static class BitBuffer {
+        BitBuffer(int capacity) {
+            codewords = new int[capacity];
+        }
+
+        void append(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                if (((value >>> i) & 1) != 0) codewords[length >>> 3] |= 0x80 >>> (length & 7);
+                length++;
+            }
+        }
+
+        final int[] codewords;
+        int length = 0;
+    }
+
+    /********************************************************************************************************************************************/
+    // Module placement
+    /********************************************************************************************************************************************/
+
+    private static class Symbol {
+        Symbol(int version) {
+            this.version = version;
+            this.size = version * 4 + 17;
+            this.dark = new boolean[size][size];
+            this.function = new boolean[size][size];
+        }
+
+        void drawFunctionPatterns() {
+            // Timing patterns
+            for (int i = 0; i < size; i++) {
+                setFunction(6, i, i % 2 == 0);
+                setFunction(i, 6, i % 2 == 0);
+            }
+
+            drawFinder(3, 3);
+            drawFinder(size - 4, 3);
+            drawFinder(3, size - 4);
+
+            int[] positions = alignmentPositions();
+            int n = positions.length;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    // Not over the finder patterns
+                    if (!(i == 0 && j == 0 || i == 0 && j == n - 1 || i == n - 1 && j == 0)) {
+                        drawAlignment(positions[i], positions[j]);
+                    }
+                }
+            }
+
+            // Format areas are reserved now and written with each mask
+            drawFormat(ErrorCorrection.L, 0);
+            drawVersion();
+        }
+
+        void drawFormat(ErrorCorrection level, int mask) {
+            int data = level.formatBits << 3 | mask;
+            int rem = data;
+            for (int i = 0; i < 10; i++) {
+                rem = (rem << 1) ^ ((rem >>> 9) * 0x537);
+            }
+            int bits = (data << 10 | rem) ^ 0x5412;
+
+            // Around the top left finder
+            for (int i = 0; i <= 5; i++) {
+                setFunction(8, i, bit(bits, i));
+            }
+            setFunction(8, 7, bit(bits, 6));
+            setFunction(8, 8, bit(bits, 7));
+            setFunction(7, 8, bit(bits, 8));
+            for (int i = 9; i < 15; i++) {
+                setFunction(14 - i, 8, bit(bits, i));
+            }
+
+            // Copy next to the two other finders
+            for (int i = 0; i < 8; i++) {
+                setFunction(size - 1 - i, 8, bit(bits, i));
+            }
+            for (int i = 8; i < 15; i++) {
+                setFunction(8, size - 15 + i, bit(bits, i));
+            }
+            // Always dark module
+            setFunction(8, size - 8, true);
+        }
+
+        private void drawVersion() {
+            if (version < 7) return;
+            int rem = version;
+            for (int i = 0; i < 12; i++) {
+                rem = (rem << 1) ^ ((rem >>> 11) * 0x1F25);
+            }
+            int bits = version << 12 | rem;
+            for (int i = 0; i < 18; i++) {
+                boolean b = bit(bits, i);
+                int a = size - 11 + i % 3;
+                int c = i / 3;
+                setFunction(a, c, b);
+                setFunction(c, a, b);
+            }
+        }
+
+        private void drawFinder(int x, int y) {
+            for (int dy = -4; dy <= 4; dy++) {
+                for (int dx = -4; dx <= 4; dx++) {
+                    int distance = Math.max(Math.abs(dx), Math.abs(dy));
+                    int xx = x + dx;
+                    int yy = y + dy;
+                    if (xx >= 0 && xx < size && yy >= 0 && yy < size) {
+                        setFunction(xx, yy, distance != 2 && distance != 4);
+                    }
+                }
+            }
+        }
+
+        private void drawAlignment(int x, int y) {
+            for (int dy = -2; dy <= 2; dy++) {
+                for (int dx = -2; dx <= 2; dx++) {
+                    setFunction(x + dx, y + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+                }
+            }
+        }
+
+        private int[] alignmentPositions() {
+            if (version == 1) return new int[0];
+            int count = version / 7 + 2;
+            int step = version == 32 ? 26 : (version * 4 + count * 2 + 1) / (count * 2 - 2) * 2;
+            int[] result = new int[count];
+            result[0] = 6;
+            for (int i = count - 1, pos = size - 7; i >= 1; i--, pos -= step) {
+                result[i] = pos;
+            }
+            return result;
+        }
+
+        // Zigzag placement from the bottom right corner, two columns at a time, skipping function modules
+        void drawCodewords(int[] codewords) {
+            int i = 0;
+            int total = codewords.length * 8;
+            for (int right = size - 1; right >= 1; right -= 2) {
+                // The vertical timing pattern column is skipped
+                if (right == 6) right = 5;
+                for (int vert = 0; vert < size; vert++) {
+                    for (int j = 0; j < 2; j++) {
+                        int x = right - j;
+                        boolean upward = ((right + 1) & 2) == 0;
+                        int y = upward ? size - 1 - vert : vert;
+                        if (!function[y][x] && i < total) {
+                            dark[y][x] = ((codewords[i >>> 3] >>> (7 - (i & 7))) & 1) != 0;
+                            i++;
+                        }
+                    }
+                }
+            }
+        }
+
+        void applyMask(int mask) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (function[y][x]) continue;
+                    boolean invert;
+                    switch (mask) {
+                        case 0: invert = (x + y) % 2 == 0; break;
+                        case 1: invert = y % 2 == 0; break;
+                        case 2: invert = x % 3 == 0; break;
+                        case 3: invert = (x + y) % 3 == 0; break;
+                        case 4: invert = (x / 3 + y / 2) % 2 == 0; break;
+                        case 5: invert = x * y % 2 + x * y % 3 == 0; break;
+                        case 6: invert = (x * y % 2 + x * y % 3) % 2 == 0; break;
+                        default: invert = ((x + y) % 2 + x * y % 3) % 2 == 0; break;
+                    }
+                    if (invert) dark[y][x] = !dark[y][x];
+                }
+            }
+        }
+
+        // Penalty score of the current modules, rules N1 to N4 of the specification
+        int penalty() {
+            int result = 0;
+
+            // N1 runs of 5 or more modules of one color and N3 finder-like patterns, in rows then in columns
+            for (int pass = 0; pass < 2; pass++) {
+                for (int a = 0; a < size; a++) {
+                    int run = 0;
+                    boolean runColor = false;
+                    int history = 0;
+                    for (int b = 0; b < size; b++) {
+                        boolean color = pass == 0 ? dark[a][b] : dark[b][a];
+                        if (b == 0 || color != runColor) {
+                            runColor = color;
+                            run = 1;
+                        } else {
+                            run++;
+                            if (run == 5) result += 3;
+                            else if (run > 5) result++;
+                        }
+                        // 1011101 with 4 light modules on either side
+                        history = ((history << 1) | (color ? 1 : 0)) & 0x7FF;
+                        if (b >= 10 && (history == 0x05D || history == 0x5D0)) result += 40;
+                    }
+                }
+            }
+
+            // N2 blocks of 2x2 modules of one color
+            for (int y = 0; y < size - 1; y++) {
+                for (int x = 0; x < size - 1; x++) {
+                    boolean color = dark[y][x];
+                    if (color == dark[y][x + 1] && color == dark[y + 1][x] && color == dark[y + 1][x + 1]) result += 3;
+                }
+            }
+
+            // N4 balance of dark modules, 10 points per 5% away from half
+            int darkCount = 0;
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (dark[y][x]) darkCount++;
+                }
+            }
+            int total = size * size;
+            int k = (Math.abs(darkCount * 20 - total * 10) + total - 1) / total - 1;
+            result += Math.max(0, k) * 10;
+            return result;
+        }
+
+        BarcodeMatrix toMatrix() {
+            BarcodeMatrix matrix = new BarcodeMatrix(size, size);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (dark[y][x]) matrix.set(x, y, true);
+                }
+            }
+            return matrix;
+        }
+
+        private void setFunction(int x, int y, boolean value) {
+            dark[y][x] = value;
+            function[y][x] = true;
+        }
+
+        private static boolean bit(int value, int i) {
+            return ((value >>> i) & 1) != 0;
+        }
+
+        private final int version;
+        private final int size;
+        private final boolean[][] dark;
+        private final boolean[][] function;
+    }
+
+    private static final int MODE_NUMERIC = 0x1;
+    private static final int MODE_ALPHANUMERIC = 0x2;
+    private static final int MODE_BYTE = 0x4;
+
+    private static final String ALPHANUMERIC = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ $%*+-./:";
+
+    // By error correction level (L, M, Q, H) and version, index 0 unused
+    private static final int[][] EC_CODEWORDS_PER_BLOCK = {
+            {-1, 7, 10, 15, 20, 26, 18, 20, 24, 30, 18, 20, 24, 26, 30, 22, 24, 28, 30, 28, 28, 28, 28, 30, 30, 26, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+            {-1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26, 26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28},
+            {-1, 13, 22, 18, 26, 18, 24, 18, 22, 20, 24, 28, 26, 24, 20, 30, 24, 28, 28, 26, 30, 28, 30, 30, 30, 30, 28, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30},
+            {-1, 17, 28, 22, 16, 22, 28, 26, 26, 24, 28, 24, 28, 22, 24, 24, 30, 28, 28, 26, 28, 30, 24, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30}
+    };
+
+    private static final int[][] EC_BLOCKS = {
+            {-1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 4, 4, 4, 4, 4, 6, 6, 6, 6, 7, 8, 8, 9, 9, 10, 12, 12, 12, 13, 14, 15, 16, 17, 18, 19, 19, 20, 21, 22, 24, 25},
+            {-1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16, 17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49},
+            {-1, 1, 1, 2, 2, 4, 4, 6, 6, 8, 8, 8, 10, 12, 16, 12, 17, 16, 18, 21, 20, 23, 23, 25, 27, 29, 34, 34, 35, 38, 40, 43, 45, 48, 51, 53, 56, 59, 62, 65, 68},
+            {-1, 1, 1, 2, 4, 4, 4, 5, 6, 8, 8, 11, 11, 16, 16, 18, 16, 19, 21, 25, 25, 25, 34, 30, 32, 35, 37, 40, 42, 45, 48, 51, 54, 57, 60, 63, 66, 70, 74, 77, 81}
+    };
+}
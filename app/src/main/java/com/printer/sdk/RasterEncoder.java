@@ -0,0 +1,306 @@
+package com.printer.sdk;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+// Compact raster stream of a 1-bit label, for links where the bytes sent are the cost (Bluetooth SPP).
+// Labels are mostly white: blank rows become a feed, a row equal to the previous one a repeat, and the other rows
+// are sent without their white margins, PackBits compressed or as the difference with the previous row, whichever
+// is shortest.
+//
+// Stream: 'R' 'S' version, width and height in dots, then commands until END. Counts are unsigned 16-bit big endian.
+//   FEED n             n blank rows
+//   REPEAT n           n more copies of the previous row
+//   ROW left count     row with count bytes from byte left, PackBits compressed, the rest of the row white
+//   DELTA left count   previous row XOR count bytes from byte left, PackBits compressed
+//   RAW left count     row with count uncompressed bytes from byte left, the rest of the row white
+//   END
+// Streams come from outside the app (PrintGateway, PrintService): decode() rejects a label wider than MAX_WIDTH or
+// larger than MAX_SIZE bytes of dots before allocating it.
+public final class RasterEncoder {
+
+    public static final int FEED = 0x10;
+    public static final int REPEAT = 0x11;
+    public static final int ROW = 0x12;
+    public static final int DELTA = 0x13;
+    public static final int RAW = 0x14;
+    public static final int END = 0x00;
+
+    // Widest label decoded, the print head of a 104 mm printer at 300 dpi
+    public static final int MAX_WIDTH = 1248;
+
+    // Most bytes of dots of a decoded label, about 57 cm of the widest label
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    private RasterEncoder() {
+    }
+
+    public static byte[] encode(MonoBitmap label) {
+        int stride = label.getStride();
+        int height = label.getHeight();
+        byte[] data = label.getData();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(stride * 8 + 16);
+        out.write(MAGIC_R);
+        out.write(MAGIC_S);
+        out.write(VERSION);
+        writeCount(out, label.getWidth());
+        writeCount(out, height);
+
+        byte[] previous = new byte[stride];
+        byte[] xor = new byte[stride];
+        byte[] packed = new byte[packedBound(stride)];
+        byte[] packedDelta = new byte[packedBound(stride)];
+        int feed = 0;
+        int repeat = 0;
+        for (int y = 0; y < height; y++) {
+            int offset = y * stride;
+            int left = 0;
+            while (left < stride && data[offset + left] == 0) {
+                left++;
+            }
+
+            if (left == stride) {
+                repeat = flush(out, REPEAT, repeat);
+                feed++;
+                Arrays.fill(previous, (byte) 0);
+                continue;
+            }
+            if (feed == 0 && sameRow(data, offset, previous)) {
+                repeat++;
+                continue;
+            }
+            feed = flush(out, FEED, feed);
+            repeat = flush(out, REPEAT, repeat);
+
+            int right = stride;
+            while (data[offset + right - 1] == 0) {
+                right--;
+            }
+            int rowLength = packBits(data, offset + left, right - left, packed);
+
+            // Difference with the previous row, only its changed span is sent
+            int deltaLeft = -1;
+            int deltaRight = 0;
+            int deltaLength = Integer.MAX_VALUE;
+            for (int i = 0; i < stride; i++) {
+                xor[i] = (byte) (data[offset + i] ^ previous[i]);
+                if (xor[i] != 0) {
+                    if (deltaLeft < 0) deltaLeft = i;
+                    deltaRight = i + 1;
+                }
+            }
+            boolean blankPrevious = isBlank(previous);
+            if (!blankPrevious) {
+                deltaLength = packBits(xor, deltaLeft, deltaRight - deltaLeft, packedDelta);
+            }
+
+            if (deltaLength < rowLength && deltaLength < right - left) {
+                writeCommand(out, DELTA, deltaLeft, deltaRight - deltaLeft);
+                out.write(packedDelta, 0, deltaLength);
+            } else if (rowLength < right - left) {
+                writeCommand(out, ROW, left, right - left);
+                out.write(packed, 0, rowLength);
+            } else {
+                writeCommand(out, RAW, left, right - left);
+                out.write(data, offset + left, right - left);
+            }
+            System.arraycopy(data, offset, previous, 0, stride);
+        }
+        flush(out, FEED, feed);
+        flush(out, REPEAT, repeat);
+        out.write(END);
+        return out.toByteArray();
+    }
+
+    // Decodes a stream made by encode(), throws IllegalArgumentException if it is not a valid stream
+    public static MonoBitmap decode(byte[] stream) {
+        Reader in = new Reader(stream);
+        if (in.next() != MAGIC_R || in.next() != MAGIC_S || in.next() != VERSION) {
+            throw new IllegalArgumentException("Not a raster stream");
+        }
+        int width = in.count();
+        int height = in.count();
+        if (width < 1 || width > MAX_WIDTH) throw new IllegalArgumentException("Label width out of range: " + width);
+        if ((long) ((width + 7) / 8) * height > MAX_SIZE) {
+            throw new IllegalArgumentException("Label too large: " + width + "x" + height);
+        }
+        MonoBitmap label = new MonoBitmap(width, height);
+        int stride = label.getStride();
+        byte[] data = label.getData();
+        byte[] previous = new byte[stride];
+        int y = 0;
+        while (true) {
+            int command = in.next();
+            if (command == END) break;
+            switch (command) {
+                case FEED: {
+                    int n = in.count();
+                    checkRows(label, y + n);
+                    Arrays.fill(previous, (byte) 0);
+                    y += n;
+                    break;
+                }
+
+                case REPEAT: {
+                    int n = in.count();
+                    checkRows(label, y + n);
+                    for (int i = 0; i < n; i++, y++) {
+                        System.arraycopy(previous, 0, data, y * stride, stride);
+                    }
+                    break;
+                }
+
+                case ROW:
+                case DELTA:
+                case RAW: {
+                    int left = in.count();
+                    int count = in.count();
+                    if (left + count > stride) throw new IllegalArgumentException("Row span out of the label at row " + y);
+                    checkRows(label, y + 1);
+                    if (command != DELTA) Arrays.fill(previous, (byte) 0);
+                    if (command == RAW) {
+                        in.read(previous, left, count);
+                    } else {
+                        in.unpackBits(previous, left, count, command == DELTA);
+                    }
+                    System.arraycopy(previous, 0, data, y * stride, stride);
+                    y++;
+                    break;
+                }
+
+                default:
+                    throw new IllegalArgumentException("Unknown raster command 0x" + Integer.toHexString(command));
+            }
+        }
+        if (y != label.getHeight()) throw new IllegalArgumentException("Raster stream ends at row " + y + " of " + label.getHeight());
+        return label;
+    }
+
+    // PackBits: a header n of 0 to 127 is followed by n + 1 literal bytes, a header of -1 to -127 by one byte
+    // repeated 1 - n times. Returns the packed length.
+    static int packBits(byte[] src, int offset, int length, byte[] dst) {
+        int out = 0;
+        int i = 0;
+        while (i < length) {
+            // Runs of 3 bytes or more are worth a repeat
+            int run = 1;
+            while (i + run < length && run < 128 && src[offset + i + run] == src[offset + i]) {
+                run++;
+            }
+            if (run >= 3) {
+                dst[out++] = (byte) (1 - run);
+                dst[out++] = src[offset + i];
+                i += run;
+                continue;
+            }
+
+            int start = i;
+            while (i < length && i - start < 128) {
+                if (i + 2 < length && src[offset + i] == src[offset + i + 1] && src[offset + i] == src[offset + i + 2]) break;
+                i++;
+            }
+            dst[out++] = (byte) (i - start - 1);
+            System.arraycopy(src, offset + start, dst, out, i - start);
+            out += i - start;
+        }
+        return out;
+    }
+
+    private static int packedBound(int length) {
+        return length + (length + 127) / 128;
+    }
+
+    private static boolean sameRow(byte[] data, int offset, byte[] row) {
+        for (int i = 0; i < row.length; i++) {
+            if (data[offset + i] != row[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isBlank(byte[] row) {
+        for (byte b : row) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static void checkRows(MonoBitmap label, int rows) {
+        if (rows > label.getHeight()) throw new IllegalArgumentException("Raster stream longer than " + label.getHeight() + " rows");
+    }
+
+    // Writes the pending feed or repeat count, returns 0
+    private static int flush(ByteArrayOutputStream out, int command, int count) {
+        while (count > 0) {
+            int n = Math.min(count, MAX_COUNT);
+            out.write(command);
+            writeCount(out, n);
+            count -= n;
+        }
+        return 0;
+    }
+
+    private static void writeCommand(ByteArrayOutputStream out, int command, int left, int count) {
+        out.write(command);
+        writeCount(out, left);
+        writeCount(out, count);
+    }
+
+    private static void writeCount(ByteArrayOutputStream out, int count) {
+        if (count < 0 || count > MAX_COUNT) throw new IllegalArgumentException("Count out of range: " + count);
+        out.write(count >>> 8);
+        out.write(count & 0xFF);
+    }
+
+    private static class Reader {
+        Reader(byte[] stream) {
+            this.stream = stream;
+        }
+
+        int next() {
+            if (pos >= stream.length) throw new IllegalArgumentException("Truncated raster stream");
+            return stream[pos++] & 0xFF;
+        }
+
+        int count() {
+            return (next() << 8) | next();
+        }
+
+        void read(byte[] dst, int offset, int length) {
+            if (pos + length > stream.length) throw new IllegalArgumentException("Truncated raster stream");
+            System.arraycopy(stream, pos, dst, offset, length);
+            pos += length;
+        }
+
+        // Unpacks exactly length bytes, XORed into dst when xor is set
+        void unpackBits(byte[] dst, int offset, int length, boolean xor) {
+            int i = 0;
+            while (i < length) {
+                int n = (byte) next();
+                int run = n >= 0 ? n + 1 : 1 - n;
+                if (n == -128 || i + run > length) throw new IllegalArgumentException("Bad PackBits run");
+                if (n >= 0) {
+                    for (int k = 0; k < run; k++) {
+                        put(dst, offset + i++, (byte) next(), xor);
+                    }
+                } else {
+                    byte value = (byte) next();
+                    for (int k = 0; k < run; k++) {
+                        put(dst, offset + i++, value, xor);
+                    }
+                }
+            }
+        }
+
+        private static void put(byte[] dst, int index, byte value, boolean xor) {
+            dst[index] = xor ? (byte) (dst[index] ^ value) : value;
+        }
+
+        private final byte[] stream;
+        private int pos = 0;
+    }
+
+    private static final int MAGIC_R = 'R';
+    private static final int MAGIC_S = 'S';
+    private static final int VERSION = 1;
+    private static final int MAX_COUNT = 0xFFFF;
+}
@@ -0,0 +1,78 @@
+package com.printer.sdk;
+
+// Reed-Solomon error correction codewords over GF(256), as used by QR Code and Data Matrix.
+// The two symbologies differ by the field polynomial and by the first root of the generator polynomial.
+class ReedSolomonEncoder {
+
+    // QR Code: x^8 + x^4 + x^3 + x^2 + 1, generator roots a^0, a^1...
+    static final ReedSolomonEncoder QR_CODE = new ReedSolomonEncoder(0x11D, 0);
+    // Data Matrix: x^8 + x^5 + x^3 + x^2 + 1, generator roots a^1, a^2...
+    static final ReedSolomonEncoder DATA_MATRIX = new ReedSolomonEncoder(0x12D, 1);
+
+    private ReedSolomonEncoder(int polynomial, int firstRoot) {
+        this.firstRoot = firstRoot;
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            exp[i] = value;
+            log[value] = i;
+            value <<= 1;
+            if (value >= 256) value ^= polynomial;
+        }
+        for (int i = 255; i < exp.length; i++) {
+            exp[i] = exp[i - 255];
+        }
+    }
+
+    int multiply(int a, int b) {
+        if (a == 0 || b == 0) return 0;
+        return exp[log[a] + log[b]];
+    }
+
+    // Coefficients of the generator polynomial of the given degree, highest degree first without the leading 1
+    synchronized int[] generator(int degree) {
+        int[] cached = generators[degree];
+        if (cached != null) return cached;
+
+        int[] poly = new int[degree + 1];
+        poly[0] = 1;
+        for (int i = 0; i < degree; i++) {
+            // Multiply by (x - a^(firstRoot + i))
+            int root = exp[firstRoot + i];
+            for (int j = i + 1; j > 0; j--) {
+                poly[j] = poly[j - 1] ^ multiply(poly[j], root);
+            }
+            poly[0] = multiply(poly[0], root);
+        }
+        // poly is lowest degree first here, with poly[degree] == 1
+        int[] result = new int[degree];
+        for (int i = 0; i < degree; i++) {
+            result[i] = poly[degree - 1 - i];
+        }
+        generators[degree] = result;
+        return result;
+    }
+
+    // Writes the ecCount error correction codewords of data[offset, offset + length) to ec[ecOffset...]
+    void encode(int[] data, int offset, int length, int[] ec, int ecOffset, int ecCount) {
+        int[] gen = generator(ecCount);
+        for (int i = 0; i < ecCount; i++) {
+            ec[ecOffset + i] = 0;
+        }
+        // Polynomial division by the generator, the remainder is kept in ec
+        for (int i = 0; i < length; i++) {
+            int factor = data[offset + i] ^ ec[ecOffset];
+            System.arraycopy(ec, ecOffset + 1, ec, ecOffset, ecCount - 1);
+            ec[ecOffset + ecCount - 1] = 0;
+            if (factor != 0) {
+                for (int j = 0; j < ecCount; j++) {
+                    ec[ecOffset + j] ^= multiply(gen[j], factor);
+                }
+            }
+        }
+    }
+
+    private final int firstRoot;
+    private final int[] exp = new int[512];
+    private final int[] log = new int[256];
+    private final int[][] generators = new int[256][];
+}
@@ -0,0 +1,180 @@
+package com.printer.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dothantech.lpapi.IAtBitmap;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+
+import android.graphics.Bitmap;
+
+// Two-stage label pipeline: a pool of render workers draws labels into bitmaps ahead of time while the print queue,
+// the single transport stage, sends them in submission order.
+// The lookahead is the number of labels between submission and the printer's Success or Failed, including the label
+// being printed; submit() blocks when it is reached so rendered bitmaps cannot pile up.
+public class RenderPipeline {
+
+    // Draws one label page on an LPAPI off-screen renderer, starting with startJob.
+    // The pipeline ends the job and sends its first page.
+    public interface Drawing {
+        boolean draw(IAtBitmap canvas);
+    }
+
+    public static final int DEFAULT_LOOKAHEAD = 3;
+
+    public RenderPipeline(PrintQueue queue, int workers, int lookahead) {
+        this.queue = queue;
+        this.lookahead = new Semaphore(Math.max(1, lookahead));
+        this.executor = Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "LabelRender-" + sThreadCount.incrementAndGet());
+                // Rendering must not slow down the UI thread
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+    }
+
+    // Renders a label with the off-screen renderer of a worker thread, waiting if the lookahead is reached
+    public PrintJob submit(Drawing drawing, PrintParams params, PrintJob.Listener listener) throws InterruptedException {
+        return submit(new DrawingTask(drawing), params, listener);
+    }
+
+    // Renders a label with any bitmap producer (e.g. LabelTemplate.render), waiting if the lookahead is reached
+    public PrintJob submit(Callable<Bitmap> render, PrintParams params, PrintJob.Listener listener) throws InterruptedException {
+        return submit(render, params, null, listener);
+    }
+
+    // Same as submit() for a label identified by its key, see PrintJob.canCoalesce()
+    public PrintJob submit(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Listener listener)
+            throws InterruptedException {
+        return submit(render, params, labelKey, PrintJob.Priority.NORMAL, null, listener);
+    }
+
+    // Same as submit() for a job of the given priority and source, see JobScheduler
+    public PrintJob submit(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Priority priority,
+            String source, PrintJob.Listener listener) throws InterruptedException {
+        lookahead.acquire();
+        return enqueue(render, params, labelKey, priority, source, listener, true);
+    }
+
+    // Same as submit() but returns null instead of waiting, for the UI thread
+    public PrintJob offer(Callable<Bitmap> render, PrintParams params, PrintJob.Listener listener) {
+        return offer(render, params, null, listener);
+    }
+
+    // Same as offer() for a label identified by its key, see PrintJob.canCoalesce()
+    public PrintJob offer(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Listener listener) {
+        return offer(render, params, labelKey, PrintJob.Priority.NORMAL, null, listener);
+    }
+
+    // Same as offer() for a job of the given priority and source, see JobScheduler
+    public PrintJob offer(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Priority priority,
+            String source, PrintJob.Listener listener) {
+        if (!lookahead.tryAcquire()) return null;
+        try {
+            return enqueue(render, params, labelKey, priority, source, listener, false);
+        } catch (InterruptedException e) {
+            // offer() on the print queue never waits
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Same as submit() but returns null instead of waiting, for the UI thread
+    public PrintJob offer(Drawing drawing, PrintParams params, PrintJob.Listener listener) {
+        return offer(new DrawingTask(drawing), params, listener);
+    }
+
+    // Stops the render workers, labels not rendered yet fail with Cancelled when the queue reaches them
+    public void shutdown() {
+        // Renders that never started are handed back, not cancelled: the queue would wait for them forever
+        for (Runnable task : executor.shutdownNow()) {
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+    }
+
+    private PrintJob enqueue(Callable<Bitmap> render, PrintParams params, String labelKey, PrintJob.Priority priority,
+            String source, final PrintJob.Listener listener, boolean wait) throws InterruptedException {
+        FutureTask<Bitmap> task = new FutureTask<Bitmap>(render);
+        PrintJob job = new PrintJob(task, params, labelKey, new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                if (progress == PrintProgress.Success || progress == PrintProgress.Failed) {
+                    lookahead.release();
+                }
+                if (listener != null) {
+                    listener.onPrintProgress(job, progress, addiInfo);
+                }
+            }
+        });
+        job.setPriority(priority).setSource(source);
+
+        // Rendering starts right away, the queue only waits for it when the job reaches the printer
+        executor.execute(task);
+        boolean queued = false;
+        try {
+            if (wait) {
+                queue.submit(job);
+                queued = true;
+            } else {
+                queued = queue.offer(job);
+            }
+        } finally {
+            if (!queued) {
+                // The job never reached the queue, nobody has seen it yet
+                task.cancel(true);
+                lookahead.release();
+            }
+        }
+        return queued ? job : null;
+    }
+
+    // Runs a Drawing on the off-screen renderer of the current worker thread
+    private static class DrawingTask implements Callable<Bitmap> {
+        DrawingTask(Drawing drawing) {
+            this.drawing = drawing;
+        }
+
+        @Override
+        public Bitmap call() throws Exception {
+            IAtBitmap canvas = sRenderer.get();
+            if (!drawing.draw(canvas)) {
+                canvas.abortJob();
+                throw new IllegalStateException("Label drawing failed");
+            }
+            canvas.endJob();
+            List<Bitmap> pages = new ArrayList<Bitmap>();
+            canvas.getJobPages(pages);
+            if (pages.isEmpty()) throw new IllegalStateException("Label drawing produced no page");
+            return pages.get(0);
+        }
+
+        private final Drawing drawing;
+    }
+
+    // One off-screen renderer per worker thread, IAtBitmap is not meant to be shared between threads
+    private static final ThreadLocal<IAtBitmap> sRenderer = new ThreadLocal<IAtBitmap>() {
+        @Override
+        protected IAtBitmap initialValue() {
+            return IAtBitmap.Factory.createInstance();
+        }
+    };
+
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+
+    private final PrintQueue queue;
+    private final Semaphore lookahead;
+    private final ExecutorService executor;
+}
@@ -0,0 +1,263 @@
+package com.printer.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Printer-ready labels (1-bit dots) by a hash of their content and print parameters, so a reprint skips rendering.
+// A memory tier keeps the most recently used labels up to a byte size; the optional disk tier keeps them as packed
+// 1bpp files, the least recently used deleted first, so they survive the activity.
+public class RenderedLabelCache {
+
+    public RenderedLabelCache(long maxMemoryBytes) {
+        this(maxMemoryBytes, null, 0);
+    }
+
+    // diskDir: directory for the disk tier, created if needed, null for memory only
+    public RenderedLabelCache(long maxMemoryBytes, File diskDir, long maxDiskBytes) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskDir = diskDir;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    // Key of a label: SHA-256 of the parameters changing the printout and of every part describing the content
+    // (template name, resolution, slot values...); null parts are allowed
+    public static String key(PrintParams params, Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, params.getDensity() + "," + params.getSpeed() + "," + params.getGapType() + "," + params.getOrientation());
+            for (Object part : parts) {
+                update(digest, part == null ? null : part.toString());
+            }
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Each part is length prefixed so ("ab", "c") and ("a", "bc") do not collide
+    private static void update(MessageDigest digest, String part) {
+        if (part == null) {
+            digest.update(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+            return;
+        }
+        try {
+            byte[] bytes = part.getBytes("UTF-8");
+            int n = bytes.length;
+            digest.update(new byte[]{(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+            digest.update(bytes);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The cached label, looked up in memory then on disk, or null
+    public MonoBitmap get(String key) {
+        synchronized (this) {
+            MonoBitmap label = memory.get(key);
+            if (label != null) {
+                memoryHits++;
+                return label;
+            }
+        }
+
+        MonoBitmap label = readDisk(key);
+        synchronized (this) {
+            if (label != null) {
+                diskHits++;
+                putMemory(key, label);
+            } else {
+                misses++;
+            }
+        }
+        return label;
+    }
+
+    // Keeps a rendered label, the bitmap must not be changed afterwards
+    public void put(String key, MonoBitmap label) {
+        synchronized (this) {
+            putMemory(key, label);
+        }
+        try {
+            writeDisk(key, label);
+        } catch (IOException e) {
+            // The memory tier still has it
+            e.printStackTrace();
+        }
+    }
+
+    // Empties the memory tier, e.g. when the system is low on memory; the disk tier still has the labels
+    public synchronized void clearMemory() {
+        memory.clear();
+        memorySize = 0;
+    }
+
+    // Empties both tiers
+    public void clear() {
+        clearMemory();
+        if (diskDir != null) {
+            synchronized (diskDir) {
+                File[] files = diskDir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(SUFFIX)) file.delete();
+                    }
+                }
+                diskSize = -1;
+            }
+        }
+    }
+
+    public synchronized long getMemoryHitCount() {
+        return memoryHits;
+    }
+
+    public synchronized long getDiskHitCount() {
+        return diskHits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void putMemory(String key, MonoBitmap label) {
+        MonoBitmap previous = memory.put(key, label);
+        if (previous != null) memorySize -= previous.getData().length;
+        memorySize += label.getData().length;
+        Iterator<MonoBitmap> it = memory.values().iterator();
+        while (memorySize > maxMemoryBytes && it.hasNext()) {
+            memorySize -= it.next().getData().length;
+            it.remove();
+        }
+    }
+
+    /********************************************************************************************************************************************/
+    // Disk tier
+    /********************************************************************************************************************************************/
+
+    private MonoBitmap readDisk(String key) {
+        if (diskDir == null) return null;
+        File file = new File(diskDir, key + SUFFIX);
+        synchronized (diskDir) {
+            if (!file.exists()) return null;
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() != MAGIC) throw new IOException("Not a label file " + file);
+                    int width = in.readInt();
+                    int height = in.readInt();
+                    // The size must match the dots in the file before anything is allocated
+                    if (width <= 0 || height <= 0 || (long) ((width + 7) / 8) * height != file.length() - HEADER_SIZE) {
+                        throw new IOException("Corrupt label file " + file);
+                    }
+                    MonoBitmap label = new MonoBitmap(width, height);
+                    in.readFully(label.getData());
+                    // Most recently used for the eviction order
+                    file.setLastModified(System.currentTimeMillis());
+                    return label;
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // Truncated or foreign file, it is rendered again
+                file.delete();
+                diskSize = -1;
+                return null;
+            } catch (IllegalArgumentException e) {
+                file.delete();
+                diskSize = -1;
+                return null;
+            }
+        }
+    }
+
+    private void writeDisk(String key, MonoBitmap label) throws IOException {
+        if (diskDir == null) return;
+        synchronized (diskDir) {
+            if (!diskDir.isDirectory() && !diskDir.mkdirs()) throw new IOException("Cannot create " + diskDir);
+            File file = new File(diskDir, key + SUFFIX);
+            if (file.exists()) return;
+
+            // Written to a temporary file first so a crash never leaves a truncated label
+            File tmp = new File(diskDir, key + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(label.getWidth());
+                out.writeInt(label.getHeight());
+                out.write(label.getData());
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot write " + file);
+            }
+
+            if (diskSize >= 0) diskSize += file.length();
+            trimDisk();
+        }
+    }
+
+    // Deletes the least recently used files until the disk tier fits, called with the diskDir lock
+    private void trimDisk() {
+        if (diskSize >= 0 && diskSize <= maxDiskBytes) return;
+        File[] files = diskDir.listFiles();
+        if (files == null) return;
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size > maxDiskBytes) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    long diff = a.lastModified() - b.lastModified();
+                    return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+                }
+            });
+            for (int i = 0; i < files.length && size > maxDiskBytes; i++) {
+                long length = files[i].length();
+                if (files[i].delete()) size -= length;
+            }
+        }
+        diskSize = size;
+    }
+
+    private static final int MAGIC = 0x4C424C31; // "LBL1"
+    // Magic, width and height
+    private static final int HEADER_SIZE = 12;
+    private static final String SUFFIX = ".lbl";
+
+    private final long maxMemoryBytes;
+    private final File diskDir;
+    private final long maxDiskBytes;
+
+    // In access order, the least recently used first
+    private final Map<String, MonoBitmap> memory = new LinkedHashMap<String, MonoBitmap>(16, 0.75f, true);
+    private long memorySize = 0;
+    private long memoryHits = 0;
+    private long diskHits = 0;
+    private long misses = 0;
+
+    // Bytes in the disk tier, -1 until the directory has been listed; guarded by diskDir
+    private long diskSize = -1;
+}
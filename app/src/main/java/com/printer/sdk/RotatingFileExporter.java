@@ -0,0 +1,64 @@
+package com.printer.sdk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.json.JSONException;
+
+// Appends each metrics snapshot as one JSON line to a file, which can be read back with JsonLinesRecordReader.
+// When the file grows past maxBytes it is renamed to name.1, name.1 to name.2 and so on; the oldest is deleted.
+public class RotatingFileExporter implements PrintMetrics.Exporter {
+
+    public RotatingFileExporter(File file, long maxBytes, int maxFiles) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    @Override
+    public synchronized void export(PrintMetrics.Snapshot snapshot) throws IOException {
+        String line;
+        try {
+            line = snapshot.toJson().toString();
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        if (file.length() > 0 && file.length() + line.length() + 1 > maxBytes) {
+            rotate();
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void rotate() throws IOException {
+        File oldest = maxFiles == 1 ? file : rotated(maxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Cannot delete " + oldest);
+        }
+        for (int i = maxFiles - 2; i >= 0; i--) {
+            File from = i == 0 ? file : rotated(i);
+            if (from.exists() && !from.renameTo(rotated(i + 1))) {
+                throw new IOException("Cannot rename " + from);
+            }
+        }
+    }
+
+    private File rotated(int index) {
+        return new File(file.getPath() + "." + index);
+    }
+
+    private final File file;
+    private final long maxBytes;
+    // The current file plus maxFiles - 1 rotated ones
+    private final int maxFiles;
+}
@@ -0,0 +1,34 @@
+package com.printer.sdk;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Milestones of the application start (interface shown, settings loaded, printer connected, first label printed...),
+// in milliseconds since the trace was created. Only the first time a milestone is reached counts.
+public class StartupTrace {
+
+    public StartupTrace() {
+        this.start = System.nanoTime();
+    }
+
+    // Records the milestone unless it was already reached
+    public synchronized void mark(String milestone) {
+        if (!marks.containsKey(milestone)) {
+            marks.put(milestone, (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    // Milliseconds from the start to the milestone, -1 if it was not reached
+    public synchronized long getMark(String milestone) {
+        Long mark = marks.get(milestone);
+        return mark == null ? -1 : mark;
+    }
+
+    // Milestones reached so far, in the order they were reached
+    public synchronized Map<String, Long> getMarks() {
+        return new LinkedHashMap<String, Long>(marks);
+    }
+
+    private final long start;
+    private final Map<String, Long> marks = new LinkedHashMap<String, Long>();
+}
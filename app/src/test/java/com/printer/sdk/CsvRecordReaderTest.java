@@ -0,0 +1,49 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.Test;
+
+// Records of a batch read from CSV
+public class CsvRecordReaderTest {
+
+    @Test
+    public void readsQuotedFields() throws IOException {
+        CsvRecordReader reader = new CsvRecordReader(new StringReader(
+                "text,barcode\n"
+                + "\"Parcel 01\nShelf B\",4006381000001\n"
+                + "\n"
+                + "\"Say \"\"hi\"\", bye\",42\r\n"));
+        assertArrayEquals(new String[] {"text", "barcode"}, reader.getFieldNames());
+
+        Map<String, String> first = reader.next();
+        assertEquals("Parcel 01\nShelf B", first.get("text"));
+        assertEquals("4006381000001", first.get("barcode"));
+
+        // The blank line is skipped
+        Map<String, String> second = reader.next();
+        assertEquals("Say \"hi\", bye", second.get("text"));
+        assertEquals("42", second.get("barcode"));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void readsOtherSeparators() throws IOException {
+        CsvRecordReader reader = new CsvRecordReader(new StringReader("a;b\n1;2\n"), ';');
+        Map<String, String> record = reader.next();
+        assertEquals("1", record.get("a"));
+        assertEquals("2", record.get("b"));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnEmptyFile() throws IOException {
+        new CsvRecordReader(new StringReader(""));
+    }
+}
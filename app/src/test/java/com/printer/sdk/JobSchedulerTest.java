@@ -0,0 +1,50 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+// Order in which the scheduler hands out jobs, no printer involved
+public class JobSchedulerTest {
+
+    @Test
+    public void sourcesShareByWeight() {
+        JobScheduler scheduler = new JobScheduler(16);
+        scheduler.setWeight("fast", 2);
+        List<PrintJob> slow = add(scheduler, "slow", 2, 1);
+        List<PrintJob> fast = add(scheduler, "fast", 4, 1);
+
+        // Finish tags: slow 1 2, fast 0.5 1 1.5 2
+        assertSame(fast.get(0), scheduler.poll());
+        PrintJob second = scheduler.poll();
+        assertSame(second == slow.get(0) ? fast.get(1) : slow.get(0), scheduler.poll());
+        assertSame(fast.get(2), scheduler.poll());
+    }
+
+    @Test
+    public void cancelledJobsDoNotCountAgainstTheirSource() {
+        JobScheduler scheduler = new JobScheduler(16);
+        List<PrintJob> batch = add(scheduler, "batch", 10, 1);
+        for (PrintJob job : batch.subList(0, 9)) {
+            job.cancel(false);
+        }
+        PrintJob other = add(scheduler, "other", 1, 2).get(0);
+
+        // The one label left of the batch goes before the two copies of the other source
+        assertSame(batch.get(9), scheduler.poll());
+        assertSame(other, scheduler.poll());
+    }
+
+    private static List<PrintJob> add(JobScheduler scheduler, String source, int count, int copies) {
+        List<PrintJob> jobs = new ArrayList<PrintJob>();
+        for (int i = 0; i < count; i++) {
+            PrintJob job = new PrintJob(new MonoBitmap(8, 8), PrintParams.DEFAULT.withCopies(copies)).setSource(source);
+            scheduler.offer(job);
+            jobs.add(job);
+        }
+        return jobs;
+    }
+}
@@ -0,0 +1,217 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.dothantech.printer.IDzPrinter.AddressType;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+
+// Print queue in front of the emulated printer, run on the development machine
+public class PrintQueueTest {
+
+    @After
+    public void tearDown() {
+        if (queue != null) queue.shutdown();
+        if (transport != null) transport.quit();
+    }
+
+    @Test
+    public void printsJobsInOrder() throws Exception {
+        start(new EmulatorTransport.Builder().connectTime(10).timeScale(100));
+        PrintJob first = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        PrintJob second = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertTrue(second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, transport.getPrintedCount());
+    }
+
+    @Test
+    public void coalescesIdenticalLabels() throws Exception {
+        start(new EmulatorTransport.Builder().connectTime(10).timeScale(100));
+        queue.setCoalesceWindow(50);
+        // The identical labels queue up behind a long one
+        PrintJob before = queue.submit(new PrintJob(new MonoBitmap(384, 2400), PrintParams.DEFAULT));
+        MonoBitmap label = new MonoBitmap(384, 240);
+        PrintJob[] same = new PrintJob[3];
+        for (int i = 0; i < same.length; i++) {
+            same[i] = queue.submit(new PrintJob(label, PrintParams.DEFAULT, "same", null));
+        }
+
+        assertTrue(before.get(5, TimeUnit.SECONDS));
+        for (PrintJob job : same) {
+            assertTrue(job.get(5, TimeUnit.SECONDS));
+        }
+        // One job with three copies, each label printed once
+        assertEquals(2, transport.getPrintedCount());
+        assertEquals(4, transport.getLabelCount());
+    }
+
+    @Test
+    public void singleLabelIsNotHeldBack() throws Exception {
+        start(new EmulatorTransport.Builder().connectTime(10).timeScale(100));
+        queue.setCoalesceWindow(5000);
+        // No identical label queued behind it, nothing to wait for
+        PrintJob job = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT, "once", null));
+
+        assertTrue(job.get(2, TimeUnit.SECONDS));
+        assertEquals(1, transport.getLabelCount());
+    }
+
+    @Test
+    public void shutdownFailsTheJobBeingPrinted() throws Exception {
+        // A long label over a slow link, still printing when the queue shuts down
+        start(new EmulatorTransport.Builder().connectTime(10).linkBandwidth(1000));
+        PrintJob printing = queue.submit(new PrintJob(new MonoBitmap(384, 2000), PrintParams.DEFAULT));
+        PrintJob waiting = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        while (queue.getCurrentJob() != printing) {
+            Thread.sleep(1);
+        }
+
+        queue.shutdown();
+        assertFalse(printing.get(5, TimeUnit.SECONDS));
+        assertEquals(PrintFailReason.Cancelled, printing.getFailReason());
+        assertTrue(waiting.isCancelled());
+        try {
+            waiting.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("A job cancelled before it was sent has no result");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void jobsSubmittedAfterShutdownAreCancelled() throws Exception {
+        start(new EmulatorTransport.Builder().connectTime(10).timeScale(100));
+        queue.shutdown();
+
+        PrintJob submitted = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        assertTrue(submitted.isCancelled());
+        PrintJob offered = new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT);
+        assertFalse(queue.offer(offered));
+        assertTrue(offered.isCancelled());
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    @Test
+    public void shutdownCancelsTheJobsWaitingForSpace() throws Exception {
+        // The dispatcher waits for the printer to come back, the full queue blocks the next submit
+        transport = new EmulatorTransport.Builder().connectTime(10).timeScale(100).build();
+        queue = new PrintQueue(transport, 1);
+        queue.setReplayOnReconnect(true);
+        queue.start();
+        queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        final PrintJob blocked = new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.submit(blocked);
+                } catch (InterruptedException e) {
+                    // Not expected, the assertion below fails
+                }
+            }
+        });
+        submitter.start();
+        Thread.sleep(50);
+
+        queue.shutdown();
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        assertTrue(blocked.isCancelled());
+    }
+
+    @Test
+    public void listenersHearOfCancelledJobs() throws Exception {
+        // A long label over a slow link, the others wait behind it
+        start(new EmulatorTransport.Builder().connectTime(10).linkBandwidth(1000));
+        final List<PrintJob> cancelled = new CopyOnWriteArrayList<PrintJob>();
+        queue.addListener(new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                if (progress == PrintProgress.Failed && addiInfo == PrintFailReason.Cancelled) cancelled.add(job);
+            }
+        });
+        PrintJob printing = queue.submit(new PrintJob(new MonoBitmap(384, 2000), PrintParams.DEFAULT));
+        PrintJob withdrawn = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        PrintJob dropped = queue.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT));
+        while (queue.getCurrentJob() != printing) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(withdrawn.cancel(false));
+        assertEquals(Arrays.asList(withdrawn), cancelled);
+        queue.shutdown();
+        assertTrue(dropped.isCancelled());
+        assertTrue(cancelled.contains(dropped));
+        // The dispatcher reports the job being printed once it stopped waiting for the printer
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cancelled.contains(printing) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, cancelled.size());
+    }
+
+    @Test
+    public void rotatedBandedLabelIsRefused() throws Exception {
+        start(new EmulatorTransport.Builder().connectTime(10).timeScale(100));
+        BandedLabel label = new BandedLabel(384, 1000, BandedLabel.DEFAULT_BAND_HEIGHT, new BandedLabel.Renderer() {
+            @Override
+            public void render(int top, MonoBitmap band) {
+                band.setBlack(0, 0, true);
+            }
+        });
+        PrintParams turned = new PrintParams(-1, -1, -1, 90, 1);
+        try {
+            new PrintJob(label, turned);
+            throw new AssertionError("A banded label was queued with an orientation");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        // Still rendering when queued, the transport refuses it
+        FutureTask<BandedLabel> rendered = new FutureTask<BandedLabel>(new Callable<BandedLabel>() {
+            @Override
+            public BandedLabel call() {
+                return new BandedLabel(384, 1000, BandedLabel.DEFAULT_BAND_HEIGHT, new BandedLabel.Renderer() {
+                    @Override
+                    public void render(int top, MonoBitmap band) {
+                    }
+                });
+            }
+        });
+        rendered.run();
+        PrintJob job = queue.submit(new PrintJob(rendered, turned));
+        assertFalse(job.get(5, TimeUnit.SECONDS));
+        assertTrue(queue.submit(new PrintJob(label, PrintParams.DEFAULT)).get(5, TimeUnit.SECONDS));
+    }
+
+    // Queue started in front of a connected emulator
+    private void start(EmulatorTransport.Builder builder) throws InterruptedException {
+        transport = builder.build();
+        queue = new PrintQueue(transport, 8);
+        queue.start();
+        transport.openPrinter(new PrinterAddress("Emulator", "00:00:00:00:00:00", AddressType.SPP));
+        while (transport.getPrinterState() != PrinterState.Connected) {
+            Thread.sleep(1);
+        }
+    }
+
+    private EmulatorTransport transport;
+    private PrintQueue queue;
+}
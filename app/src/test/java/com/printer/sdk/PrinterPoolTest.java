@@ -0,0 +1,150 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dothantech.printer.IDzPrinter.AddressType;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+
+// Printer pool over emulated printers, run on the development machine
+public class PrinterPoolTest {
+
+    @Before
+    public void setUp() throws InterruptedException {
+        pool = new PrinterPool(new PrinterPool.TransportFactory() {
+            @Override
+            public PrinterTransport createTransport(PrinterAddress address) {
+                EmulatorTransport transport = new EmulatorTransport.Builder().connectTime(10).timeScale(10).build();
+                transports.put(address.macAddress, transport);
+                return transport;
+            }
+        });
+        assertTrue(pool.addPrinter(PRINTER_A));
+        assertTrue(pool.addPrinter(PRINTER_B));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getConnectedCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(2, pool.getConnectedCount());
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void sharesJobsBetweenPrinters() throws Exception {
+        List<PrintJob> jobs = submit(8);
+        for (PrintJob job : jobs) {
+            assertTrue(job.get(10, TimeUnit.SECONDS));
+        }
+        int a = transports.get(PRINTER_A.macAddress).getPrintedCount();
+        int b = transports.get(PRINTER_B.macAddress).getPrintedCount();
+        assertEquals(8, a + b);
+        assertTrue(a > 0 && b > 0);
+    }
+
+    @Test
+    public void movesJobsOfADisconnectedPrinter() throws Exception {
+        List<PrintJob> jobs = submit(4);
+        transports.get(PRINTER_A.macAddress).disconnect();
+        jobs.addAll(submit(4));
+
+        // Only the job at printer A when the link dropped may fail, the others print on printer B
+        int failed = 0;
+        for (PrintJob job : jobs) {
+            if (!job.get(10, TimeUnit.SECONDS)) {
+                assertEquals(PrintFailReason.Disconnected, job.getFailReason());
+                failed++;
+            }
+        }
+        assertTrue(failed <= 1);
+    }
+
+    @Test
+    public void shutdownCompletesEveryJob() throws Exception {
+        List<PrintJob> jobs = submit(4);
+        pool.shutdown();
+        for (PrintJob job : jobs) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!job.isDone() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(job + " not completed", job.isDone());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void reconnectsDroppedPrinters() throws Exception {
+        transports.get(PRINTER_A.macAddress).disconnect();
+        transports.get(PRINTER_B.macAddress).disconnect();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getConnectedCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // Waits for a printer to come back instead of forever
+        List<PrintJob> jobs = submit(2);
+        for (PrintJob job : jobs) {
+            assertTrue(job.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void shutdownCancelsABlockedSubmit() throws Exception {
+        // Long labels fill both printers, the next submit waits for space
+        for (int i = 0; i < 6; i++) {
+            pool.submit(new PrintJob(new MonoBitmap(384, 24000), PrintParams.DEFAULT));
+        }
+        final PrintJob blocked = new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT);
+        Thread submitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.submit(blocked);
+                } catch (InterruptedException e) {
+                    // Not expected, the assertion below fails
+                }
+            }
+        });
+        submitter.start();
+        Thread.sleep(50);
+        assertTrue(submitter.isAlive());
+
+        pool.shutdown();
+        submitter.join(5000);
+        assertFalse(submitter.isAlive());
+        assertTrue(blocked.isCancelled());
+
+        PrintJob late = new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT);
+        assertFalse(pool.offer(late));
+        assertTrue(late.isCancelled());
+    }
+
+    private List<PrintJob> submit(int count) throws InterruptedException {
+        List<PrintJob> jobs = new ArrayList<PrintJob>();
+        for (int i = 0; i < count; i++) {
+            jobs.add(pool.submit(new PrintJob(new MonoBitmap(384, 240), PrintParams.DEFAULT)));
+        }
+        return jobs;
+    }
+
+    private static final PrinterAddress PRINTER_A = new PrinterAddress("A", "00:00:00:00:00:0A", AddressType.SPP);
+    private static final PrinterAddress PRINTER_B = new PrinterAddress("B", "00:00:00:00:00:0B", AddressType.SPP);
+
+    private final Map<String, EmulatorTransport> transports = new ConcurrentHashMap<String, EmulatorTransport>();
+    private PrinterPool pool;
+}
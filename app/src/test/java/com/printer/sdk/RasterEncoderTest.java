@@ -0,0 +1,124 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dothantech.printer.IDzPrinter.AddressType;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+
+// Raster streams sent to the emulated printer, which must receive exactly the dots of the label
+public class RasterEncoderTest {
+
+    @Before
+    public void setUp() throws InterruptedException {
+        transport = new EmulatorTransport.Builder().connectTime(10).timeScale(1000).build();
+        queue = new PrintQueue(transport, 8);
+        queue.start();
+        transport.openPrinter(new PrinterAddress("Emulator", "00:00:00:00:00:00", AddressType.SPP));
+        while (transport.getPrinterState() != PrinterState.Connected) {
+            Thread.sleep(1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        transport.quit();
+    }
+
+    @Test
+    public void blankLabel() throws Exception {
+        assertRoundTrip(new MonoBitmap(384, 240));
+    }
+
+    @Test
+    public void blackLabel() throws Exception {
+        MonoBitmap label = new MonoBitmap(383, 100);
+        for (int y = 0; y < label.getHeight(); y++) {
+            for (int x = 0; x < label.getWidth(); x++) {
+                label.setBlack(x, y, true);
+            }
+        }
+        assertRoundTrip(label);
+    }
+
+    // Text-like rows with margins, repeated rows, blank runs and rows close to the one above
+    @Test
+    public void labelLikeContent() throws Exception {
+        Random random = new Random(16);
+        MonoBitmap label = new MonoBitmap(577, 400);
+        for (int y = 40; y < 360; y++) {
+            if (y % 50 > 40) continue;
+            if (y % 7 == 0) {
+                copyRow(label, y - 1, y);
+                continue;
+            }
+            for (int x = 30 + y % 13; x < 540; x++) {
+                if (((x / (1 + y % 5)) & 3) == 0 || random.nextInt(20) == 0) label.setBlack(x, y, true);
+            }
+        }
+        assertRoundTrip(label);
+    }
+
+    @Test
+    public void noise() throws Exception {
+        Random random = new Random(17);
+        for (int width = 1; width < 70; width += 9) {
+            MonoBitmap label = new MonoBitmap(width, 50);
+            for (int y = 0; y < label.getHeight(); y++) {
+                for (int x = 0; x < width; x++) {
+                    label.setBlack(x, y, random.nextBoolean());
+                }
+            }
+            assertRoundTrip(label);
+        }
+    }
+
+    // A few bytes declaring a huge blank label are refused before anything is allocated
+    @Test
+    public void hugeLabelIsRejected() {
+        byte[] tooWide = {'R', 'S', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                RasterEncoder.FEED, (byte) 0xFF, (byte) 0xFF, RasterEncoder.END};
+        byte[] tooLong = {'R', 'S', 1, 0x01, (byte) 0x80, (byte) 0xFF, (byte) 0xFF,
+                RasterEncoder.FEED, (byte) 0xFF, (byte) 0xFF, RasterEncoder.END};
+        for (byte[] stream : new byte[][] {tooWide, tooLong}) {
+            try {
+                RasterEncoder.decode(stream);
+                throw new AssertionError("Decoded a label of " + stream.length + " bytes declaring a huge size");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    // Encodes the label, prints the stream on the emulator and compares what it decoded byte for byte
+    private void assertRoundTrip(MonoBitmap label) throws Exception {
+        byte[] stream = RasterEncoder.encode(label);
+        PrintJob job = queue.submit(new PrintJob(stream, PrintParams.DEFAULT));
+        assertTrue(job.get(5, TimeUnit.SECONDS));
+
+        MonoBitmap received = transport.getLastLabel();
+        assertNotNull(received);
+        assertEquals(label.getWidth(), received.getWidth());
+        assertEquals(label.getHeight(), received.getHeight());
+        assertArrayEquals(label.getData(), received.getData());
+    }
+
+    private static void copyRow(MonoBitmap label, int from, int to) {
+        int stride = label.getStride();
+        System.arraycopy(label.getData(), from * stride, label.getData(), to * stride, stride);
+    }
+
+    private EmulatorTransport transport;
+    private PrintQueue queue;
+}
@@ -0,0 +1,81 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dothantech.printer.IDzPrinter.AddressType;
+import com.dothantech.printer.IDzPrinter.PrintFailReason;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+
+import android.graphics.Bitmap;
+
+// Render pipeline in front of the emulated printer
+public class RenderPipelineTest {
+
+    @Before
+    public void setUp() throws InterruptedException {
+        transport = new EmulatorTransport.Builder().connectTime(10).timeScale(100).build();
+        queue = new PrintQueue(transport, 8);
+        queue.start();
+        transport.openPrinter(new PrinterAddress("Emulator", "00:00:00:00:00:00", AddressType.SPP));
+        while (transport.getPrinterState() != PrinterState.Connected) {
+            Thread.sleep(1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        transport.quit();
+    }
+
+    @Test
+    public void shutdownFailsLabelsNotRendered() throws Exception {
+        RenderPipeline pipeline = new RenderPipeline(queue, 1, 4);
+        final CountDownLatch rendering = new CountDownLatch(1);
+        List<PrintJob> jobs = new ArrayList<PrintJob>();
+        // The only worker is busy with the first label, the others wait for it
+        jobs.add(pipeline.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                rendering.countDown();
+                Thread.sleep(60000);
+                return null;
+            }
+        }, PrintParams.DEFAULT, null));
+        for (int i = 0; i < 3; i++) {
+            jobs.add(pipeline.submit(new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() {
+                    throw new AssertionError("Rendered after shutdown");
+                }
+            }, PrintParams.DEFAULT, null));
+        }
+        rendering.await();
+
+        pipeline.shutdown();
+        for (PrintJob job : jobs) {
+            assertFalse(job.get(5, TimeUnit.SECONDS));
+            assertNotNull(job.getFailReason());
+        }
+        // The label being rendered was interrupted, the others never started
+        for (int i = 1; i < jobs.size(); i++) {
+            assertEquals(PrintFailReason.Cancelled, jobs.get(i).getFailReason());
+        }
+    }
+
+    private EmulatorTransport transport;
+    private PrintQueue queue;
+}
@@ -0,0 +1,56 @@
+package com.printer.sdk;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Disk tier of the label cache
+public class RenderedLabelCacheTest {
+
+    @Test
+    public void labelsSurviveTheMemoryTier() throws IOException {
+        RenderedLabelCache cache = new RenderedLabelCache(1 << 20, folder.getRoot(), 1 << 20);
+        MonoBitmap label = new MonoBitmap(50, 20);
+        label.setBlack(3, 4, true);
+        String key = RenderedLabelCache.key(PrintParams.DEFAULT, "label");
+        cache.put(key, label);
+        cache.clearMemory();
+
+        MonoBitmap read = cache.get(key);
+        assertNotNull(read);
+        assertArrayEquals(label.getData(), read.getData());
+    }
+
+    // A header claiming a huge label over a few bytes of dots is a miss, not an allocation
+    @Test
+    public void corruptFileIsAMiss() throws IOException {
+        RenderedLabelCache cache = new RenderedLabelCache(1 << 20, folder.getRoot(), 1 << 20);
+        String key = RenderedLabelCache.key(PrintParams.DEFAULT, "corrupt");
+        File file = new File(folder.getRoot(), key + ".lbl");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(0x4C424C31);
+            out.writeInt(Integer.MAX_VALUE / 2);
+            out.writeInt(Integer.MAX_VALUE / 2);
+            out.write(new byte[16]);
+        } finally {
+            out.close();
+        }
+
+        assertNull(cache.get(key));
+        assertFalse(file.exists());
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+}
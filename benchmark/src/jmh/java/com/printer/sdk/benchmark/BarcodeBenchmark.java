@@ -0,0 +1,63 @@
+package com.printer.sdk.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.printer.sdk.BarcodeCache;
+import com.printer.sdk.BarcodeEncoder;
+import com.printer.sdk.BarcodeMatrix;
+import com.printer.sdk.QrCodeEncoder;
+
+// Encoding of the barcode symbols of a label, from scratch and through the symbol cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BarcodeBenchmark {
+
+    @Param({"CODE128", "EAN13", "CODE39", "QR_CODE", "DATA_MATRIX"})
+    public BarcodeEncoder.Symbology symbology;
+
+    @Setup
+    public void setUp() {
+        switch (symbology) {
+            case EAN13:
+                payload = "400638133393";
+                break;
+
+            case CODE39:
+                payload = "SKU-0042-AB";
+                break;
+
+            case CODE128:
+                payload = "Lot 2024-11/0042 00012345678";
+                break;
+
+            default:
+                payload = "https://example.com/p/00012345678?lot=2024-11-0042&serial=ABCDEF0123456789";
+                break;
+        }
+        cache = new BarcodeCache(BarcodeCache.DEFAULT_MAX_BYTES);
+    }
+
+    @Benchmark
+    public BarcodeMatrix encode() {
+        return BarcodeEncoder.encode(symbology, payload, QrCodeEncoder.ErrorCorrection.H);
+    }
+
+    // A reprint of the same payload
+    @Benchmark
+    public BarcodeMatrix cached() {
+        return cache.get(symbology, payload, QrCodeEncoder.ErrorCorrection.H);
+    }
+
+    private String payload;
+    private BarcodeCache cache;
+}
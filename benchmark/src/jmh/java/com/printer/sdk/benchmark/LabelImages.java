@@ -0,0 +1,86 @@
+package com.printer.sdk.benchmark;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+// Images used by the benchmarks: the sample assets of the app and synthetic labels drawn with AWT
+final class LabelImages {
+
+    // Name of the synthetic label, a 100x150 mm shipping label at 300 dpi
+    static final String LARGE_LABEL = "large-label";
+
+    private LabelImages() {
+    }
+
+    // ARGB pixels of an image, one int per pixel, rows of width pixels
+    static final class Pixels {
+        Pixels(int width, int height, int[] argb) {
+            this.width = width;
+            this.height = height;
+            this.argb = argb;
+        }
+
+        final int width;
+        final int height;
+        final int[] argb;
+    }
+
+    // An asset of the app (e.g. test1.png) or LARGE_LABEL
+    static Pixels load(String name) throws IOException {
+        if (LARGE_LABEL.equals(name)) return toPixels(drawLabel(100, 150, 300));
+
+        String assets = System.getProperty("benchmark.assets", "../app/src/main/assets");
+        BufferedImage image = ImageIO.read(new File(assets, name));
+        if (image == null) throw new IOException("Cannot decode " + name);
+        return toPixels(image);
+    }
+
+    // Label with text, boxes, barcode bars and a photo-like gradient, sized in millimetres
+    static BufferedImage drawLabel(int widthMm, int heightMm, int dpi) {
+        int width = widthMm * dpi * 10 / 254;
+        int height = heightMm * dpi * 10 / 254;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+
+            g.setColor(Color.BLACK);
+            g.drawRect(width / 40, height / 40, width - width / 20, height - height / 20);
+            g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, height / 30));
+            for (int line = 0; line < 6; line++) {
+                g.drawString("SHIP TO: 1234 Long Street Name, Apt " + line, width / 20, height / 10 + line * height / 25);
+            }
+
+            // Barcode-like bars of 1 to 4 modules
+            int x = width / 20;
+            int module = Math.max(1, dpi / 100);
+            for (int i = 0; x < width - width / 20; i++) {
+                int bar = (1 + (i * 7) % 4) * module;
+                if ((i & 1) == 0) g.fillRect(x, height * 2 / 5, bar, height / 6);
+                x += bar;
+            }
+
+            // Photo area, continuous tones are the worst case for dithering
+            g.setPaint(new GradientPaint(0, 0, Color.BLACK, width, height / 3, new Color(0xF0, 0xE0, 0xD0)));
+            g.fillOval(width / 20, height * 3 / 5, width * 9 / 10, height / 3);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    static Pixels toPixels(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        return new Pixels(width, height, argb);
+    }
+}
@@ -0,0 +1,65 @@
+package com.printer.sdk.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.printer.sdk.MonoBitmap;
+import com.printer.sdk.MonochromeConverter;
+
+// Conversion of a whole image to packed 1-bit dots, on one thread and in stripes on every core
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MonochromeBenchmark {
+
+    @Param({"test1.png", "test2.png", "test3.png", "test4.png", LabelImages.LARGE_LABEL})
+    public String image;
+
+    @Param({"THRESHOLD", "BAYER", "FLOYD_STEINBERG", "ATKINSON"})
+    public MonochromeConverter.Algorithm algorithm;
+
+    @Setup
+    public void setUp() throws IOException {
+        pixels = LabelImages.load(image);
+        converter = new MonochromeConverter(algorithm);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public MonoBitmap singleThread() {
+        return converter.convert(pixels.argb, 0, pixels.width, pixels.width, pixels.height);
+    }
+
+    @Benchmark
+    public MonoBitmap stripes() {
+        final int[] argb = pixels.argb;
+        final int width = pixels.width;
+        return converter.convert(new MonochromeConverter.RowSource() {
+            @Override
+            public void getRow(int y, int[] row) {
+                System.arraycopy(argb, y * width, row, 0, width);
+            }
+        }, width, pixels.height, executor);
+    }
+
+    private LabelImages.Pixels pixels;
+    private MonochromeConverter converter;
+    private ExecutorService executor;
+}
@@ -0,0 +1,114 @@
+package com.printer.sdk.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dothantech.printer.IDzPrinter.AddressType;
+import com.dothantech.printer.IDzPrinter.PrintProgress;
+import com.dothantech.printer.IDzPrinter.PrinterAddress;
+import com.dothantech.printer.IDzPrinter.PrinterState;
+import com.printer.sdk.ConnectionSupervisor;
+import com.printer.sdk.EmulatorTransport;
+import com.printer.sdk.MonoBitmap;
+import com.printer.sdk.MonochromeConverter;
+import com.printer.sdk.PrintJob;
+import com.printer.sdk.PrintParams;
+import com.printer.sdk.PrintQueue;
+import com.printer.sdk.RasterEncoder;
+
+// A batch of 100x150 mm shipping labels through the print queue to the emulated printer, with link drops and print
+// failures, sent as packed bitmaps or as raster streams. The emulator runs TIME_SCALE times faster than a real printer.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class PrintQueueBenchmark {
+
+    public static final int LABELS = 200;
+    public static final double TIME_SCALE = 1000;
+
+    @Param({"0", "0.02"})
+    public double disconnectRate;
+
+    @Param({"0", "0.03"})
+    public double failureRate;
+
+    @Param({"bitmap", "raster"})
+    public String encoding;
+
+    @Setup(Level.Trial)
+    public void loadLabel() {
+        LabelImages.Pixels pixels = LabelImages.toPixels(LabelImages.drawLabel(100, 150, EmulatorTransport.DEFAULT_DPI));
+        MonoBitmap dots = new MonochromeConverter(MonochromeConverter.Algorithm.THRESHOLD)
+                .convert(pixels.argb, 0, pixels.width, pixels.width, pixels.height);
+        label = "raster".equals(encoding) ? RasterEncoder.encode(dots) : dots;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws InterruptedException {
+        transport = new EmulatorTransport.Builder()
+                .connectTime(1000)
+                .disconnectRate(disconnectRate)
+                .failureRate(failureRate)
+                .seed(SEED)
+                .timeScale(TIME_SCALE)
+                .build();
+        queue = new PrintQueue(transport, LABELS);
+        queue.setReplayOnReconnect(true);
+        queue.start();
+        supervisor = new ConnectionSupervisor(transport);
+        supervisor.setBackoff(1, 10);
+        supervisor.connect(new PrinterAddress("Emulator", "00:00:00:00:00:00", AddressType.SPP));
+        while (transport.getPrinterState() != PrinterState.Connected) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        supervisor.shutdown();
+        queue.shutdown();
+        transport.quit();
+    }
+
+    // Labels printed successfully out of LABELS
+    @Benchmark
+    public int printBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(LABELS);
+        final AtomicInteger printed = new AtomicInteger();
+        PrintJob.Listener listener = new PrintJob.Listener() {
+            @Override
+            public void onPrintProgress(PrintJob job, PrintProgress progress, Object addiInfo) {
+                if (progress == PrintProgress.Success) printed.incrementAndGet();
+                if (progress == PrintProgress.Success || progress == PrintProgress.Failed) done.countDown();
+            }
+        };
+        for (int i = 0; i < LABELS; i++) {
+            queue.submit(new PrintJob(label, PrintParams.DEFAULT, listener));
+        }
+        done.await();
+        return printed.get();
+    }
+
+    private static final long SEED = 42;
+
+    private EmulatorTransport transport;
+    private PrintQueue queue;
+    private ConnectionSupervisor supervisor;
+    private Object label;
+}
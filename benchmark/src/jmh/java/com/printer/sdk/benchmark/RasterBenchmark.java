@@ -0,0 +1,51 @@
+package com.printer.sdk.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.printer.sdk.MonoBitmap;
+import com.printer.sdk.MonochromeConverter;
+import com.printer.sdk.RasterEncoder;
+
+// Raster stream encoding of printer-ready labels, the CPU paid to send fewer bytes over the link
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RasterBenchmark {
+
+    @Param({"test1.png", "test4.png", LabelImages.LARGE_LABEL})
+    public String image;
+
+    @Setup
+    public void setUp() throws IOException {
+        LabelImages.Pixels pixels = LabelImages.load(image);
+        // The shipping label is text and bars, the sample images are photos
+        MonochromeConverter.Algorithm algorithm = LabelImages.LARGE_LABEL.equals(image)
+                ? MonochromeConverter.Algorithm.THRESHOLD : MonochromeConverter.Algorithm.FLOYD_STEINBERG;
+        label = new MonochromeConverter(algorithm).convert(pixels.argb, 0, pixels.width, pixels.width, pixels.height);
+        stream = RasterEncoder.encode(label);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return RasterEncoder.encode(label);
+    }
+
+    // What the emulated printer does with every raster job
+    @Benchmark
+    public MonoBitmap decode() {
+        return RasterEncoder.decode(stream);
+    }
+
+    private MonoBitmap label;
+    private byte[] stream;
+}
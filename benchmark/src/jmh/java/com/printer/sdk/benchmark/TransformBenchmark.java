@@ -0,0 +1,93 @@
+package com.printer.sdk.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.printer.sdk.MonoBitmap;
+import com.printer.sdk.MonoTransform;
+import com.printer.sdk.MonochromeConverter;
+
+// Rotation and scaling of printer-ready labels on their packed dots, compared with turning them dot by dot
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransformBenchmark {
+
+    @Param({"test1.png", LabelImages.LARGE_LABEL})
+    public String image;
+
+    @Param({"90", "180", "270"})
+    public int degrees;
+
+    @Setup
+    public void setUp() throws IOException {
+        LabelImages.Pixels pixels = LabelImages.load(image);
+        MonochromeConverter.Algorithm algorithm = LabelImages.LARGE_LABEL.equals(image)
+                ? MonochromeConverter.Algorithm.THRESHOLD : MonochromeConverter.Algorithm.FLOYD_STEINBERG;
+        label = new MonochromeConverter(algorithm).convert(pixels.argb, 0, pixels.width, pixels.width, pixels.height);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public MonoBitmap rotate() {
+        return MonoTransform.rotate(label, degrees);
+    }
+
+    @Benchmark
+    public MonoBitmap rotateStripes() {
+        return MonoTransform.rotate(label, degrees, executor);
+    }
+
+    // What the kernels replace: every dot read and written on its own
+    @Benchmark
+    public MonoBitmap rotateDotByDot() {
+        int width = label.getWidth();
+        int height = label.getHeight();
+        MonoBitmap out = degrees == 180 ? new MonoBitmap(width, height) : new MonoBitmap(height, width);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (!label.isBlack(x, y)) continue;
+                if (degrees == 90) {
+                    out.setBlack(height - 1 - y, x, true);
+                } else if (degrees == 180) {
+                    out.setBlack(width - 1 - x, height - 1 - y, true);
+                } else {
+                    out.setBlack(y, width - 1 - x, true);
+                }
+            }
+        }
+        return out;
+    }
+
+    // Label made for a 300 dpi head printed at 203 dpi
+    @Benchmark
+    public MonoBitmap scaleBox() {
+        return MonoTransform.scale(label, label.getWidth() * 203 / 300, label.getHeight() * 203 / 300, MonoTransform.Filter.BOX);
+    }
+
+    // Label made for a 203 dpi head printed at 300 dpi
+    @Benchmark
+    public MonoBitmap scaleNearest() {
+        return MonoTransform.scale(label, label.getWidth() * 300 / 203, label.getHeight() * 300 / 203, MonoTransform.Filter.NEAREST);
+    }
+
+    private MonoBitmap label;
+    private ExecutorService executor;
+}